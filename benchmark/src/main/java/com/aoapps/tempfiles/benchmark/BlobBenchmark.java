@@ -0,0 +1,115 @@
+/*
+ * ao-tempfiles - Java temporary file API filling-in JDK gaps and deficiencies.
+ * Copyright (C) 2026  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of ao-tempfiles.
+ *
+ * ao-tempfiles is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ao-tempfiles is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ao-tempfiles.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.aoapps.tempfiles.benchmark;
+
+import com.aoapps.tempfiles.TempBlob;
+import com.aoapps.tempfiles.TempFile;
+import com.aoapps.tempfiles.TempFileContext;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The full life of a small temporary blob of content, written, read back, and closed, using a
+ * {@linkplain TempFileContext#createTempBlob(int) blob packed into a shared backing file} versus a separate
+ * {@link TempFile}.  The blob avoids the create, open, and delete system calls of each file.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class BlobBenchmark {
+
+  /**
+   * The number of bytes written to each blob.
+   */
+  @Param({"1024", "16384"})
+  public int size;
+
+  private TempFileContext context;
+  private byte[] content;
+  private byte[] buffer;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    context = new TempFileContext();
+    content = new byte[size];
+    buffer = new byte[size];
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    context.close();
+    context = null;
+  }
+
+  private int readFully(InputStream in) throws IOException {
+    int total = 0;
+    int count;
+    while (total < buffer.length && (count = in.read(buffer, total, buffer.length - total)) != -1) {
+      total += count;
+    }
+    return total;
+  }
+
+  @Benchmark
+  public int tempBlob() throws IOException {
+    try (TempBlob blob = context.createTempBlob(size)) {
+      try (OutputStream out = blob.newOutputStream()) {
+        out.write(content);
+      }
+      try (InputStream in = blob.newInputStream()) {
+        return readFully(in);
+      }
+    }
+  }
+
+  @Benchmark
+  public int tempFile() throws IOException {
+    try (TempFile tempFile = context.createTempFile("blob_", null)) {
+      try (OutputStream out = tempFile.newOutputStream()) {
+        out.write(content);
+      }
+      try (InputStream in = tempFile.newInputStream()) {
+        return readFully(in);
+      }
+    }
+  }
+}
@@ -0,0 +1,90 @@
+/*
+ * ao-tempfiles - Java temporary file API filling-in JDK gaps and deficiencies.
+ * Copyright (C) 2026  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of ao-tempfiles.
+ *
+ * ao-tempfiles is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ao-tempfiles is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ao-tempfiles.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.aoapps.tempfiles.benchmark;
+
+import com.aoapps.tempfiles.TempFileContext;
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time for {@link TempFileContext#close()} to delete all of its registered files.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, batchSize = 1)
+@Measurement(iterations = 10, batchSize = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ContextCloseBenchmark {
+
+  /**
+   * The number of files registered in the context when it is closed.
+   */
+  @Param({"0", "100", "10000"})
+  public int files;
+
+  /**
+   * {@code "sequential"} or {@code "commonPool"} for parallel deletes in {@link ForkJoinPool#commonPool()}.
+   */
+  @Param({"sequential", "commonPool"})
+  public String deleteExecutor;
+
+  private TempFileContext context;
+
+  @Setup(Level.Iteration)
+  public void setup() throws IOException {
+    context = TempFileContext.builder()
+        .deleteExecutor("commonPool".equals(deleteExecutor) ? ForkJoinPool.commonPool() : null)
+        .build();
+    for (int i = 0; i < files; i++) {
+      context.createTempFile("ctx_close_", null);
+    }
+  }
+
+  @TearDown(Level.Iteration)
+  public void tearDown() throws IOException {
+    // Already closed by the benchmark; this only guards against a failed iteration leaving files behind
+    context.close();
+    context = null;
+  }
+
+  @Benchmark
+  public void close() throws IOException {
+    context.close();
+  }
+}
@@ -0,0 +1,91 @@
+/*
+ * ao-tempfiles - Java temporary file API filling-in JDK gaps and deficiencies.
+ * Copyright (C) 2026  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of ao-tempfiles.
+ *
+ * ao-tempfiles is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ao-tempfiles is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ao-tempfiles.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.aoapps.tempfiles.benchmark;
+
+import com.aoapps.tempfiles.TempFileContext;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * A set of long-lived {@link TempFileContext} shared by all benchmark threads.
+ *
+ * <p>When {@link #contexts} is one, all threads contend on a single application-scoped context.  Larger values
+ * spread the threads across contexts, round-robin by thread.</p>
+ */
+@State(Scope.Benchmark)
+public class Contexts {
+
+  /**
+   * The number of contexts shared by the benchmark threads.
+   */
+  @Param({"1", "4"})
+  public int contexts;
+
+  private TempFileContext[] instances;
+
+  private final AtomicInteger nextThread = new AtomicInteger();
+
+  @Setup(Level.Trial)
+  public void setup() {
+    instances = new TempFileContext[contexts];
+    for (int i = 0; i < contexts; i++) {
+      instances[i] = new TempFileContext();
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    for (TempFileContext instance : instances) {
+      instance.close();
+    }
+    instances = null;
+  }
+
+  /**
+   * Selects the context for a new benchmark thread.
+   */
+  TempFileContext nextContext() {
+    return instances[Math.floorMod(nextThread.getAndIncrement(), instances.length)];
+  }
+
+  /**
+   * The context assigned to a single benchmark thread.
+   */
+  @State(Scope.Thread)
+  public static class PerThread {
+
+    TempFileContext context;
+
+    @Setup(Level.Trial)
+    public void setup(Contexts contexts) {
+      context = contexts.nextContext();
+    }
+  }
+}
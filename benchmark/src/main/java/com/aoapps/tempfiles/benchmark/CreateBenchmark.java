@@ -0,0 +1,61 @@
+/*
+ * ao-tempfiles - Java temporary file API filling-in JDK gaps and deficiencies.
+ * Copyright (C) 2026  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of ao-tempfiles.
+ *
+ * ao-tempfiles is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ao-tempfiles is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ao-tempfiles.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.aoapps.tempfiles.benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of creating a temporary file or directory, paired with closing it so the directory does not grow
+ * without bound during the run.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CreateBenchmark {
+
+  @Benchmark
+  public void createTempFileName(Contexts.PerThread state) throws IOException {
+    state.context.createTempFile("report.tar.gz").close();
+  }
+
+  @Benchmark
+  public void createTempFilePrefixSuffix(Contexts.PerThread state) throws IOException {
+    state.context.createTempFile("report_", ".csv").close();
+  }
+
+  @Benchmark
+  public void createTempDirectory(Contexts.PerThread state) throws IOException {
+    state.context.createTempDirectory("work_").close();
+  }
+}
@@ -0,0 +1,88 @@
+/*
+ * ao-tempfiles - Java temporary file API filling-in JDK gaps and deficiencies.
+ * Copyright (C) 2026  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of ao-tempfiles.
+ *
+ * ao-tempfiles is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ao-tempfiles is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ao-tempfiles.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.aoapps.tempfiles.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks once per thread count, so scaling with threads can be compared against a baseline on the same
+ * machine.
+ *
+ * <p>Usage: {@code java -jar target/benchmarks.jar [jmh options] [regexp…]}</p>
+ *
+ * <p>When the standard JMH {@code -t} option is given, only that thread count is run.  Otherwise, the benchmarks are
+ * run with 1, 2, 4, … threads up to twice the number of available processors.  Results for each thread count are
+ * written to {@code jmh-result-<threads>t.json}.</p>
+ */
+public final class Main {
+
+  /** Make no instances. */
+  private Main() {
+    throw new AssertionError();
+  }
+
+  /**
+   * The thread counts run when none specified.
+   */
+  static SortedSet<Integer> getDefaultThreadCounts() {
+    int max = Runtime.getRuntime().availableProcessors() * 2;
+    SortedSet<Integer> threadCounts = new TreeSet<>();
+    for (int threads = 1; threads < max; threads *= 2) {
+      threadCounts.add(threads);
+    }
+    threadCounts.add(max);
+    return threadCounts;
+  }
+
+  public static void main(String[] args) throws CommandLineOptionException, RunnerException {
+    CommandLineOptions cmdOptions = new CommandLineOptions(args);
+    List<Integer> threadCounts = new ArrayList<>();
+    if (cmdOptions.getThreads().hasValue()) {
+      threadCounts.add(cmdOptions.getThreads().get());
+    } else {
+      threadCounts.addAll(getDefaultThreadCounts());
+    }
+    for (int threads : threadCounts) {
+      ChainedOptionsBuilder options = new OptionsBuilder()
+          .parent(cmdOptions)
+          .threads(threads)
+          .resultFormat(ResultFormatType.JSON)
+          .result("jmh-result-" + threads + "t.json");
+      if (cmdOptions.getIncludes().isEmpty()) {
+        options.include(Main.class.getPackage().getName() + ".*");
+      }
+      new Runner(options.build()).run();
+    }
+  }
+}
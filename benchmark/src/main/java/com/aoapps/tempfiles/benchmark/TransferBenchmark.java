@@ -0,0 +1,118 @@
+/*
+ * ao-tempfiles - Java temporary file API filling-in JDK gaps and deficiencies.
+ * Copyright (C) 2026  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of ao-tempfiles.
+ *
+ * ao-tempfiles is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ao-tempfiles is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ao-tempfiles.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.aoapps.tempfiles.benchmark;
+
+import com.aoapps.tempfiles.TempFile;
+import com.aoapps.tempfiles.TempFileContext;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Copying a finished temporary file to a destination file with {@link TempFile#transferTo(java.nio.channels.WritableByteChannel)}
+ * versus copying through heap buffers with streams.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class TransferBenchmark {
+
+  /**
+   * The size of the source file in bytes.
+   */
+  @Param({"65536", "1048576", "16777216"})
+  public int size;
+
+  private TempFileContext context;
+  private TempFile source;
+  private TempFile target;
+  private FileChannel targetChannel;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    context = new TempFileContext();
+    source = context.createTempFile("transfer_", null);
+    byte[] buf = new byte[8192];
+    try (OutputStream out = source.newOutputStream()) {
+      for (int written = 0; written < size; written += buf.length) {
+        ThreadLocalRandom.current().nextBytes(buf);
+        out.write(buf, 0, Math.min(buf.length, size - written));
+      }
+    }
+    target = context.createTempFile("target_", null);
+    targetChannel = FileChannel.open(target.getFile().toPath(), StandardOpenOption.WRITE);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    targetChannel.close();
+    targetChannel = null;
+    context.close();
+    context = null;
+  }
+
+  @Benchmark
+  public long transferTo() throws IOException {
+    targetChannel.truncate(0);
+    targetChannel.position(0);
+    return source.transferTo(targetChannel);
+  }
+
+  @Benchmark
+  public long streamCopy() throws IOException {
+    long total = 0;
+    byte[] buf = new byte[8192];
+    try (
+        InputStream in = source.newInputStream();
+        OutputStream out = target.newOutputStream()
+    ) {
+      int count;
+      while ((count = in.read(buf)) != -1) {
+        out.write(buf, 0, count);
+        total += count;
+      }
+    }
+    return total;
+  }
+}
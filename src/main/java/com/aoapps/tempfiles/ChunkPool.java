@@ -0,0 +1,76 @@
+/*
+ * ao-tempfiles - Java temporary file API filling-in JDK gaps and deficiencies.
+ * Copyright (C) 2026  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of ao-tempfiles.
+ *
+ * ao-tempfiles is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ao-tempfiles is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ao-tempfiles.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.aoapps.tempfiles;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A bounded pool of fixed-size heap chunks, reused by {@link TempBuffer} to hold content in memory.
+ *
+ * <p>Thread-safe with fine-grained locking.</p>
+ */
+final class ChunkPool {
+
+  /**
+   * The size of each chunk.
+   */
+  static final int CHUNK_SIZE = 16 * 1024;
+
+  private final int capacity;
+  private final Queue<byte[]> chunks = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger size = new AtomicInteger();
+
+  /**
+   * @param  capacity  The maximum number of chunks kept for reuse
+   */
+  ChunkPool(int capacity) {
+    this.capacity = capacity;
+  }
+
+  /**
+   * Takes a chunk from the pool or allocates a new one when empty.  The contents of a reused chunk are undefined.
+   */
+  byte[] take() {
+    byte[] chunk = chunks.poll();
+    if (chunk == null) {
+      return new byte[CHUNK_SIZE];
+    }
+    size.decrementAndGet();
+    return chunk;
+  }
+
+  /**
+   * Returns a chunk to the pool, discarding it when the pool is full.
+   */
+  void release(byte[] chunk) {
+    assert chunk.length == CHUNK_SIZE;
+    if (size.incrementAndGet() <= capacity) {
+      chunks.add(chunk);
+    } else {
+      size.decrementAndGet();
+    }
+  }
+}
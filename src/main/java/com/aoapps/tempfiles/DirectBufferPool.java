@@ -0,0 +1,306 @@
+/*
+ * ao-tempfiles - Java temporary file API filling-in JDK gaps and deficiencies.
+ * Copyright (C) 2026  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of ao-tempfiles.
+ *
+ * ao-tempfiles is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ao-tempfiles is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ao-tempfiles.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.aoapps.tempfiles;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded pool of direct buffers, used by the streams of {@link TempFile} so sustained I/O allocates nothing on the
+ * heap.  A direct buffer is read from or written to a channel without the intermediate copy the JDK performs for heap
+ * buffers.
+ *
+ * <p>Channels of {@link TempFile} also copy heap buffers through a pooled buffer, instead of the temporary direct
+ * buffer the JDK allocates per thread sized to each request.</p>
+ *
+ * <p>Idle buffers are kept in a single shared queue, so all are released once the pool is closed.</p>
+ *
+ * <p>Thread-safe with fine-grained locking.</p>
+ */
+final class DirectBufferPool {
+
+  /**
+   * The size of each buffer.
+   */
+  static final int BUFFER_SIZE = 64 * 1024;
+
+  private final int capacity;
+  private final Queue<ByteBuffer> buffers = new ConcurrentLinkedQueue<>();
+
+  /**
+   * The number of idle buffers in the shared queue.
+   */
+  private final AtomicInteger pooledCount = new AtomicInteger();
+
+  private final LongAdder misses = new LongAdder();
+
+  private volatile boolean closed;
+
+  /**
+   * @param  capacity  The maximum number of idle buffers kept for reuse
+   */
+  DirectBufferPool(int capacity) {
+    this.capacity = capacity;
+  }
+
+  /**
+   * Takes a cleared buffer from the pool or allocates a new one when empty.
+   */
+  ByteBuffer take() {
+    ByteBuffer buffer = buffers.poll();
+    if (buffer == null) {
+      misses.increment();
+      return ByteBuffer.allocateDirect(BUFFER_SIZE);
+    }
+    pooledCount.decrementAndGet();
+    return buffer;
+  }
+
+  /**
+   * Returns a buffer to the pool, discarding it when the pool is full or closed.
+   */
+  void release(ByteBuffer buffer) {
+    assert buffer.isDirect() && buffer.capacity() == BUFFER_SIZE;
+    buffer.clear();
+    if (!closed) {
+      if (pooledCount.incrementAndGet() <= capacity) {
+        buffers.add(buffer);
+      } else {
+        pooledCount.decrementAndGet();
+      }
+    }
+  }
+
+  /**
+   * Gets the number of idle buffers in the pool.
+   */
+  int getPooledCount() {
+    return pooledCount.get();
+  }
+
+  /**
+   * Gets the number of buffers allocated because the pool was empty.
+   */
+  long getMisses() {
+    return misses.sum();
+  }
+
+  /**
+   * Stops pooling and discards the idle buffers.  Buffers in use are discarded as released.
+   */
+  void close() {
+    closed = true;
+    while (buffers.poll() != null) {
+      pooledCount.decrementAndGet();
+    }
+  }
+
+  /**
+   * Opens a buffered output stream to the given channel, closing the channel on close.
+   */
+  OutputStream newOutputStream(WritableByteChannel channel) {
+    return new PooledOutputStream(channel);
+  }
+
+  /**
+   * Opens a buffered input stream from the given channel, closing the channel on close.
+   */
+  InputStream newInputStream(ReadableByteChannel channel) {
+    return new PooledInputStream(channel);
+  }
+
+  private final class PooledOutputStream extends OutputStream {
+
+    private final WritableByteChannel channel;
+
+    /**
+     * The buffer, {@code null} once closed.
+     */
+    private ByteBuffer buffer = take();
+
+    private PooledOutputStream(WritableByteChannel channel) {
+      this.channel = channel;
+    }
+
+    private ByteBuffer getBuffer() throws IOException {
+      ByteBuffer b = buffer;
+      if (b == null) {
+        throw new IOException("Stream closed");
+      }
+      return b;
+    }
+
+    /**
+     * Writes the buffered bytes.  The buffer is always left ready for writing, keeping only any bytes not yet written
+     * when the channel fails.
+     */
+    private void drain(ByteBuffer b) throws IOException {
+      b.flip();
+      try {
+        while (b.hasRemaining()) {
+          channel.write(b);
+        }
+      } finally {
+        b.compact();
+      }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      ByteBuffer buf = getBuffer();
+      if (!buf.hasRemaining()) {
+        drain(buf);
+      }
+      buf.put((byte) b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      if (off < 0 || len < 0 || off + len > b.length || off + len < 0) {
+        throw new IndexOutOfBoundsException();
+      }
+      ByteBuffer buf = getBuffer();
+      while (len > 0) {
+        if (!buf.hasRemaining()) {
+          drain(buf);
+        }
+        int count = Math.min(len, buf.remaining());
+        buf.put(b, off, count);
+        off += count;
+        len -= count;
+      }
+    }
+
+    @Override
+    public void flush() throws IOException {
+      drain(getBuffer());
+    }
+
+    @Override
+    public void close() throws IOException {
+      ByteBuffer buf = buffer;
+      if (buf != null) {
+        try {
+          drain(buf);
+        } finally {
+          buffer = null;
+          release(buf);
+          channel.close();
+        }
+      }
+    }
+  }
+
+  private final class PooledInputStream extends InputStream {
+
+    private final ReadableByteChannel channel;
+
+    /**
+     * The buffer in read mode, {@code null} once closed.
+     */
+    private ByteBuffer buffer = take();
+
+    private PooledInputStream(ReadableByteChannel channel) {
+      this.channel = channel;
+      buffer.limit(0);
+    }
+
+    /**
+     * Gets the buffer, filling when empty.
+     *
+     * @return  the buffer or {@code null} at end of stream
+     */
+    private ByteBuffer fill() throws IOException {
+      ByteBuffer buf = buffer;
+      if (buf == null) {
+        throw new IOException("Stream closed");
+      }
+      if (!buf.hasRemaining()) {
+        buf.clear();
+        int count;
+        do {
+          count = channel.read(buf);
+        } while (count == 0);
+        buf.flip();
+        if (count == -1) {
+          return null;
+        }
+      }
+      return buf;
+    }
+
+    @Override
+    public int read() throws IOException {
+      ByteBuffer buf = fill();
+      return (buf == null) ? -1 : (buf.get() & 0xff);
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (off < 0 || len < 0 || off + len > b.length || off + len < 0) {
+        throw new IndexOutOfBoundsException();
+      }
+      if (len == 0) {
+        return 0;
+      }
+      ByteBuffer buf = fill();
+      if (buf == null) {
+        return -1;
+      }
+      int count = Math.min(len, buf.remaining());
+      buf.get(b, off, count);
+      return count;
+    }
+
+    @Override
+    public int available() throws IOException {
+      ByteBuffer buf = buffer;
+      if (buf == null) {
+        throw new IOException("Stream closed");
+      }
+      return buf.remaining();
+    }
+
+    @Override
+    public void close() throws IOException {
+      ByteBuffer buf = buffer;
+      if (buf != null) {
+        buffer = null;
+        try {
+          channel.close();
+        } finally {
+          release(buf);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,181 @@
+/*
+ * ao-tempfiles - Java temporary file API filling-in JDK gaps and deficiencies.
+ * Copyright (C) 2026  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of ao-tempfiles.
+ *
+ * ao-tempfiles is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ao-tempfiles is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ao-tempfiles.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.aoapps.tempfiles;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The number of bytes in the temporary files of a single context, with optional quotas.
+ *
+ * <p>Bytes written through the streams, channels, and mappings of {@link TempFile} are counted as written.  Files
+ * exposed by {@link TempFile#getFile()} may be written by other code, so when either quota is configured, their sizes
+ * are sampled in the background at most once per {@link #SAMPLE_INTERVAL_NANOS}.  Without a quota, exposed files are
+ * not tracked at all.</p>
+ *
+ * <p>Thread-safe with fine-grained locking.</p>
+ */
+final class DiskUsage {
+
+  private static final Logger logger = Logger.getLogger(DiskUsage.class.getName());
+
+  /**
+   * The minimum time between samples of the sizes of externally written files.
+   */
+  private static final long SAMPLE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  /**
+   * The quota that fails creates or {@code 0} for none.
+   */
+  private final long softQuota;
+
+  /**
+   * The quota that fails creates and writes or {@code 0} for none.
+   */
+  private final long hardQuota;
+
+  private final AtomicLong used = new AtomicLong();
+
+  /**
+   * The files that may be written externally.
+   */
+  private final Set<TempFile> external = ConcurrentHashMap.newKeySet();
+
+  private volatile long lastSample = System.nanoTime();
+
+  private final AtomicBoolean sampleScheduled = new AtomicBoolean();
+
+  DiskUsage(long softQuota, long hardQuota) {
+    this.softQuota = softQuota;
+    this.hardQuota = hardQuota;
+  }
+
+  /**
+   * Gets the number of bytes used, scheduling a sample of externally written files in the background when due.
+   */
+  long getUsed() {
+    sampleIfDue();
+    return used.get();
+  }
+
+  /**
+   * Checks that a new temporary file may be created.
+   *
+   * @throws  TempFileQuotaExceededException  when either quota is already reached
+   */
+  void checkCreate() throws TempFileQuotaExceededException {
+    if (softQuota != 0 || hardQuota != 0) {
+      long u = getUsed();
+      if (softQuota != 0 && u >= softQuota) {
+        throw new TempFileQuotaExceededException("Soft quota reached, unable to create temporary file", u, softQuota);
+      }
+      if (hardQuota != 0 && u >= hardQuota) {
+        throw new TempFileQuotaExceededException("Hard quota reached, unable to create temporary file", u, hardQuota);
+      }
+    }
+  }
+
+  /**
+   * Checks that the given number of bytes may be added.
+   *
+   * @throws  TempFileQuotaExceededException  when the hard quota would be exceeded
+   */
+  void checkGrowth(long growth) throws TempFileQuotaExceededException {
+    if (hardQuota != 0 && growth > 0) {
+      long u = getUsed() + growth;
+      if (u > hardQuota || u < 0) {
+        throw new TempFileQuotaExceededException("Hard quota exceeded, unable to write temporary file", u, hardQuota);
+      }
+    }
+  }
+
+  /**
+   * Gets the number of bytes that may still be added before the hard quota.
+   *
+   * @return  the remaining bytes or {@link Long#MAX_VALUE} when there is no hard quota
+   */
+  long getRemaining() {
+    return (hardQuota == 0) ? Long.MAX_VALUE : Math.max(0, hardQuota - getUsed());
+  }
+
+  void add(long delta) {
+    if (delta != 0) {
+      used.addAndGet(delta);
+    }
+  }
+
+  /**
+   * Checks if the sizes of externally written files are sampled, which is only when either quota is configured.
+   */
+  boolean isSampled() {
+    return softQuota != 0 || hardQuota != 0;
+  }
+
+  /**
+   * Samples the size of the given file from now on.
+   *
+   * @see  #isSampled()
+   */
+  void addExternal(TempFile file) {
+    assert isSampled();
+    external.add(file);
+  }
+
+  void removeExternal(TempFile file) {
+    external.remove(file);
+  }
+
+  private void sampleIfDue() {
+    if (
+        !external.isEmpty()
+            && System.nanoTime() - lastSample >= SAMPLE_INTERVAL_NANOS
+            && sampleScheduled.compareAndSet(false, true)
+    ) {
+      try {
+        // Not sampled in the calling thread, since reading the sizes of many files may be slow
+        Housekeeping.executeMonitor(() -> {
+          try {
+            for (TempFile file : external) {
+              file.sampleSize();
+            }
+          } finally {
+            lastSample = System.nanoTime();
+            sampleScheduled.set(false);
+          }
+        });
+      } catch (RejectedExecutionException e) {
+        sampleScheduled.set(false);
+        if (logger.isLoggable(Level.FINE)) {
+          logger.log(Level.FINE, "Unable to schedule sample of temporary file sizes", e);
+        }
+      }
+    }
+  }
+}
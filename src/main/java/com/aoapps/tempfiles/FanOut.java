@@ -0,0 +1,284 @@
+/*
+ * ao-tempfiles - Java temporary file API filling-in JDK gaps and deficiencies.
+ * Copyright (C) 2026  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of ao-tempfiles.
+ *
+ * ao-tempfiles is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ao-tempfiles is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ao-tempfiles.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.aoapps.tempfiles;
+
+import java.io.IOException;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A layout of hashed bucket directories, used to keep any single directory from growing to a very large number of
+ * entries.  Each new temporary file is placed in a bucket chosen uniformly at random at each level, so the files are
+ * spread evenly across <code>width<sup>levels</sup></code> leaf buckets.
+ *
+ * <p>Optionally, the buckets are preceded by a level of stripe directories chosen by the current thread.  Since the
+ * operating system serializes creates and deletes within a single directory, threads working in different stripes
+ * do not contend with each other.</p>
+ *
+ * <p>Bucket and stripe directories are named by their lower-case hexadecimal index, zero-padded to a fixed length.
+ * They are created when first needed.  Buckets are removed once emptied by deleting a temporary file, while stripes
+ * are kept to avoid repeatedly creating and removing them in their parent directory.</p>
+ *
+ * <p>Immutable and thread-safe.</p>
+ */
+final class FanOut {
+
+  private static final Logger logger = Logger.getLogger(FanOut.class.getName());
+
+  /**
+   * The maximum number of levels of buckets.
+   */
+  static final int MAX_LEVELS = 4;
+
+  /**
+   * The maximum number of buckets per level.
+   */
+  static final int MAX_WIDTH = 4096;
+
+  /**
+   * The maximum number of stripes.
+   */
+  static final int MAX_STRIPES = 4096;
+
+  /**
+   * The maximum number of directory levels, including the stripe.
+   */
+  static final int MAX_DEPTH = MAX_LEVELS + 1;
+
+  /**
+   * The maximum length of a bucket name, enough for {@link #MAX_WIDTH} buckets.
+   */
+  private static final int MAX_BUCKET_NAME_LENGTH = 3;
+
+  private static final int HEX_RADIX = 16;
+
+  private final int levels;
+  private final int width;
+  private final int stripes;
+
+  /**
+   * The length of each bucket name.
+   */
+  private final int nameLength;
+
+  /**
+   * The length of each stripe name.
+   */
+  private final int stripeNameLength;
+
+  /**
+   * The next stripe for {@link #getNextStripe(java.nio.file.Path)}.
+   */
+  private final AtomicInteger nextStripe = new AtomicInteger();
+
+  /**
+   * @param  levels  The number of levels of buckets, {@code 0} to {@link #MAX_LEVELS}
+   * @param  width  The number of buckets per level, from {@code 2} to {@link #MAX_WIDTH}, ignored when no levels
+   * @param  stripes  The number of stripes, {@code 0} for none or from {@code 2} to {@link #MAX_STRIPES}
+   *
+   * @see  #checkLevels(int, int)
+   * @see  #checkStripes(int)
+   */
+  FanOut(int levels, int width, int stripes) throws IllegalArgumentException {
+    checkLevels(levels, width);
+    checkStripes(stripes);
+    if (levels == 0 && stripes == 0) {
+      throw new IllegalArgumentException("Neither levels nor stripes");
+    }
+    this.levels = levels;
+    this.width = width;
+    this.stripes = stripes;
+    this.nameLength = (levels == 0) ? 0 : getNameLength(width);
+    this.stripeNameLength = getNameLength(stripes);
+  }
+
+  private static int getNameLength(int count) {
+    int length = (count == 0) ? 0 : Integer.toString(count - 1, HEX_RADIX).length();
+    assert length <= MAX_BUCKET_NAME_LENGTH;
+    return length;
+  }
+
+  /**
+   * Checks the number of levels of buckets and the number of buckets per level.
+   *
+   * @param  levels  The number of levels of buckets, {@code 0} to {@link #MAX_LEVELS}
+   * @param  width  The number of buckets per level, from {@code 2} to {@link #MAX_WIDTH}, ignored when no levels
+   */
+  static void checkLevels(int levels, int width) throws IllegalArgumentException {
+    if (levels < 0 || levels > MAX_LEVELS) {
+      throw new IllegalArgumentException("levels must be between 0 and " + MAX_LEVELS + ": " + levels);
+    }
+    if (levels != 0 && (width < 2 || width > MAX_WIDTH)) {
+      throw new IllegalArgumentException("width must be between 2 and " + MAX_WIDTH + ": " + width);
+    }
+  }
+
+  /**
+   * Checks the number of stripes.
+   *
+   * @param  stripes  The number of stripes, {@code 0} for none or from {@code 2} to {@link #MAX_STRIPES}
+   */
+  static void checkStripes(int stripes) throws IllegalArgumentException {
+    if (stripes != 0 && (stripes < 2 || stripes > MAX_STRIPES)) {
+      throw new IllegalArgumentException("stripes must be 0 or between 2 and " + MAX_STRIPES + ": " + stripes);
+    }
+  }
+
+  /**
+   * Gets the directory of the stripe for the current thread or the given root when not striped.  The stripe might
+   * not yet exist.
+   *
+   * @param  root  The directory containing the stripes or first level of buckets
+   */
+  Path getStripe(Path root) {
+    if (stripes == 0) {
+      return root;
+    }
+    // Thread IDs are non-negative and usually sequential, spreading threads evenly
+    int stripe = (int) (Thread.currentThread().getId() % stripes);
+    return root.resolve(getName(stripe, stripeNameLength));
+  }
+
+  /**
+   * Gets the directory of the next stripe in round-robin order or the given root when not striped.  Used when
+   * creating from a background thread, which would otherwise place all of its files in a single stripe.  The stripe
+   * might not yet exist.
+   *
+   * @param  root  The directory containing the stripes or first level of buckets
+   */
+  Path getNextStripe(Path root) {
+    if (stripes == 0) {
+      return root;
+    }
+    int stripe = (nextStripe.getAndIncrement() & Integer.MAX_VALUE) % stripes;
+    return root.resolve(getName(stripe, stripeNameLength));
+  }
+
+  /**
+   * Checks if there are any levels of buckets below the stripe.
+   */
+  boolean hasBuckets() {
+    return levels != 0;
+  }
+
+  /**
+   * Chooses the leaf bucket for a new temporary file.  The bucket might not yet exist.
+   *
+   * @param  stripe  The stripe from {@link #getStripe(java.nio.file.Path)}
+   */
+  Path getBucket(Path stripe) {
+    if (levels == 0) {
+      return stripe;
+    }
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    Path bucket = stripe;
+    for (int i = 0; i < levels; i++) {
+      bucket = bucket.resolve(getName(random.nextInt(width), nameLength));
+    }
+    return bucket;
+  }
+
+  private static String getName(int index, int nameLength) {
+    String hex = Integer.toString(index, HEX_RADIX);
+    int padding = nameLength - hex.length();
+    if (padding == 0) {
+      return hex;
+    }
+    StringBuilder sb = new StringBuilder(nameLength);
+    for (int i = 0; i < padding; i++) {
+      sb.append('0');
+    }
+    return sb.append(hex).toString();
+  }
+
+  /**
+   * Checks if the given name could be the name of a bucket or stripe directory.
+   */
+  static boolean isBucketName(String name) {
+    int len = name.length();
+    if (len == 0 || len > MAX_BUCKET_NAME_LENGTH) {
+      return false;
+    }
+    for (int i = 0; i < len; i++) {
+      char ch = name.charAt(i);
+      if ((ch < '0' || ch > '9') && (ch < 'a' || ch > 'f')) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Creates the given bucket and any missing parent buckets and stripe.  The root itself is not created.
+   *
+   * @param  root  The directory containing the stripes or first level of buckets
+   * @param  bucket  The leaf bucket, as returned by {@link #getBucket(java.nio.file.Path)}
+   *
+   * @throws  NoSuchFileException  when the root does not exist or a parent bucket is concurrently removed
+   */
+  static void createBuckets(Path root, Path bucket) throws IOException {
+    Path dir = root;
+    for (Path name : root.relativize(bucket)) {
+      dir = dir.resolve(name);
+      try {
+        Files.createDirectory(dir);
+      } catch (FileAlreadyExistsException e) {
+        // Concurrently created
+      }
+    }
+  }
+
+  /**
+   * Removes empty bucket directories, starting from the given directory and proceeding up to, but not including,
+   * the root.  Stops at the first bucket that is not empty.
+   *
+   * <p>A concurrent create in a removed bucket fails with {@link NoSuchFileException} and is retried after
+   * {@linkplain #createBuckets(java.nio.file.Path, java.nio.file.Path) creating the buckets} again.</p>
+   *
+   * @param  root  The stripe or directory containing the first level of buckets
+   * @param  dir  The directory that contained a deleted temporary file
+   */
+  static void deleteEmptyBuckets(Path root, Path dir) {
+    while (dir != null && !dir.equals(root) && dir.startsWith(root)) {
+      try {
+        Files.delete(dir);
+      } catch (DirectoryNotEmptyException | NoSuchFileException e) {
+        return;
+      } catch (IOException | SecurityException e) {
+        if (logger.isLoggable(Level.FINE)) {
+          logger.log(Level.FINE, "Unable to delete empty bucket: " + dir, e);
+        }
+        return;
+      }
+      dir = dir.getParent();
+    }
+  }
+}
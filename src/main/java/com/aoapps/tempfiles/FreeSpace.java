@@ -0,0 +1,143 @@
+/*
+ * ao-tempfiles - Java temporary file API filling-in JDK gaps and deficiencies.
+ * Copyright (C) 2026  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of ao-tempfiles.
+ *
+ * ao-tempfiles is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ao-tempfiles is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ao-tempfiles.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package com.aoapps.tempfiles;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The usable space of the {@link FileStore} of a temporary directory, cached and refreshed in the background at most
+ * once per {@link #REFRESH_INTERVAL_NANOS}, so checking the free space adds no system call when creating temporary
+ * files.  Shared by all contexts using the same directory.
+ *
+ * <p>Thread-safe with fine-grained locking.</p>
+ */
+final class FreeSpace {
+
+  private static final Logger logger = Logger.getLogger(FreeSpace.class.getName());
+
+  /**
+   * The minimum time between refreshes of the usable space.
+   */
+  private static final long REFRESH_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  /**
+   * The usable space when unknown, which never refuses creates.
+   */
+  static final long UNKNOWN = Long.MAX_VALUE;
+
+  /**
+   * The instances, by absolute directory.
+   */
+  private static final ConcurrentMap<File, FreeSpace> instances = new ConcurrentHashMap<>();
+
+  /**
+   * Gets the free space of the given directory, reading the usable space now when first accessed.
+   */
+  static FreeSpace getInstance(File dir) {
+    File key = dir.getAbsoluteFile();
+    FreeSpace instance = instances.get(key);
+    if (instance == null) {
+      FreeSpace newInstance = new FreeSpace(key);
+      instance = instances.putIfAbsent(key, newInstance);
+      if (instance == null) {
+        instance = newInstance;
+        instance.refresh();
+      }
+    }
+    return instance;
+  }
+
+  private final File dir;
+
+  /**
+   * The file store, found when first refreshed.
+   */
+  private volatile FileStore store;
+
+  private volatile long usableSpace = UNKNOWN;
+
+  private volatile long lastRefresh = System.nanoTime();
+
+  private final AtomicBoolean refreshScheduled = new AtomicBoolean();
+
+  private FreeSpace(File dir) {
+    this.dir = dir;
+  }
+
+  File getDir() {
+    return dir;
+  }
+
+  /**
+   * Gets the cached usable space, scheduling a refresh in the background when due.
+   *
+   * @return  the usable space in bytes or {@link #UNKNOWN}
+   */
+  long getUsableSpace() {
+    if (System.nanoTime() - lastRefresh >= REFRESH_INTERVAL_NANOS && refreshScheduled.compareAndSet(false, true)) {
+      try {
+        Housekeeping.executeMonitor(() -> {
+          try {
+            refresh();
+          } finally {
+            refreshScheduled.set(false);
+          }
+        });
+      } catch (RejectedExecutionException e) {
+        refreshScheduled.set(false);
+      }
+    }
+    return usableSpace;
+  }
+
+  private void refresh() {
+    try {
+      FileStore s = store;
+      if (s == null) {
+        s = Files.getFileStore(dir.toPath());
+        store = s;
+      }
+      usableSpace = s.getUsableSpace();
+    } catch (IOException | SecurityException e) {
+      // Directory not yet created or file store not accessible
+      usableSpace = UNKNOWN;
+      if (logger.isLoggable(Level.FINE)) {
+        logger.log(Level.FINE, "Unable to get usable space of temporary directory: " + dir, e);
+      }
+    } finally {
+      lastRefresh = System.nanoTime();
+    }
+  }
+}
@@ -0,0 +1,749 @@
+/*
+ * ao-tempfiles - Java temporary file API filling-in JDK gaps and deficiencies.
+ * Copyright (C) 2026  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of ao-tempfiles.
+ *
+ * ao-tempfiles is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ao-tempfiles is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ao-tempfiles.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.aoapps.tempfiles;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.security.SecureRandom;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A housekeeping directory within a temporary directory, private to the current user.  It is shared by all contexts
+ * and all JVMs of the same user that use the same temporary directory.
+ *
+ * <p>The housekeeping directory is named {@code .ao-tempfiles-<user>} and is created with owner-only permissions.
+ * When it already exists, it must be a real directory (not a symbolic link), owned by the current user, and not
+ * accessible by group or others.  Otherwise, it is not used and features depending on it fall back to their
+ * default behavior.</p>
+ *
+ * <p>It contains:</p>
+ * <ul>
+ * <li>{@code trash/} - Directories moved out of the way on close, emptied by a low-priority background reaper.</li>
+ * <li>{@code pending/} - Records of files that could not be deleted within the shutdown timeout, deleted by the
+ *     next JVM to use the same temporary directory.</li>
+ * <li>{@code owners/} - One ownership marker per JVM, locked for the life of the JVM, used to find temporary files
+ *     left behind by JVMs that no longer exist.</li>
+ * <li>{@code fanout/} - The stripes and hashed bucket directories of contexts with {@linkplain FanOut fan-out}
+ *     enabled.</li>
+ * </ul>
+ *
+ * <p>Thread-safe with fine-grained locking.</p>
+ */
+final class Housekeeping {
+
+  private static final Logger logger = Logger.getLogger(Housekeeping.class.getName());
+
+  /**
+   * The prefix of the housekeeping directory name, followed by the user name.
+   */
+  private static final String DIRECTORY_PREFIX = ".ao-tempfiles-";
+
+  private static final String TRASH_DIRECTORY = "trash";
+
+  private static final String PENDING_DIRECTORY = "pending";
+
+  private static final String OWNERS_DIRECTORY = "owners";
+
+  private static final String FAN_OUT_DIRECTORY = "fanout";
+
+  /**
+   * The suffix of ownership markers, preceded by the owner token.
+   */
+  static final String OWNER_MARKER_SUFFIX = ".lock";
+
+  /**
+   * Delimits the owner token within temporary file names.
+   */
+  private static final char OWNER_TAG_DELIMITER = '~';
+
+  /**
+   * The number of characters in an owner token.
+   */
+  private static final int OWNER_TOKEN_LENGTH = 12;
+
+  /**
+   * The number of bits encoded per owner token character.
+   */
+  private static final int OWNER_TOKEN_BITS_PER_CHAR = 5;
+
+  /**
+   * The suffix of complete pending delete records.  Records are written under a different name then renamed, so
+   * a partially written record is never processed.
+   */
+  private static final String PENDING_SUFFIX = ".pending";
+
+  /**
+   * Identifies the format of pending delete records.
+   */
+  private static final int PENDING_MAGIC = 0x616f7466; // "aotf"
+
+  private static final int PENDING_VERSION = 1;
+
+  private static final Set<PosixFilePermission> OWNER_ONLY_DIRECTORY = EnumSet.of(
+      PosixFilePermission.OWNER_READ,
+      PosixFilePermission.OWNER_WRITE,
+      PosixFilePermission.OWNER_EXECUTE
+  );
+
+  /**
+   * The instances, by absolute temporary directory.
+   */
+  private static final ConcurrentMap<File, Housekeeping> instances = new ConcurrentHashMap<>();
+
+  /**
+   * The temporary directories where housekeeping has been logged as unavailable.
+   */
+  private static final Set<File> unavailableLogged = ConcurrentHashMap.newKeySet();
+
+  /**
+   * Gets the housekeeping for the given temporary directory, creating the housekeeping directory when first
+   * accessed.
+   *
+   * @param  tmpDir  The temporary directory, must not be {@code null}
+   *
+   * @throws  IOException  when the housekeeping directory cannot be created or is not secure
+   */
+  static Housekeeping getInstance(File tmpDir) throws IOException {
+    File key = tmpDir.getAbsoluteFile();
+    Housekeeping instance = instances.get(key);
+    if (instance == null) {
+      Housekeeping newInstance = new Housekeeping(key);
+      instance = instances.putIfAbsent(key, newInstance);
+      if (instance == null) {
+        instance = newInstance;
+      }
+    }
+    return instance;
+  }
+
+  /**
+   * Gets the housekeeping for the given temporary directory or {@code null} when unavailable.  The reason it is
+   * unavailable is logged once per temporary directory.
+   *
+   * @param  tmpDir  The temporary directory or {@code null} when the system temporary directory is unknown
+   */
+  static Housekeeping getInstanceOrNull(File tmpDir) {
+    if (tmpDir == null) {
+      return null;
+    }
+    try {
+      return getInstance(tmpDir);
+    } catch (IOException | SecurityException e) {
+      if (unavailableLogged.add(tmpDir.getAbsoluteFile()) && logger.isLoggable(Level.WARNING)) {
+        logger.log(Level.WARNING, "Housekeeping unavailable in temporary directory: " + tmpDir, e);
+      }
+      return null;
+    }
+  }
+
+  /**
+   * The temporary directories already checked for pending deletes within this JVM.
+   */
+  private static final Set<File> pendingChecked = ConcurrentHashMap.newKeySet();
+
+  /**
+   * Once per temporary directory per JVM, checks for records of pending deletes left by previous JVMs, deleting
+   * them in the background when found.  The check does not create the housekeeping directory, so has no side
+   * effects on temporary directories without pending deletes.
+   *
+   * @param  tmpDir  The temporary directory or {@code null} when the system temporary directory is unknown
+   */
+  static void checkPendingDeletes(File tmpDir) {
+    if (tmpDir != null && pendingChecked.add(tmpDir.getAbsoluteFile())) {
+      try {
+        Path pendingDir = tmpDir.toPath().resolve(DIRECTORY_PREFIX + getUserName()).resolve(PENDING_DIRECTORY);
+        if (Files.isDirectory(pendingDir, LinkOption.NOFOLLOW_LINKS)) {
+          Reaper.executor.execute(() -> {
+            Housekeeping housekeeping = getInstanceOrNull(tmpDir);
+            if (housekeeping != null) {
+              housekeeping.deletePending();
+            }
+          });
+        }
+      } catch (SecurityException | RejectedExecutionException e) {
+        logger.log(Level.FINE, "Unable to check pending deletes", e);
+      }
+    }
+  }
+
+  /**
+   * Gets the current user name, sanitized for use in a file name.
+   */
+  private static String getUserName() {
+    String userName;
+    try {
+      userName = System.getProperty("user.name");
+    } catch (SecurityException e) {
+      userName = null;
+    }
+    return TempFileContext.generatePrefix(userName);
+  }
+
+  /**
+   * Determines if the given file system supports POSIX file attributes.
+   */
+  static boolean isPosix(Path path) {
+    return path.getFileSystem().supportedFileAttributeViews().contains("posix");
+  }
+
+  /**
+   * Gets the file attributes for a directory accessible only by its owner, or none when not supported.
+   */
+  static FileAttribute<?>[] getOwnerOnlyDirectoryAttributes(Path path) {
+    return isPosix(path)
+        ? new FileAttribute<?>[]{PosixFilePermissions.asFileAttribute(OWNER_ONLY_DIRECTORY)}
+        : new FileAttribute<?>[0];
+  }
+
+  /**
+   * Creates a directory accessible only by its owner.  When it already exists, it is verified to be a real
+   * directory, owned by the current user, and not accessible by group or others.
+   *
+   * @param  tmpDir  The temporary directory used to determine the current user, when needed
+   *
+   * @throws  IOException  when cannot be created or is not secure
+   */
+  static Path createPrivateDirectory(Path tmpDir, Path dir) throws IOException {
+    try {
+      return Files.createDirectory(dir, getOwnerOnlyDirectoryAttributes(dir));
+    } catch (FileAlreadyExistsException e) {
+      // Verify below
+    }
+    BasicFileAttributes attrs = Files.readAttributes(dir, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+    if (!attrs.isDirectory()) {
+      throw new IOException("Not a directory: " + dir);
+    }
+    if (isPosix(dir)) {
+      PosixFileAttributes posixAttrs = Files.readAttributes(dir, PosixFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+      if (!OWNER_ONLY_DIRECTORY.containsAll(posixAttrs.permissions())) {
+        throw new IOException("Directory is accessible by group or others: " + dir);
+      }
+      UserPrincipal owner = posixAttrs.owner();
+      // Determine the current user by the owner of a newly created file
+      Path probe = Files.createTempFile(tmpDir, DIRECTORY_PREFIX, null);
+      try {
+        UserPrincipal currentUser = Files.getOwner(probe, LinkOption.NOFOLLOW_LINKS);
+        if (!owner.equals(currentUser)) {
+          throw new IOException("Directory is owned by " + owner.getName() + ", expected " + currentUser.getName() + ": " + dir);
+        }
+      } finally {
+        Files.delete(probe);
+      }
+    }
+    return dir;
+  }
+
+  /**
+   * Deletes a file or directory recursively.  Entries that disappear concurrently, such as when another JVM is
+   * reaping the same trash, are not an error.
+   */
+  static void reapRecursive(Path deleteMe) throws IOException {
+    Files.walkFileTree(
+        deleteMe,
+        // Java 9: new SimpleFileVisitor<>
+        new SimpleFileVisitor<Path>() {
+          @Override
+          public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+            Files.deleteIfExists(file);
+            return FileVisitResult.CONTINUE;
+          }
+
+          @Override
+          public FileVisitResult visitFileFailed(Path file, IOException exc) throws IOException {
+            if (exc instanceof NoSuchFileException) {
+              return FileVisitResult.CONTINUE;
+            }
+            throw exc;
+          }
+
+          @Override
+          public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+            if (exc != null && !(exc instanceof NoSuchFileException)) {
+              throw exc;
+            }
+            Files.deleteIfExists(dir);
+            return FileVisitResult.CONTINUE;
+          }
+        }
+    );
+  }
+
+  /**
+   * The token identifying this JVM as the owner of temporary files, shared by all temporary directories.
+   */
+  private static class OwnerToken {
+
+    private static final String token;
+
+    static {
+      SecureRandom random = new SecureRandom();
+      char[] chars = new char[OWNER_TOKEN_LENGTH];
+      for (int i = 0; i < OWNER_TOKEN_LENGTH; i++) {
+        chars[i] = Character.forDigit(random.nextInt(1 << OWNER_TOKEN_BITS_PER_CHAR), 1 << OWNER_TOKEN_BITS_PER_CHAR);
+      }
+      token = new String(chars);
+    }
+
+    /** Make no instances. */
+    private OwnerToken() {
+      throw new AssertionError();
+    }
+  }
+
+  /**
+   * Gets the owner tag that is added to temporary file names, consisting of the owner token of this JVM between
+   * delimiters.
+   */
+  static String getOwnerTag() {
+    return OWNER_TAG_DELIMITER + OwnerToken.token + OWNER_TAG_DELIMITER;
+  }
+
+  /**
+   * Gets the owner token of this JVM.
+   */
+  static String getOwnerToken() {
+    return OwnerToken.token;
+  }
+
+  /**
+   * Finds the owner token within a temporary file name.
+   *
+   * @return  the first owner token found or {@code null} when none
+   */
+  static String parseOwnerToken(String name) {
+    int len = name.length();
+    int pos = 0;
+    while (true) {
+      int start = name.indexOf(OWNER_TAG_DELIMITER, pos);
+      int end = start + OWNER_TOKEN_LENGTH + 1;
+      if (start == -1 || end >= len) {
+        return null;
+      }
+      if (name.charAt(end) == OWNER_TAG_DELIMITER && isOwnerToken(name, start + 1, end)) {
+        return name.substring(start + 1, end);
+      }
+      pos = start + 1;
+    }
+  }
+
+  /**
+   * Checks if the given range consists entirely of owner token characters.
+   */
+  private static boolean isOwnerToken(String name, int start, int end) {
+    for (int i = start; i < end; i++) {
+      // Matches the lower-case output of Character.forDigit in radix 32
+      char ch = name.charAt(i);
+      if ((ch < '0' || ch > '9') && (ch < 'a' || ch > 'v')) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Gets a description of the current process, for diagnostics within ownership markers.
+   */
+  private static String getProcessDescription() {
+    String name;
+    long startTime;
+    try {
+      name = ManagementFactory.getRuntimeMXBean().getName();
+      startTime = ManagementFactory.getRuntimeMXBean().getStartTime();
+    } catch (LinkageError | SecurityException e) {
+      // java.lang.management not available, such as on Android
+      name = "unknown";
+      startTime = System.currentTimeMillis();
+    }
+    return "pid@host=" + name + "\nstartTime=" + startTime + '\n';
+  }
+
+  /**
+   * Runs the given task in the background, on the same low-priority thread that empties the trash.
+   *
+   * @throws  RejectedExecutionException  when unable to execute
+   */
+  static void executeInBackground(Runnable task) throws RejectedExecutionException {
+    Reaper.executor.execute(task);
+  }
+
+  /**
+   * Runs the given task in the background, on a thread separate from both the deletes of the trash and the
+   * {@linkplain TempFileContext#getDefaultDeleteExecutor() default delete executor}, so the task is not delayed behind
+   * bulk deletes.  For short tasks that must run promptly, such as refreshing the usable space or relieving memory
+   * pressure.
+   *
+   * @throws  RejectedExecutionException  when unable to execute
+   */
+  static void executeMonitor(Runnable task) throws RejectedExecutionException {
+    Monitor.executor.execute(task);
+  }
+
+  /**
+   * Single low-priority daemon thread that empties the trash directories and performs other background
+   * housekeeping.
+   */
+  private static class Reaper {
+
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+      Thread thread = new Thread(r, Housekeeping.class.getName() + ".reaper");
+      thread.setDaemon(true);
+      thread.setPriority(Thread.MIN_PRIORITY);
+      return thread;
+    });
+
+    /** Make no instances. */
+    private Reaper() {
+      throw new AssertionError();
+    }
+  }
+
+  /**
+   * Single daemon thread that monitors resources, never used for deletes.
+   */
+  private static class Monitor {
+
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+      Thread thread = new Thread(r, Housekeeping.class.getName() + ".monitor");
+      thread.setDaemon(true);
+      return thread;
+    });
+
+    /** Make no instances. */
+    private Monitor() {
+      throw new AssertionError();
+    }
+  }
+
+  private final File tmpDir;
+  private final Path dir;
+
+  private final Object trashDirLock = new Object();
+  private Path trashDir;
+
+  private final Object fanOutDirLock = new Object();
+  private Path fanOutDir;
+
+  private final Object ownerMarkerLock = new Object();
+
+  /**
+   * The lock on the ownership marker of this JVM, held for the life of the JVM.
+   */
+  private FileLock ownerMarker;
+
+  /**
+   * Set while a reap of the trash is scheduled but not yet started.
+   */
+  private final AtomicBoolean reapScheduled = new AtomicBoolean();
+
+  /**
+   * Used to make names unique within the trash.
+   */
+  private final AtomicLong trashCounter = new AtomicLong();
+
+  private Housekeeping(File tmpDir) throws IOException {
+    this.tmpDir = tmpDir;
+    Path tmpPath = tmpDir.toPath();
+    this.dir = createPrivateDirectory(tmpPath, tmpPath.resolve(DIRECTORY_PREFIX + getUserName()));
+  }
+
+  /**
+   * Gets the temporary directory this is housekeeping for.
+   */
+  File getTmpDir() {
+    return tmpDir;
+  }
+
+  /**
+   * Gets the root of the fan-out bucket directories, whether or not it exists.
+   */
+  Path getFanOutPath() {
+    return dir.resolve(FAN_OUT_DIRECTORY);
+  }
+
+  /**
+   * Gets the root of the fan-out bucket directories, creating it when first accessed.
+   */
+  Path getFanOutDir() throws IOException {
+    synchronized (fanOutDirLock) {
+      if (fanOutDir == null) {
+        fanOutDir = createPrivateDirectory(tmpDir.toPath(), getFanOutPath());
+      }
+      return fanOutDir;
+    }
+  }
+
+  /**
+   * Gets the directory containing the ownership markers.
+   */
+  Path getOwnersDir() {
+    return dir.resolve(OWNERS_DIRECTORY);
+  }
+
+  /**
+   * Creates and locks the ownership marker for this JVM, once per temporary directory.  The lock is held for the life
+   * of the JVM and is released by the operating system when the JVM exits for any reason, including being killed.
+   * The marker file itself remains until removed by the {@link OrphanSweeper}.
+   */
+  @SuppressWarnings("resource")
+  void startOwnership() throws IOException {
+    synchronized (ownerMarkerLock) {
+      if (ownerMarker == null) {
+        Path ownersDir = createPrivateDirectory(tmpDir.toPath(), getOwnersDir());
+        Path marker = ownersDir.resolve(OwnerToken.token + OWNER_MARKER_SUFFIX);
+        FileChannel channel = FileChannel.open(marker, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        boolean success = false;
+        try {
+          FileLock lock = channel.tryLock();
+          if (lock == null) {
+            throw new IOException("Unable to lock ownership marker: " + marker);
+          }
+          channel.write(ByteBuffer.wrap(getProcessDescription().getBytes(StandardCharsets.UTF_8)));
+          channel.force(false);
+          ownerMarker = lock;
+          success = true;
+        } finally {
+          if (!success) {
+            channel.close();
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Gets the trash directory, creating it when first accessed.  When first accessed within this JVM, a reap is
+   * scheduled to remove any leftovers from previous JVMs that did not complete their reaping.
+   */
+  private Path getTrashDir() throws IOException {
+    synchronized (trashDirLock) {
+      if (trashDir == null) {
+        trashDir = createPrivateDirectory(tmpDir.toPath(), dir.resolve(TRASH_DIRECTORY));
+        scheduleReap();
+      }
+      return trashDir;
+    }
+  }
+
+  /**
+   * Starts the trash for this temporary directory, reaping any leftovers from previous JVMs in the background.
+   */
+  void startTrash() throws IOException {
+    getTrashDir();
+  }
+
+  /**
+   * Moves the given file or directory into the trash with a single atomic rename, then schedules a background reap.
+   *
+   * @throws  AtomicMoveNotSupportedException  when the trash is on a different file store
+   * @throws  IOException  when unable to move
+   */
+  void moveToTrash(File file) throws IOException {
+    Path trash = getTrashDir();
+    Path target = trash.resolve(file.getName() + '.' + Long.toString(trashCounter.incrementAndGet(), Character.MAX_RADIX));
+    Files.move(file.toPath(), target, StandardCopyOption.ATOMIC_MOVE);
+    scheduleReap();
+  }
+
+  /**
+   * Records files that could not be deleted, so they may be deleted by the next JVM that uses this temporary
+   * directory.
+   *
+   * @param  deleteMes  The files or directories, with {@code true} for directories
+   */
+  void recordPendingDeletes(Map<File, Boolean> deleteMes) throws IOException {
+    Path pendingDir = createPrivateDirectory(tmpDir.toPath(), dir.resolve(PENDING_DIRECTORY));
+    Path partial = Files.createTempFile(pendingDir, "record-", ".partial");
+    try {
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+          Files.newOutputStream(partial, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)))) {
+        out.writeInt(PENDING_MAGIC);
+        out.writeInt(PENDING_VERSION);
+        for (Map.Entry<File, Boolean> entry : deleteMes.entrySet()) {
+          out.writeBoolean(entry.getValue());
+          out.writeUTF(entry.getKey().getAbsolutePath());
+        }
+      }
+      String name = partial.getFileName().toString();
+      Files.move(
+          partial,
+          pendingDir.resolve(name.substring(0, name.length() - ".partial".length()) + PENDING_SUFFIX),
+          StandardCopyOption.ATOMIC_MOVE
+      );
+    } finally {
+      Files.deleteIfExists(partial);
+    }
+  }
+
+  /**
+   * Deletes the files from all pending delete records.  Only files within this temporary directory are deleted.
+   * Each record is removed once processed.
+   */
+  @SuppressWarnings({"UseSpecificCatch", "TooBroadCatch"})
+  private void deletePending() {
+    Path tmpPath = tmpDir.toPath().toAbsolutePath().normalize();
+    Path dirPath = dir.toAbsolutePath().normalize();
+    Path pendingDir = dir.resolve(PENDING_DIRECTORY);
+    int deleted = 0;
+    try (DirectoryStream<Path> records = Files.newDirectoryStream(pendingDir, "*" + PENDING_SUFFIX)) {
+      for (Path record : records) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(record)))) {
+          if (in.readInt() != PENDING_MAGIC || in.readInt() != PENDING_VERSION) {
+            throw new IOException("Unexpected pending delete record format: " + record);
+          }
+          while (true) {
+            boolean isDirectory;
+            try {
+              isDirectory = in.readBoolean();
+            } catch (EOFException e) {
+              break;
+            }
+            Path deleteMe = tmpPath.getFileSystem().getPath(in.readUTF()).toAbsolutePath().normalize();
+            if (!deleteMe.startsWith(tmpPath) || deleteMe.equals(tmpPath) || dirPath.startsWith(deleteMe)) {
+              if (logger.isLoggable(Level.WARNING)) {
+                logger.log(Level.WARNING, "Ignoring pending delete outside of temporary directory: " + deleteMe);
+              }
+            } else {
+              try {
+                if (isDirectory) {
+                  if (Files.exists(deleteMe, LinkOption.NOFOLLOW_LINKS)) {
+                    reapRecursive(deleteMe);
+                    deleted++;
+                  }
+                } else if (Files.deleteIfExists(deleteMe)) {
+                  deleted++;
+                }
+              } catch (IOException e) {
+                if (logger.isLoggable(Level.WARNING)) {
+                  logger.log(Level.WARNING, "Unable to delete pending " + (isDirectory ? "directory" : "file") + ": " + deleteMe, e);
+                }
+              }
+            }
+          }
+        } catch (Throwable t) {
+          if (logger.isLoggable(Level.WARNING)) {
+            logger.log(Level.WARNING, "Unable to process pending delete record: " + record, t);
+          }
+        }
+        try {
+          Files.deleteIfExists(record);
+        } catch (IOException e) {
+          if (logger.isLoggable(Level.WARNING)) {
+            logger.log(Level.WARNING, "Unable to remove pending delete record: " + record, e);
+          }
+        }
+      }
+    } catch (NoSuchFileException e) {
+      // No pending deletes
+    } catch (Throwable t) {
+      if (logger.isLoggable(Level.WARNING)) {
+        logger.log(Level.WARNING, "Unable to process pending deletes: " + pendingDir, t);
+      }
+    }
+    if (deleted > 0 && logger.isLoggable(Level.INFO)) {
+      logger.log(Level.INFO, "Deleted {0} temporary files and directories left pending by previous shutdowns in {1}", new Object[]{deleted, tmpDir});
+    }
+  }
+
+  /**
+   * Schedules an asynchronous reap of the trash, unless one is already scheduled.
+   */
+  private void scheduleReap() {
+    if (reapScheduled.compareAndSet(false, true)) {
+      try {
+        Reaper.executor.execute(this::reap);
+      } catch (RejectedExecutionException e) {
+        reapScheduled.set(false);
+        logger.log(Level.WARNING, "Unable to schedule reaping of trash", e);
+      }
+    }
+  }
+
+  /**
+   * Empties the trash.
+   */
+  @SuppressWarnings({"UseSpecificCatch", "TooBroadCatch"})
+  private void reap() {
+    // Cleared before scanning so any move during the scan schedules another reap
+    reapScheduled.set(false);
+    Path trash;
+    synchronized (trashDirLock) {
+      trash = trashDir;
+    }
+    if (trash != null) {
+      try (DirectoryStream<Path> stream = Files.newDirectoryStream(trash)) {
+        for (Path entry : stream) {
+          try {
+            reapRecursive(entry);
+          } catch (Throwable t) {
+            if (logger.isLoggable(Level.WARNING)) {
+              logger.log(Level.WARNING, "Unable to reap from trash: " + entry, t);
+            }
+          }
+        }
+      } catch (Throwable t) {
+        if (logger.isLoggable(Level.WARNING)) {
+          logger.log(Level.WARNING, "Unable to reap trash: " + trash, t);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,351 @@
+/*
+ * ao-tempfiles - Java temporary file API filling-in JDK gaps and deficiencies.
+ * Copyright (C) 2026  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of ao-tempfiles.
+ *
+ * ao-tempfiles is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ao-tempfiles is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ao-tempfiles.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.aoapps.tempfiles;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * A temporary file that is not created until first needed.  Until then, it has no name, is not registered for delete
+ * on exit, and closing it has nothing to delete.  Once needed, the temporary file is created by the context as usual
+ * and this delegates to it.
+ *
+ * <p>Thread-safe with fine-grained locking.</p>
+ *
+ * @see  TempFileContext#createLazyTempFile(java.lang.String, java.lang.String)
+ */
+final class LazyTempFile extends TempFile {
+
+  private static final byte[] EMPTY = new byte[0];
+
+  private final TempFileContext context;
+  private final String prefix;
+  private final String suffix;
+
+  private final Object lock = new Object();
+
+  /**
+   * The underlying temporary file, once created.
+   */
+  private TempFile delegate;
+
+  private boolean closed;
+
+  LazyTempFile(TempFileContext context, String prefix, String suffix) {
+    // Not used directly, all access is through the delegate
+    super(null, null, null, false, false, null, null, null, null, null);
+    this.context = context;
+    this.prefix = prefix;
+    this.suffix = suffix;
+  }
+
+  /**
+   * Gets the underlying temporary file, creating it when first needed.
+   *
+   * @throws  IllegalStateException  when already closed or the context is closed before first needed
+   */
+  private TempFile materialize() throws IllegalStateException, IOException {
+    synchronized (lock) {
+      if (closed) {
+        throw new IllegalStateException("Temp file closed");
+      }
+      if (delegate == null) {
+        delegate = context.createTempFile(prefix, suffix);
+      }
+      return delegate;
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>Creates the underlying file when first called.</p>
+   *
+   * @throws  UncheckedIOException  when unable to create the underlying file
+   */
+  @Override
+  public File getFile() throws IllegalStateException, UncheckedIOException {
+    try {
+      return materialize().getFile();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>Creates the underlying file when first called.</p>
+   */
+  @Override
+  public OutputStream newOutputStream() throws IllegalStateException, IOException {
+    return materialize().newOutputStream();
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>Reads as an empty file, without creating the underlying file, when not yet created.</p>
+   */
+  @Override
+  public InputStream newInputStream() throws IllegalStateException, IOException {
+    TempFile d;
+    synchronized (lock) {
+      if (closed) {
+        throw new IllegalStateException("Temp file closed");
+      }
+      d = delegate;
+    }
+    return (d == null) ? new ByteArrayInputStream(EMPTY) : d.newInputStream();
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>Creates the underlying file when first called.</p>
+   */
+  @Override
+  public SeekableByteChannel newChannel() throws IllegalStateException, IOException {
+    return materialize().newChannel();
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>Transfers nothing, without creating the underlying file, when not yet created.</p>
+   */
+  @Override
+  public long transferTo(WritableByteChannel target, long limit) throws IllegalArgumentException, IllegalStateException, IOException {
+    if (limit < 0) {
+      throw new IllegalArgumentException("limit < 0: " + limit);
+    }
+    TempFile d;
+    synchronized (lock) {
+      if (closed) {
+        throw new IllegalStateException("Temp file closed");
+      }
+      d = delegate;
+    }
+    return (d == null) ? 0 : d.transferTo(target, limit);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>Creates the underlying file when first called.</p>
+   */
+  @Override
+  public long transferFrom(ReadableByteChannel src, long limit) throws IllegalArgumentException, IllegalStateException, IOException {
+    if (limit < 0) {
+      throw new IllegalArgumentException("limit < 0: " + limit);
+    }
+    return materialize().transferFrom(src, limit);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>Creates the underlying file when first called.</p>
+   */
+  @Override
+  public TempFileMapping map(FileChannel.MapMode mode) throws IllegalStateException, IOException {
+    return materialize().map(mode);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>Creates the underlying file when first called.</p>
+   */
+  @Override
+  public TempFileMapping map(FileChannel.MapMode mode, long size) throws IllegalArgumentException, IllegalStateException, IOException {
+    return materialize().map(mode, size);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>Creates the underlying file when first called.</p>
+   */
+  @Override
+  FileChannel getSharedChannel() throws IllegalStateException, IOException {
+    return materialize().getSharedChannel();
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>Creates the underlying file when first called.</p>
+   */
+  @Override
+  int read(ByteBuffer dst, long position) throws IllegalStateException, IOException {
+    return materialize().read(dst, position);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>Creates the underlying file when first called.</p>
+   */
+  @Override
+  void write(ByteBuffer src, long position) throws IllegalStateException, IOException {
+    materialize().write(src, position);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>Creates the underlying file when first called.</p>
+   */
+  @Override
+  long transferFrom(ReadableByteChannel src, long position, long limit) throws IOException {
+    return materialize().transferFrom(src, position, limit);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>Creates the underlying file when first called.</p>
+   */
+  @Override
+  void checkGrowth(long size) throws IOException {
+    materialize().checkGrowth(size);
+  }
+
+  /**
+   * Gets the underlying temporary file without creating it.
+   *
+   * @return  the underlying temporary file or {@code null} when not yet created or already closed
+   */
+  private TempFile delegateOrNull() {
+    synchronized (lock) {
+      return delegate;
+    }
+  }
+
+  // The accounting hooks are delegated, since nothing is counted until the underlying file is created
+
+  @Override
+  void grown(long size) {
+    TempFile d = delegateOrNull();
+    if (d != null) {
+      d.grown(size);
+    }
+  }
+
+  @Override
+  void truncated(long size) {
+    TempFile d = delegateOrNull();
+    if (d != null) {
+      d.truncated(size);
+    }
+  }
+
+  @Override
+  long getCountedSize() {
+    TempFile d = delegateOrNull();
+    return (d == null) ? 0 : d.getCountedSize();
+  }
+
+  @Override
+  void sampleSize() {
+    TempFile d = delegateOrNull();
+    if (d != null) {
+      d.sampleSize();
+    }
+  }
+
+  @Override
+  void recordWrite(long count) {
+    TempFile d = delegateOrNull();
+    if (d != null) {
+      d.recordWrite(count);
+    }
+  }
+
+  @Override
+  void recordRead(long count) {
+    TempFile d = delegateOrNull();
+    if (d != null) {
+      d.recordRead(count);
+    }
+  }
+
+  @Override
+  void removeMapping(TempFileMapping mapping) {
+    TempFile d = delegateOrNull();
+    if (d != null) {
+      d.removeMapping(mapping);
+    }
+  }
+
+  /**
+   * Takes the underlying temporary file for close.
+   *
+   * @return  the underlying temporary file or {@code null} when never created or already closed
+   */
+  private TempFile takeForClose() {
+    synchronized (lock) {
+      closed = true;
+      TempFile d = delegate;
+      delegate = null;
+      return d;
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>Does not touch the filesystem when the underlying file was never created.</p>
+   */
+  @Override
+  public void close() throws IOException {
+    TempFile d = takeForClose();
+    if (d != null) {
+      d.close();
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>Does not touch the filesystem when the underlying file was never created.</p>
+   */
+  @Override
+  public CompletableFuture<Void> closeAsync(Executor executor) {
+    TempFile d = takeForClose();
+    return (d == null) ? CompletableFuture.completedFuture(null) : d.closeAsync(executor);
+  }
+}
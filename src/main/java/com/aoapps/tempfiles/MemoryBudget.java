@@ -0,0 +1,296 @@
+/*
+ * ao-tempfiles - Java temporary file API filling-in JDK gaps and deficiencies.
+ * Copyright (C) 2026  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of ao-tempfiles.
+ *
+ * ao-tempfiles is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ao-tempfiles is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ao-tempfiles.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.aoapps.tempfiles;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.NotificationEmitter;
+
+/**
+ * The global memory budget shared by all {@link TempBuffer} of contexts with
+ * {@linkplain TempFileContext.Builder#memoryBudget(boolean) memory budget} enabled.
+ *
+ * <p>Listens for {@link MemoryPoolMXBean} threshold notifications on the heap.  A threshold of {@code 80%} of the
+ * maximum is set on each heap pool that supports it and does not already have a threshold set, preferring the
+ * collection usage threshold, which only counts memory still in use after garbage collection.  These thresholds are
+ * global to the JVM, so are also seen by any other listener of heap threshold notifications.  Thresholds already set
+ * by the application or other libraries are left as-is and used instead.</p>
+ *
+ * <p>Buffers are tracked by weak reference, so a buffer that is never closed does not keep itself, its context, or its
+ * chunks reachable.  The buffers of a context are no longer tracked once the context is closed.</p>
+ *
+ * <p>When a threshold is exceeded, the largest in-memory buffers are forced to spill to their temporary files until
+ * at least half of the memory held by buffers is released, and the in-memory threshold of all buffers is halved.
+ * While no threshold is exceeded, the in-memory threshold doubles once per {@link #RISE_INTERVAL_NANOS}, up to four
+ * times the configured threshold.</p>
+ *
+ * <p>Thread-safe with fine-grained locking.</p>
+ */
+final class MemoryBudget {
+
+  private static final Logger logger = Logger.getLogger(MemoryBudget.class.getName());
+
+  /**
+   * The percentage of the maximum heap pool size at which thresholds are set.
+   */
+  private static final int THRESHOLD_PERCENT = 80;
+
+  /**
+   * The lowest scale, as a power of two, applied to buffer thresholds under pressure.
+   */
+  private static final int MIN_SHIFT = -4;
+
+  /**
+   * The highest scale, as a power of two, applied to buffer thresholds while the heap is idle.
+   */
+  private static final int MAX_SHIFT = 2;
+
+  /**
+   * The time without pressure before buffer thresholds double.
+   */
+  private static final long RISE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+  /**
+   * The heap pools being monitored, empty when monitoring is unavailable.
+   */
+  private static final List<MemoryPoolMXBean> pools = new ArrayList<>();
+
+  /**
+   * The buffers currently holding content in memory.
+   */
+  private static final Set<TempBuffer> inMemory = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+
+  /**
+   * The current scale, as a power of two, applied to buffer thresholds.
+   */
+  private static final AtomicInteger shift = new AtomicInteger();
+
+  /**
+   * The time of the last change to {@link #shift}.
+   */
+  private static final AtomicLong lastChange = new AtomicLong(System.nanoTime());
+
+  /**
+   * Set while forcing buffers to spill.
+   */
+  private static final AtomicBoolean relieving = new AtomicBoolean();
+
+  static {
+    try {
+      for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+        if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+          long max = pool.getUsage().getMax();
+          if (max > 0) {
+            long threshold = max / 100 * THRESHOLD_PERCENT;
+            if (pool.isCollectionUsageThresholdSupported()) {
+              if (pool.getCollectionUsageThreshold() == 0) {
+                pool.setCollectionUsageThreshold(threshold);
+              }
+              pools.add(pool);
+            } else if (pool.isUsageThresholdSupported()) {
+              if (pool.getUsageThreshold() == 0) {
+                pool.setUsageThreshold(threshold);
+              }
+              pools.add(pool);
+            }
+          }
+        }
+      }
+      if (!pools.isEmpty()) {
+        ((NotificationEmitter) ManagementFactory.getMemoryMXBean()).addNotificationListener(
+            (notification, handback) -> pressure(),
+            notification -> MemoryNotificationInfo.MEMORY_THRESHOLD_EXCEEDED.equals(notification.getType())
+                || MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED.equals(notification.getType()),
+            null
+        );
+      }
+    } catch (RuntimeException e) {
+      pools.clear();
+      if (logger.isLoggable(Level.WARNING)) {
+        logger.log(Level.WARNING, "Unable to monitor heap usage, temporary buffers will use fixed thresholds", e);
+      }
+    }
+  }
+
+  /** Make no instances. */
+  private MemoryBudget() {
+    throw new AssertionError();
+  }
+
+  /**
+   * Scales the given buffer threshold by the current heap pressure.
+   */
+  static long scaleThreshold(long threshold) {
+    int s = getShift();
+    if (s < 0) {
+      return threshold >> -s;
+    }
+    return (threshold > (Long.MAX_VALUE >> s)) ? Long.MAX_VALUE : (threshold << s);
+  }
+
+  /**
+   * Gets the current scale, first rising by one step per {@link #RISE_INTERVAL_NANOS} elapsed without pressure.
+   */
+  private static int getShift() {
+    while (true) {
+      int s = shift.get();
+      if (s == MAX_SHIFT) {
+        return s;
+      }
+      long last = lastChange.get();
+      long steps = (System.nanoTime() - last) / RISE_INTERVAL_NANOS;
+      if (steps <= 0) {
+        return s;
+      }
+      if (isExceeded()) {
+        // Still under pressure, start waiting again
+        lastChange.compareAndSet(last, System.nanoTime());
+        return s;
+      }
+      if (lastChange.compareAndSet(last, last + steps * RISE_INTERVAL_NANOS)) {
+        int newShift = (int) Math.min(MAX_SHIFT, s + steps);
+        // Lost updates are harmless, being recomputed on the next call
+        shift.compareAndSet(s, newShift);
+        return newShift;
+      }
+    }
+  }
+
+  private static boolean isExceeded() {
+    for (MemoryPoolMXBean pool : pools) {
+      if (
+          pool.isCollectionUsageThresholdSupported()
+              ? pool.isCollectionUsageThresholdExceeded()
+              : pool.isUsageThresholdExceeded()
+      ) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Tracks a buffer that has started holding content in memory.
+   */
+  static void register(TempBuffer buffer) {
+    inMemory.add(buffer);
+  }
+
+  /**
+   * Stops tracking a buffer that has spilled or been closed.
+   */
+  static void unregister(TempBuffer buffer) {
+    inMemory.remove(buffer);
+  }
+
+  /**
+   * Stops tracking all buffers of a context that has been closed.
+   */
+  static void unregisterAll(TempFileContext context) {
+    inMemory.removeIf(buffer -> buffer.getContext() == context);
+  }
+
+  /**
+   * Called when a heap threshold is exceeded.  Lowers buffer thresholds and spills the largest buffers in the
+   * background.
+   */
+  private static void pressure() {
+    while (true) {
+      int s = shift.get();
+      int newShift = Math.max(MIN_SHIFT, Math.min(s, 0) - 1);
+      if (shift.compareAndSet(s, newShift)) {
+        lastChange.set(System.nanoTime());
+        break;
+      }
+    }
+    if (relieving.compareAndSet(false, true)) {
+      try {
+        // Not spilled on the notification thread, which is shared by all of the JVM, nor behind bulk deletes
+        Housekeeping.executeMonitor(MemoryBudget::relieve);
+      } catch (RejectedExecutionException e) {
+        relieving.set(false);
+        if (logger.isLoggable(Level.FINE)) {
+          logger.log(Level.FINE, "Unable to schedule spill of temporary buffers", e);
+        }
+      }
+    }
+  }
+
+  /**
+   * Forces the largest in-memory buffers to spill until at least half of their memory is released.
+   */
+  private static void relieve() {
+    try {
+      List<TempBuffer> buffers = new ArrayList<>(inMemory);
+      // Sizes change concurrently, so are captured once for a consistent sort
+      List<long[]> sizes = new ArrayList<>(buffers.size());
+      long total = 0;
+      for (int i = 0; i < buffers.size(); i++) {
+        long size = buffers.get(i).getMemorySize();
+        sizes.add(new long[]{size, i});
+        total += size;
+      }
+      Collections.sort(sizes, Comparator.comparingLong((long[] e) -> e[0]).reversed());
+      long released = 0;
+      int count = 0;
+      for (long[] entry : sizes) {
+        if (released * 2 >= total || entry[0] == 0) {
+          break;
+        }
+        TempBuffer buffer = buffers.get((int) entry[1]);
+        try {
+          if (buffer.forceSpill()) {
+            released += entry[0];
+            count++;
+          }
+        } catch (IOException | IllegalStateException e) {
+          if (logger.isLoggable(Level.WARNING)) {
+            logger.log(Level.WARNING, "Unable to spill temporary buffer under heap pressure", e);
+          }
+        }
+      }
+      if (count > 0 && logger.isLoggable(Level.INFO)) {
+        logger.log(Level.INFO, "Spilled {0} temporary buffers releasing {1} bytes under heap pressure", new Object[]{count, released});
+      }
+    } finally {
+      relieving.set(false);
+    }
+  }
+}
@@ -0,0 +1,326 @@
+/*
+ * ao-tempfiles - Java temporary file API filling-in JDK gaps and deficiencies.
+ * Copyright (C) 2026  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of ao-tempfiles.
+ *
+ * ao-tempfiles is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ao-tempfiles is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ao-tempfiles.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.aoapps.tempfiles;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Finds and deletes temporary files left behind by JVMs that no longer exist, such as after being killed with
+ * {@code SIGKILL} or by the out-of-memory killer, when neither {@link TempFileContext#close()} nor the shutdown hook
+ * had a chance to run.
+ *
+ * <p>Only temporary files created with {@linkplain TempFileContext.Builder#orphanTracking(boolean) orphan tracking}
+ * enabled are found.  Each JVM holds a lock on its own ownership marker for as long as it runs.  A marker that can be
+ * locked by the sweeper belongs to a JVM that no longer exists, and temporary files tagged with its owner token are
+ * orphans.</p>
+ *
+ * <p>The temporary directory is only scanned when at least one dead owner is found.  The scan is a single streaming
+ * pass over directory entries, matching by name only, without reading attributes of each entry, so is suitable for
+ * directories with millions of entries.  Any {@linkplain TempFileContext.Builder#fanOut(int, int) fan-out} buckets
+ * and {@linkplain TempFileContext.Builder#stripes(int) stripes} are also scanned.  Orphans are deleted in parallel.</p>
+ *
+ * <p>A sweep is automatically run in the background when the first context with orphan tracking is created for a
+ * temporary directory.  Applications may also sweep periodically, such as with a
+ * {@link java.util.concurrent.ScheduledExecutorService}.</p>
+ */
+public final class OrphanSweeper {
+
+  private static final Logger logger = Logger.getLogger(OrphanSweeper.class.getName());
+
+  /**
+   * The number of orphans deleted per task.
+   */
+  private static final int BATCH_SIZE = 256;
+
+  /**
+   * The temporary directories already swept at startup within this JVM.
+   */
+  private static final Set<File> startupSwept = ConcurrentHashMap.newKeySet();
+
+  /** Make no instances. */
+  private OrphanSweeper() {
+    throw new AssertionError();
+  }
+
+  /**
+   * Once per temporary directory per JVM, sweeps in the background on a low-priority thread.
+   *
+   * @param  tmpDir  The temporary directory or {@code null} when the system temporary directory is unknown
+   */
+  @SuppressWarnings({"UseSpecificCatch", "TooBroadCatch"})
+  static void sweepAtStartup(File tmpDir) {
+    if (tmpDir != null && startupSwept.add(tmpDir.getAbsoluteFile())) {
+      try {
+        Housekeeping.executeInBackground(() -> {
+          try {
+            sweep(tmpDir);
+          } catch (Throwable t) {
+            if (logger.isLoggable(Level.WARNING)) {
+              logger.log(Level.WARNING, "Unable to sweep orphans in temporary directory: " + tmpDir, t);
+            }
+          }
+        });
+      } catch (RejectedExecutionException e) {
+        logger.log(Level.WARNING, "Unable to schedule sweep of orphans", e);
+      }
+    }
+  }
+
+  /**
+   * Sweeps the given temporary directory, deleting in parallel on a default pool of daemon threads.
+   *
+   * @see  #sweep(java.io.File, java.util.concurrent.Executor)
+   */
+  public static int sweep(File tmpDir) throws IOException {
+    return sweep(tmpDir, TempFileContext.getDefaultDeleteExecutor());
+  }
+
+  /**
+   * Sweeps the given temporary directory, deleting all orphans of JVMs that no longer exist.
+   *
+   * <p>The ownership marker of a dead JVM is removed once all of its orphans are deleted.  When any orphan cannot be
+   * deleted, the marker is kept so the orphan will be found again by a later sweep.  Failures are logged.</p>
+   *
+   * <p>Multiple JVMs may safely sweep the same temporary directory concurrently, since each dead owner is locked by
+   * only one sweeper at a time.</p>
+   *
+   * @param  tmpDir  The temporary directory
+   * @param  executor  The executor that performs the deletes.  Any batch rejected by the executor is run in the
+   *                   current thread.
+   *
+   * @return  the number of orphans deleted
+   *
+   * @throws  IOException  when the housekeeping directory is unavailable or the temporary directory cannot be read
+   */
+  public static int sweep(File tmpDir, Executor executor) throws IOException {
+    Housekeeping housekeeping = Housekeeping.getInstance(tmpDir);
+    Map<String, FileLock> deadOwners = lockDeadOwners(housekeeping.getOwnersDir());
+    if (deadOwners.isEmpty()) {
+      return 0;
+    }
+    AtomicInteger deleted = new AtomicInteger();
+    AtomicBoolean failed = new AtomicBoolean();
+    try {
+      Scan scan = new Scan(deadOwners, executor, deleted, failed);
+      scan.scan(tmpDir.toPath(), 0);
+      try {
+        scan.scan(housekeeping.getFanOutPath(), FanOut.MAX_DEPTH);
+      } catch (NoSuchFileException e) {
+        // Fan-out not used
+      }
+      scan.finish();
+    } catch (IOException | RuntimeException | Error e) {
+      failed.set(true);
+      throw e;
+    } finally {
+      releaseDeadOwners(housekeeping.getOwnersDir(), deadOwners, !failed.get());
+    }
+    int count = deleted.get();
+    if (count > 0 && logger.isLoggable(Level.INFO)) {
+      logger.log(Level.INFO, "Deleted {0} orphaned temporary files and directories of {1} dead JVMs in {2}", new Object[]{count, deadOwners.size(), tmpDir});
+    }
+    return count;
+  }
+
+  /**
+   * A single pass over directory entries, deleting orphans in batches as found.
+   */
+  private static class Scan {
+
+    private final Map<String, FileLock> deadOwners;
+    private final Executor executor;
+    private final AtomicInteger deleted;
+    private final AtomicBoolean failed;
+    private final List<CompletableFuture<Void>> futures = new ArrayList<>();
+    private List<Path> batch = new ArrayList<>(BATCH_SIZE);
+
+    private Scan(Map<String, FileLock> deadOwners, Executor executor, AtomicInteger deleted, AtomicBoolean failed) {
+      this.deadOwners = deadOwners;
+      this.executor = executor;
+      this.deleted = deleted;
+      this.failed = failed;
+    }
+
+    /**
+     * Scans the given directory.
+     *
+     * @param  bucketLevels  The number of levels of {@linkplain FanOut fan-out} buckets and stripes to descend into
+     */
+    private void scan(Path dir, int bucketLevels) throws IOException {
+      try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+        for (Path entry : entries) {
+          String name = entry.getFileName().toString();
+          String token = Housekeeping.parseOwnerToken(name);
+          if (token != null) {
+            if (deadOwners.containsKey(token)) {
+              batch.add(entry);
+              if (batch.size() == BATCH_SIZE) {
+                futures.add(deleteAsync(batch, executor, deleted, failed));
+                batch = new ArrayList<>(BATCH_SIZE);
+              }
+            }
+          } else if (bucketLevels > 0 && FanOut.isBucketName(name)) {
+            try {
+              scan(entry, bucketLevels - 1);
+            } catch (NoSuchFileException e) {
+              // Bucket concurrently removed once empty
+            }
+          }
+        }
+      }
+    }
+
+    /**
+     * Deletes the last batch and waits for all deletes to complete.
+     */
+    private void finish() {
+      if (!batch.isEmpty()) {
+        futures.add(deleteAsync(batch, executor, deleted, failed));
+        batch = new ArrayList<>(BATCH_SIZE);
+      }
+      // Does not complete exceptionally since delete catches all
+      for (CompletableFuture<Void> future : futures) {
+        future.join();
+      }
+    }
+  }
+
+  /**
+   * Locks the ownership markers of all JVMs that no longer exist.
+   *
+   * @return  the locks by owner token, possibly empty
+   */
+  @SuppressWarnings("resource")
+  private static Map<String, FileLock> lockDeadOwners(Path ownersDir) throws IOException {
+    Map<String, FileLock> deadOwners = new HashMap<>();
+    String ownToken = Housekeeping.getOwnerToken();
+    boolean success = false;
+    try {
+      try (DirectoryStream<Path> markers = Files.newDirectoryStream(ownersDir, "*" + Housekeeping.OWNER_MARKER_SUFFIX)) {
+        for (Path marker : markers) {
+          String name = marker.getFileName().toString();
+          String token = name.substring(0, name.length() - Housekeeping.OWNER_MARKER_SUFFIX.length());
+          if (!token.equals(ownToken)) {
+            FileChannel channel;
+            try {
+              channel = FileChannel.open(marker, StandardOpenOption.WRITE);
+            } catch (NoSuchFileException e) {
+              // Concurrently removed by another sweeper
+              continue;
+            }
+            FileLock lock;
+            try {
+              lock = channel.tryLock();
+            } catch (OverlappingFileLockException e) {
+              // Locked within this JVM, such as by a concurrent sweep
+              lock = null;
+            }
+            if (lock == null) {
+              // Owner still running
+              channel.close();
+            } else {
+              deadOwners.put(token, lock);
+            }
+          }
+        }
+      } catch (NoSuchFileException e) {
+        // No owners
+      }
+      success = true;
+      return deadOwners;
+    } finally {
+      if (!success) {
+        releaseDeadOwners(ownersDir, deadOwners, false);
+      }
+    }
+  }
+
+  /**
+   * Releases the locks on ownership markers of dead JVMs, optionally removing the markers.
+   */
+  private static void releaseDeadOwners(Path ownersDir, Map<String, FileLock> deadOwners, boolean remove) {
+    for (Map.Entry<String, FileLock> entry : deadOwners.entrySet()) {
+      Path marker = ownersDir.resolve(entry.getKey() + Housekeeping.OWNER_MARKER_SUFFIX);
+      try {
+        // Closing the channel releases the lock
+        entry.getValue().channel().close();
+        if (remove) {
+          Files.deleteIfExists(marker);
+        }
+      } catch (IOException e) {
+        if (logger.isLoggable(Level.WARNING)) {
+          logger.log(Level.WARNING, "Unable to release ownership marker: " + marker, e);
+        }
+      }
+    }
+  }
+
+  /**
+   * Deletes a batch of orphans on the given executor, running in the current thread when rejected.
+   */
+  @SuppressWarnings({"UseSpecificCatch", "TooBroadCatch"})
+  private static CompletableFuture<Void> deleteAsync(List<Path> batch, Executor executor, AtomicInteger deleted, AtomicBoolean failed) {
+    Runnable task = () -> {
+      for (Path orphan : batch) {
+        try {
+          Housekeeping.reapRecursive(orphan);
+          deleted.incrementAndGet();
+        } catch (Throwable t) {
+          failed.set(true);
+          if (logger.isLoggable(Level.WARNING)) {
+            logger.log(Level.WARNING, "Unable to delete orphan: " + orphan, t);
+          }
+        }
+      }
+    };
+    try {
+      return CompletableFuture.runAsync(task, executor);
+    } catch (RejectedExecutionException e) {
+      task.run();
+      return CompletableFuture.completedFuture(null);
+    }
+  }
+}
@@ -0,0 +1,202 @@
+/*
+ * ao-tempfiles - Java temporary file API filling-in JDK gaps and deficiencies.
+ * Copyright (C) 2026  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of ao-tempfiles.
+ *
+ * ao-tempfiles is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ao-tempfiles is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ao-tempfiles.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.aoapps.tempfiles;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Packs many small {@link TempBlob} into a few large backing files, one per size class.  Each backing file is divided
+ * into fixed-size slots, and is grown by whole extents as needed.  Slots of closed blobs are kept on a free list for
+ * reuse.
+ *
+ * <p>The backing files are regular, registered temporary files, so all blobs are released in a single operation per
+ * size class when the context is closed.  They are not anonymous, since the channel of an anonymous file cannot be
+ * opened again once closed by the interrupt of any thread accessing a blob, which would lose every blob of the size
+ * class.</p>
+ *
+ * <p>Thread-safe with fine-grained locking.</p>
+ */
+final class TempArena {
+
+  /**
+   * The size of the smallest slots.
+   */
+  static final int MIN_SLOT_SIZE = 4 * 1024;
+
+  /**
+   * The size of the largest slots, which is the maximum size of a blob.
+   */
+  static final int MAX_SLOT_SIZE = 1024 * 1024;
+
+  /**
+   * The number of bytes each backing file is grown by at a time, which is at least one slot.
+   */
+  private static final int EXTENT_SIZE = 1024 * 1024;
+
+  private static final String BACKING_PREFIX = "arena_";
+
+  /**
+   * The slots of a single size, within a single backing file.
+   */
+  final class SizeClass {
+
+    private final int slotSize;
+
+    private final Object lock = new Object();
+
+    /**
+     * The backing file, created when first needed.  Only changed while holding {@link #lock}, but read without it.
+     */
+    private volatile TempFile backing;
+
+    /**
+     * The end of the slots handed out so far.
+     */
+    private long allocated;
+
+    /**
+     * The length the backing file has been grown to.
+     */
+    private long length;
+
+    /**
+     * The offsets of the slots of closed blobs.
+     */
+    private final Queue<Long> free = new ConcurrentLinkedQueue<>();
+
+    private SizeClass(int slotSize) {
+      this.slotSize = slotSize;
+    }
+
+    int getSlotSize() {
+      return slotSize;
+    }
+
+    /**
+     * Gets the channel of the backing file, which is opened again when closed by an interrupt.  Must only be called
+     * once a slot has been {@linkplain #allocate() allocated}.
+     */
+    FileChannel getChannel() throws IOException {
+      return backing.getSharedChannel();
+    }
+
+    /**
+     * Allocates a slot, reusing a free slot when available.
+     *
+     * @return  the offset of the slot within the backing file
+     */
+    long allocate() throws IOException {
+      Long offset = free.poll();
+      if (offset != null) {
+        return offset;
+      }
+      synchronized (lock) {
+        if (backing == null) {
+          backing = context.createTempFile(BACKING_PREFIX, null);
+        }
+        if (allocated == length) {
+          long newLength = length + Math.max(slotSize, EXTENT_SIZE);
+          backing.checkGrowth(newLength);
+          // Extends the file, sparse where supported
+          ByteBuffer zero = ByteBuffer.allocate(1);
+          FileChannel channel = backing.getSharedChannel();
+          while (zero.hasRemaining()) {
+            channel.write(zero, newLength - 1);
+          }
+          length = newLength;
+          backing.grown(newLength);
+        }
+        long slot = allocated;
+        allocated += slotSize;
+        return slot;
+      }
+    }
+
+    /**
+     * Returns a slot to the free list.
+     */
+    void release(long offset) {
+      free.add(offset);
+    }
+  }
+
+  private final TempFileContext context;
+
+  /**
+   * The size classes, doubling from {@link #MIN_SLOT_SIZE} to {@link #MAX_SLOT_SIZE}.
+   */
+  private final SizeClass[] sizeClasses;
+
+  /**
+   * The number of open blobs.
+   */
+  private final AtomicInteger blobCount = new AtomicInteger();
+
+  TempArena(TempFileContext context) {
+    this.context = context;
+    int count = Integer.numberOfTrailingZeros(MAX_SLOT_SIZE / MIN_SLOT_SIZE) + 1;
+    sizeClasses = new SizeClass[count];
+    for (int i = 0; i < count; i++) {
+      sizeClasses[i] = new SizeClass(MIN_SLOT_SIZE << i);
+    }
+  }
+
+  /**
+   * Creates a new blob.
+   *
+   * @param  capacity  The expected number of bytes, from {@code 0} to {@link #MAX_SLOT_SIZE}
+   */
+  TempBlob createBlob(int capacity) throws IOException {
+    TempBlob blob = new TempBlob(this, capacity);
+    blobCount.incrementAndGet();
+    return blob;
+  }
+
+  void blobClosed() {
+    blobCount.decrementAndGet();
+  }
+
+  int getBlobCount() {
+    return blobCount.get();
+  }
+
+  /**
+   * Gets the smallest size class that holds the given number of bytes.
+   *
+   * @return  the size class or {@code null} when larger than {@link #MAX_SLOT_SIZE}
+   */
+  SizeClass getSizeClass(long size) {
+    for (SizeClass sizeClass : sizeClasses) {
+      if (size <= sizeClass.slotSize) {
+        return sizeClass;
+      }
+    }
+    return null;
+  }
+}
@@ -0,0 +1,330 @@
+/*
+ * ao-tempfiles - Java temporary file API filling-in JDK gaps and deficiencies.
+ * Copyright (C) 2026  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of ao-tempfiles.
+ *
+ * ao-tempfiles is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ao-tempfiles is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ao-tempfiles.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.aoapps.tempfiles;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+
+/**
+ * A small temporary blob of bytes, stored as a region of a large backing file shared with other blobs of its
+ * {@link TempFileContext}.  Creating and closing a blob does not touch the filesystem, other than occasionally growing
+ * a backing file, avoiding the create, registration, and delete of a {@link TempFile} for each.
+ *
+ * <p>A blob grows as written, moving to a larger region when needed, up to a maximum of {@code 1 MiB}.  Larger content
+ * should use a {@link TempFile}.</p>
+ *
+ * <p>Thread-safe with fine-grained locking.</p>
+ *
+ * @see  TempFileContext#createTempBlob()
+ */
+public final class TempBlob implements Closeable {
+
+  /**
+   * The maximum number of bytes in a blob.
+   */
+  public static final int MAX_SIZE = TempArena.MAX_SLOT_SIZE;
+
+  /**
+   * The size of the buffer used when moving to a larger region.
+   */
+  private static final int COPY_BUFFER_SIZE = 16 * 1024;
+
+  private final TempArena arena;
+
+  private final Object lock = new Object();
+
+  /**
+   * The size class of the current region, {@code null} once closed.
+   */
+  private TempArena.SizeClass sizeClass;
+
+  private long offset;
+
+  private long size;
+
+  /**
+   * @param  capacity  The expected number of bytes, used to choose the initial region
+   */
+  TempBlob(TempArena arena, int capacity) throws IOException {
+    this.arena = arena;
+    TempArena.SizeClass sc = arena.getSizeClass(capacity);
+    this.offset = sc.allocate();
+    this.sizeClass = sc;
+  }
+
+  /**
+   * Gets the number of bytes in this blob.
+   */
+  public long size() {
+    synchronized (lock) {
+      return size;
+    }
+  }
+
+  private TempArena.SizeClass getSizeClass() throws ClosedChannelException {
+    assert Thread.holdsLock(lock);
+    TempArena.SizeClass sc = sizeClass;
+    if (sc == null) {
+      throw new ClosedChannelException();
+    }
+    return sc;
+  }
+
+  /**
+   * Reads from the given position.
+   *
+   * @return  the number of bytes read or {@code -1} when at or beyond the end
+   */
+  private int read(long position, ByteBuffer dst) throws IOException {
+    synchronized (lock) {
+      TempArena.SizeClass sc = getSizeClass();
+      if (position >= size) {
+        return -1;
+      }
+      int limit = dst.limit();
+      long available = size - position;
+      if (dst.remaining() > available) {
+        dst.limit(dst.position() + (int) available);
+      }
+      try {
+        return sc.getChannel().read(dst, offset + position);
+      } finally {
+        dst.limit(limit);
+      }
+    }
+  }
+
+  /**
+   * Writes at the given position, moving to a larger region when needed.
+   */
+  private int write(long position, ByteBuffer src) throws IOException {
+    synchronized (lock) {
+      TempArena.SizeClass sc = getSizeClass();
+      int count = src.remaining();
+      long end = position + count;
+      if (end > sc.getSlotSize()) {
+        sc = grow(sc, end);
+      }
+      FileChannel channel = sc.getChannel();
+      long pos = offset + position;
+      while (src.hasRemaining()) {
+        pos += channel.write(src, pos);
+      }
+      if (position > size) {
+        // Clear any gap, which may contain stale bytes of a reused region
+        fill(channel, offset + size, position - size);
+      }
+      if (end > size) {
+        size = end;
+      }
+      return count;
+    }
+  }
+
+  private static void fill(FileChannel channel, long position, long count) throws IOException {
+    ByteBuffer zeros = ByteBuffer.allocate((int) Math.min(count, COPY_BUFFER_SIZE));
+    while (count > 0) {
+      zeros.clear();
+      if (zeros.remaining() > count) {
+        zeros.limit((int) count);
+      }
+      while (zeros.hasRemaining()) {
+        int written = channel.write(zeros, position);
+        position += written;
+        count -= written;
+      }
+    }
+  }
+
+  /**
+   * Moves the content to a region large enough for the given size.
+   *
+   * @return  the new size class
+   */
+  private TempArena.SizeClass grow(TempArena.SizeClass sc, long newSize) throws IOException {
+    assert Thread.holdsLock(lock);
+    TempArena.SizeClass newSizeClass = arena.getSizeClass(newSize);
+    if (newSizeClass == null) {
+      throw new IOException("TempBlob exceeds maximum size of " + MAX_SIZE + " bytes: " + newSize);
+    }
+    long newOffset = newSizeClass.allocate();
+    try {
+      FileChannel from = sc.getChannel();
+      FileChannel to = newSizeClass.getChannel();
+      ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(Math.max(size, 1), COPY_BUFFER_SIZE));
+      long copied = 0;
+      while (copied < size) {
+        buffer.clear();
+        if (buffer.remaining() > size - copied) {
+          buffer.limit((int) (size - copied));
+        }
+        int count = from.read(buffer, offset + copied);
+        if (count == -1) {
+          throw new IOException("Unexpected end of backing file");
+        }
+        buffer.flip();
+        long pos = newOffset + copied;
+        while (buffer.hasRemaining()) {
+          pos += to.write(buffer, pos);
+        }
+        copied += count;
+      }
+    } catch (IOException | RuntimeException | Error e) {
+      newSizeClass.release(newOffset);
+      throw e;
+    }
+    sc.release(offset);
+    sizeClass = newSizeClass;
+    offset = newOffset;
+    return newSizeClass;
+  }
+
+  private void truncate(long newSize) throws IOException {
+    synchronized (lock) {
+      getSizeClass();
+      if (newSize < size) {
+        size = newSize;
+      }
+    }
+  }
+
+  /**
+   * Opens a new read-write channel over this blob, starting at position zero.
+   */
+  public SeekableByteChannel newChannel() {
+    return new SeekableByteChannel() {
+      private long position;
+      private volatile boolean open = true;
+
+      private void checkOpen() throws ClosedChannelException {
+        if (!open) {
+          throw new ClosedChannelException();
+        }
+      }
+
+      @Override
+      public int read(ByteBuffer dst) throws IOException {
+        checkOpen();
+        int count = TempBlob.this.read(position, dst);
+        if (count > 0) {
+          position += count;
+        }
+        return count;
+      }
+
+      @Override
+      public int write(ByteBuffer src) throws IOException {
+        checkOpen();
+        int count = TempBlob.this.write(position, src);
+        position += count;
+        return count;
+      }
+
+      @Override
+      public long position() throws IOException {
+        checkOpen();
+        return position;
+      }
+
+      @Override
+      public SeekableByteChannel position(long newPosition) throws IOException {
+        checkOpen();
+        if (newPosition < 0) {
+          throw new IllegalArgumentException("newPosition < 0: " + newPosition);
+        }
+        position = newPosition;
+        return this;
+      }
+
+      @Override
+      public long size() throws IOException {
+        checkOpen();
+        return TempBlob.this.size();
+      }
+
+      @Override
+      public SeekableByteChannel truncate(long size) throws IOException {
+        checkOpen();
+        if (size < 0) {
+          throw new IllegalArgumentException("size < 0: " + size);
+        }
+        TempBlob.this.truncate(size);
+        if (position > size) {
+          position = size;
+        }
+        return this;
+      }
+
+      @Override
+      public boolean isOpen() {
+        return open;
+      }
+
+      @Override
+      public void close() {
+        open = false;
+      }
+    };
+  }
+
+  /**
+   * Opens a new output stream to this blob, truncating any existing content.
+   */
+  public OutputStream newOutputStream() throws IOException {
+    truncate(0);
+    return Channels.newOutputStream(newChannel());
+  }
+
+  /**
+   * Opens a new input stream from this blob.
+   */
+  public InputStream newInputStream() {
+    return Channels.newInputStream(newChannel());
+  }
+
+  /**
+   * Closes this blob, returning its region for reuse by other blobs.
+   *
+   * <p>If already closed, no action will be taken and no exception thrown.</p>
+   */
+  @Override
+  public void close() {
+    synchronized (lock) {
+      TempArena.SizeClass sc = sizeClass;
+      if (sc != null) {
+        sizeClass = null;
+        size = 0;
+        sc.release(offset);
+        arena.blobClosed();
+      }
+    }
+  }
+}
@@ -0,0 +1,471 @@
+/*
+ * ao-tempfiles - Java temporary file API filling-in JDK gaps and deficiencies.
+ * Copyright (C) 2026  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of ao-tempfiles.
+ *
+ * ao-tempfiles is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ao-tempfiles is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ao-tempfiles.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.aoapps.tempfiles;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A buffer of unknown size that is kept in memory while small and transparently spills to a {@link TempFile} of its
+ * {@link TempFileContext} once it grows beyond a threshold.  This suits buffering content such as upload or response
+ * bodies, where small payloads should never touch the disk and large payloads must not exhaust the heap.
+ *
+ * <p>Content is appended through {@link #getOutputStream()}, and may be read any number of times, concurrently, with
+ * {@link #newInputStream()} or {@link #newChannel()}.  Readers continue seamlessly when the buffer spills while they
+ * are reading.</p>
+ *
+ * <p>In memory, the content is held in fixed-size chunks reused through a pool of the context.  Once spilled, the
+ * chunks are returned to the pool and a single {@link FileChannel} is kept open to the temporary file until this
+ * buffer is closed.</p>
+ *
+ * <p>With a {@linkplain TempFileContext.Builder#memoryBudget(boolean) memory budget}, the threshold is lowered and the
+ * largest buffers are spilled early under heap pressure, while the threshold rises when the heap is idle.</p>
+ *
+ * <p>Thread-safe with fine-grained locking.</p>
+ *
+ * @see  TempFileContext#createTempBuffer()
+ */
+public final class TempBuffer implements Closeable {
+
+  /**
+   * The prefix of temporary files for spilled buffers.
+   */
+  private static final String SPILL_PREFIX = "buffer_";
+
+  private final TempFileContext context;
+  private final ChunkPool chunkPool;
+  private final long threshold;
+
+  /**
+   * Participates in the global {@link MemoryBudget} when {@code true}.
+   */
+  private final boolean memoryBudget;
+
+  /**
+   * Held while appending, spilling, or closing, so the temporary file is created and written without holding
+   * {@link #lock}.  The fields below are only changed while holding both locks, so may be read while holding either.
+   */
+  private final Object appendLock = new Object();
+
+  /**
+   * Held briefly by readers and while changing the fields below.  Acquired after {@link #appendLock}.
+   */
+  private final Object lock = new Object();
+
+  /**
+   * The in-memory chunks, {@code null} once spilled or closed.
+   */
+  private List<byte[]> chunks = new ArrayList<>();
+
+  private long size;
+
+  /**
+   * The temporary file once spilled.  Accessed by position through the temporary file for each read and write, since
+   * a {@linkplain TempFileContext.Builder#ramTier(java.io.File, long) tiered} file may move to the disk tier as it
+   * grows.
+   */
+  private TempFile spillFile;
+
+  private boolean closed;
+
+  private final OutputStream out = new OutputStream() {
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      if (off < 0 || len < 0 || off + len > b.length || off + len < 0) {
+        throw new IndexOutOfBoundsException();
+      }
+      append(ByteBuffer.wrap(b, off, len));
+    }
+  };
+
+  TempBuffer(TempFileContext context, ChunkPool chunkPool, long threshold, boolean memoryBudget) {
+    this.context = context;
+    this.chunkPool = chunkPool;
+    this.threshold = threshold;
+    this.memoryBudget = memoryBudget;
+  }
+
+  TempFileContext getContext() {
+    return context;
+  }
+
+  /**
+   * Gets the stream that appends to this buffer.  Closing the stream has no effect; the buffer remains readable until
+   * {@linkplain #close() closed}.
+   */
+  public OutputStream getOutputStream() {
+    return out;
+  }
+
+  /**
+   * Gets the number of bytes in this buffer.
+   */
+  public long size() {
+    synchronized (lock) {
+      return size;
+    }
+  }
+
+  /**
+   * Checks if this buffer has spilled to a temporary file.
+   */
+  public boolean isSpilled() {
+    synchronized (lock) {
+      return spillFile != null;
+    }
+  }
+
+  /**
+   * Gets the number of bytes held in memory, which is zero once spilled.
+   */
+  long getMemorySize() {
+    synchronized (lock) {
+      return (chunks == null) ? 0 : size;
+    }
+  }
+
+  /**
+   * Moves the content to a temporary file now, if not already spilled.  All further content is appended to the
+   * temporary file.
+   *
+   * @throws  IOException  when already closed or unable to create or write the temporary file
+   */
+  public void spill() throws IOException {
+    synchronized (appendLock) {
+      checkNotClosed();
+      if (spillFile == null) {
+        doSpill();
+      }
+    }
+  }
+
+  /**
+   * Spills on behalf of the {@link MemoryBudget}, if still in memory.
+   *
+   * @return  {@code true} when spilled by this call
+   */
+  boolean forceSpill() throws IOException {
+    synchronized (appendLock) {
+      if (closed || spillFile != null) {
+        return false;
+      }
+      doSpill();
+    }
+    context.recordTempBufferForcedSpill();
+    return true;
+  }
+
+  private void checkNotClosed() throws IOException {
+    if (closed) {
+      throw new IOException("TempBuffer closed");
+    }
+  }
+
+  /**
+   * Spills to a new temporary file while holding {@link #appendLock}.  Readers continue from memory until the copy is
+   * complete.
+   */
+  private void doSpill() throws IOException {
+    assert Thread.holdsLock(appendLock) && !Thread.holdsLock(lock);
+    TempFile file = context.createTempFile(SPILL_PREFIX, null, size);
+    try {
+      file.checkGrowth(size);
+      long position = 0;
+      for (byte[] chunk : chunks) {
+        int len = (int) Math.min(size - position, chunk.length);
+        file.write(ByteBuffer.wrap(chunk, 0, len), position);
+        position += len;
+      }
+      assert position == size;
+    } catch (IOException | RuntimeException | Error e) {
+      try {
+        file.close();
+      } catch (IOException e2) {
+        e.addSuppressed(e2);
+      }
+      throw e;
+    }
+    synchronized (lock) {
+      spillFile = file;
+      releaseChunks();
+    }
+    context.recordTempBufferSpill();
+  }
+
+  private void releaseChunks() {
+    assert Thread.holdsLock(appendLock) && Thread.holdsLock(lock);
+    for (byte[] chunk : chunks) {
+      chunkPool.release(chunk);
+    }
+    chunks = null;
+    if (memoryBudget) {
+      MemoryBudget.unregister(this);
+    }
+  }
+
+  /**
+   * Appends to the end of this buffer, spilling once the threshold is exceeded.
+   */
+  private void append(ByteBuffer src) throws IOException {
+    synchronized (appendLock) {
+      checkNotClosed();
+      if (
+          spillFile == null
+              && size + src.remaining() > (memoryBudget ? MemoryBudget.scaleThreshold(threshold) : threshold)
+      ) {
+        doSpill();
+      }
+      if (spillFile != null) {
+        // Written without holding the lock, readers only see the new bytes once the size is updated
+        int count = src.remaining();
+        spillFile.write(src, size);
+        synchronized (lock) {
+          size += count;
+        }
+        return;
+      }
+      synchronized (lock) {
+        while (src.hasRemaining()) {
+          int chunkIndex = (int) (size / ChunkPool.CHUNK_SIZE);
+          int chunkOffset = (int) (size % ChunkPool.CHUNK_SIZE);
+          if (chunkIndex == chunks.size()) {
+            if (chunkIndex == 0 && memoryBudget) {
+              MemoryBudget.register(this);
+            }
+            chunks.add(chunkPool.take());
+          }
+          int len = Math.min(src.remaining(), ChunkPool.CHUNK_SIZE - chunkOffset);
+          src.get(chunks.get(chunkIndex), chunkOffset, len);
+          size += len;
+        }
+      }
+    }
+  }
+
+  /**
+   * Reads from the given position.
+   *
+   * @return  the number of bytes read or {@code -1} when at or beyond the end
+   */
+  private int read(long position, ByteBuffer dst) throws IOException {
+    TempFile file;
+    long end;
+    synchronized (lock) {
+      checkNotClosed();
+      if (position >= size) {
+        return -1;
+      }
+      file = spillFile;
+      end = size;
+      if (file == null) {
+        return readChunks(position, dst);
+      }
+    }
+    // Read without holding the lock, so appends and other readers are not blocked by disk I/O
+    int limit = dst.limit();
+    long available = end - position;
+    if (dst.remaining() > available) {
+      dst.limit(dst.position() + (int) available);
+    }
+    try {
+      return file.read(dst, position);
+    } catch (IllegalStateException e) {
+      throw new IOException("TempBuffer closed", e);
+    } finally {
+      dst.limit(limit);
+    }
+  }
+
+  /**
+   * Reads from the in-memory chunks.
+   */
+  private int readChunks(long position, ByteBuffer dst) {
+    assert Thread.holdsLock(lock);
+    int count = 0;
+    while (dst.hasRemaining() && position < size) {
+      int chunkIndex = (int) (position / ChunkPool.CHUNK_SIZE);
+      int chunkOffset = (int) (position % ChunkPool.CHUNK_SIZE);
+      int len = (int) Math.min(Math.min(dst.remaining(), ChunkPool.CHUNK_SIZE - chunkOffset), size - position);
+      dst.put(chunks.get(chunkIndex), chunkOffset, len);
+      position += len;
+      count += len;
+    }
+    return count;
+  }
+
+  /**
+   * Opens a new input stream that reads this buffer from the beginning.
+   */
+  public InputStream newInputStream() {
+    return new InputStream() {
+      private long position;
+
+      @Override
+      public int read() throws IOException {
+        byte[] b = new byte[1];
+        return (read(b, 0, 1) == -1) ? -1 : (b[0] & 0xff);
+      }
+
+      @Override
+      public int read(byte[] b, int off, int len) throws IOException {
+        if (off < 0 || len < 0 || off + len > b.length || off + len < 0) {
+          throw new IndexOutOfBoundsException();
+        }
+        if (len == 0) {
+          return 0;
+        }
+        int count = TempBuffer.this.read(position, ByteBuffer.wrap(b, off, len));
+        if (count > 0) {
+          position += count;
+        }
+        return count;
+      }
+
+      @Override
+      public long skip(long n) {
+        if (n <= 0) {
+          return 0;
+        }
+        long skipped = Math.min(n, Math.max(0, size() - position));
+        position += skipped;
+        return skipped;
+      }
+
+      @Override
+      public int available() {
+        return (int) Math.min(Integer.MAX_VALUE, Math.max(0, size() - position));
+      }
+    };
+  }
+
+  /**
+   * Opens a new read-only channel over this buffer, starting at position zero.  The channel supports random access.
+   */
+  public SeekableByteChannel newChannel() {
+    return new SeekableByteChannel() {
+      private long position;
+      private volatile boolean open = true;
+
+      private void checkOpen() throws ClosedChannelException {
+        if (!open) {
+          throw new ClosedChannelException();
+        }
+      }
+
+      @Override
+      public int read(ByteBuffer dst) throws IOException {
+        checkOpen();
+        int count = TempBuffer.this.read(position, dst);
+        if (count > 0) {
+          position += count;
+        }
+        return count;
+      }
+
+      @Override
+      public int write(ByteBuffer src) {
+        throw new NonWritableChannelException();
+      }
+
+      @Override
+      public long position() throws IOException {
+        checkOpen();
+        return position;
+      }
+
+      @Override
+      public SeekableByteChannel position(long newPosition) throws IOException {
+        checkOpen();
+        if (newPosition < 0) {
+          throw new IllegalArgumentException("newPosition < 0: " + newPosition);
+        }
+        position = newPosition;
+        return this;
+      }
+
+      @Override
+      public long size() throws IOException {
+        checkOpen();
+        return TempBuffer.this.size();
+      }
+
+      @Override
+      public SeekableByteChannel truncate(long size) {
+        throw new NonWritableChannelException();
+      }
+
+      @Override
+      public boolean isOpen() {
+        return open;
+      }
+
+      @Override
+      public void close() {
+        open = false;
+      }
+    };
+  }
+
+  /**
+   * Closes this buffer, returning its memory to the pool or deleting its temporary file.
+   *
+   * <p>If already closed, no action will be taken and no exception thrown.</p>
+   */
+  @Override
+  public void close() throws IOException {
+    TempFile file;
+    synchronized (appendLock) {
+      synchronized (lock) {
+        if (closed) {
+          return;
+        }
+        closed = true;
+        file = spillFile;
+        spillFile = null;
+        if (chunks != null) {
+          releaseChunks();
+          context.recordTempBufferInMemory();
+        }
+      }
+    }
+    if (file != null) {
+      // Also closes the shared channel
+      file.close();
+    }
+  }
+}
@@ -0,0 +1,52 @@
+/*
+ * ao-tempfiles - Java temporary file API filling-in JDK gaps and deficiencies.
+ * Copyright (C) 2026  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of ao-tempfiles.
+ *
+ * ao-tempfiles is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ao-tempfiles is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ao-tempfiles.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package com.aoapps.tempfiles;
+
+/**
+ * Chooses which of the {@linkplain TempFileContext.Builder#tmpDirs(java.io.File...) temporary directories} of a
+ * {@link TempFileContext} each new temporary file is placed in.
+ */
+public enum TempDirPolicy {
+
+  /**
+   * Places new temporary files in each directory in turn.
+   */
+  ROUND_ROBIN,
+
+  /**
+   * Places new temporary files in the directory with the fewest bytes used by the open temporary files of the context.
+   *
+   * @see  TempDirStats#getDiskUsage()
+   */
+  LEAST_USED,
+
+  /**
+   * Places new temporary files in the directory with the most usable space, as cached and refreshed in the background
+   * at most once per second.
+   *
+   * @see  TempDirStats#getUsableSpace()
+   */
+  MOST_FREE
+}
@@ -0,0 +1,142 @@
+/*
+ * ao-tempfiles - Java temporary file API filling-in JDK gaps and deficiencies.
+ * Copyright (C) 2026  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of ao-tempfiles.
+ *
+ * ao-tempfiles is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ao-tempfiles is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ao-tempfiles.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package com.aoapps.tempfiles;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The statistics of a single temporary directory of a {@link TempFileContext}.  These are live counters, updated as
+ * temporary files are created and accessed.  Throughput is measured by sampling the byte counters over time.
+ *
+ * <p>Bytes are counted as they are written and read through the streams and channels of {@link TempFile}.  Access
+ * through {@linkplain TempFile#map(java.nio.channels.FileChannel.MapMode, long) mappings} or directly through
+ * {@link TempFile#getFile()} is not counted.</p>
+ *
+ * <p>Thread-safe with fine-grained locking.</p>
+ *
+ * @see  TempFileContext#getTempDirStats()
+ */
+public final class TempDirStats {
+
+  private final File dir;
+
+  /**
+   * The usable space of the directory or {@code null} when not checked.
+   */
+  private final FreeSpace freeSpace;
+
+  private final LongAdder fileCount = new LongAdder();
+  private final AtomicLong diskUsage = new AtomicLong();
+  private final LongAdder bytesWritten = new LongAdder();
+  private final LongAdder bytesRead = new LongAdder();
+
+  /**
+   * @param  dir  The directory or {@code null} when the system temporary directory is unknown
+   * @param  freeSpace  The usable space of the directory or {@code null} when not checked
+   */
+  TempDirStats(File dir, FreeSpace freeSpace) {
+    this.dir = dir;
+    this.freeSpace = freeSpace;
+  }
+
+  /**
+   * Gets the directory.
+   *
+   * @return  the directory or {@code null} when the system temporary directory is unknown
+   */
+  public File getDir() {
+    return dir;
+  }
+
+  /**
+   * Gets the number of temporary files and directories placed in this directory.
+   */
+  public long getFileCount() {
+    return fileCount.sum();
+  }
+
+  /**
+   * Gets the number of bytes in the open temporary files of this directory.
+   *
+   * @see  TempFileContext#getDiskUsage()
+   */
+  public long getDiskUsage() {
+    return diskUsage.get();
+  }
+
+  /**
+   * Gets the total number of bytes written to the temporary files of this directory.
+   */
+  public long getBytesWritten() {
+    return bytesWritten.sum();
+  }
+
+  /**
+   * Gets the total number of bytes read from the temporary files of this directory.
+   */
+  public long getBytesRead() {
+    return bytesRead.sum();
+  }
+
+  /**
+   * Gets the usable space of this directory, as cached for the
+   * {@linkplain TempFileContext.Builder#minFreeSpace(long) minimum free space} check or the
+   * {@link TempDirPolicy#MOST_FREE} policy.
+   *
+   * @return  the usable space in bytes or {@link Long#MAX_VALUE} when unknown or not checked
+   */
+  public long getUsableSpace() {
+    return (freeSpace == null) ? FreeSpace.UNKNOWN : freeSpace.getUsableSpace();
+  }
+
+  @Override
+  public String toString() {
+    return String.valueOf(dir);
+  }
+
+  void recordFile() {
+    fileCount.increment();
+  }
+
+  void addDiskUsage(long delta) {
+    if (delta != 0) {
+      diskUsage.addAndGet(delta);
+    }
+  }
+
+  void recordWrite(long count) {
+    if (count > 0) {
+      bytesWritten.add(count);
+    }
+  }
+
+  void recordRead(long count) {
+    if (count > 0) {
+      bytesRead.add(count);
+    }
+  }
+}
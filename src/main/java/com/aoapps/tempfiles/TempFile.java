@@ -1,6 +1,6 @@
 /*
  * ao-tempfiles - Java temporary file API filling-in JDK gaps and deficiencies.
- * Copyright (C) 2017, 2019, 2021, 2022, 2024  AO Industries, Inc.
+ * Copyright (C) 2017, 2019, 2021, 2022, 2024, 2026  AO Industries, Inc.
  *     support@aoindustries.com
  *     7262 Bull Pen Cir
  *     Mobile, AL 36695
@@ -26,38 +26,178 @@ package com.aoapps.tempfiles;
 import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.LinkOption;
 import java.nio.file.Path;
 import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * A temporary file that is deleted when {@link #close() closed} or when its
  * associated {@link TempFileContext} is {@link TempFileContext#close() closed}.
  *
+ * <p>An {@linkplain #isAnonymous() anonymous} temporary file has no name and is accessed only through its channel and
+ * streams.</p>
+ *
  * <p>Thread-safe with fine-grained locking.</p>
  */
 public class TempFile implements Closeable {
 
   private final Long contextId;
+  private final File tmpDir;
   private final AtomicReference<File> file;
   private final boolean isDirectory;
+  private final boolean trash;
+  private final AtomicInteger unregisteredCount;
+  private final Path bucketRoot;
+
+  /**
+   * The open anonymous files of the context, containing this file, or {@code null} when this file has a name.
+   */
+  private final Set<TempFile> anonymousFiles;
 
-  TempFile(Long contextId, File file, boolean isDirectory) {
+  /**
+   * The pool of buffers for streams or {@code null} to use the streams of the JDK.
+   */
+  private final DirectBufferPool bufferPool;
+
+  /**
+   * The disk usage of the context or {@code null} when not counted.
+   */
+  private final DiskUsage usage;
+
+  /**
+   * The statistics of the directory containing this file or {@code null} when not counted.
+   */
+  private final TempDirStats dirStats;
+
+  private final Object lock = new Object();
+
+  /**
+   * The number of bytes of this file counted in the disk usage of the context.
+   */
+  private long counted;
+
+  /**
+   * Set once the file has been exposed by {@link #getFile()} and its size is sampled.
+   */
+  private volatile boolean external;
+
+  /**
+   * The mappings not yet closed, created when first needed.
+   */
+  private List<TempFileMapping> mappings;
+
+  /**
+   * The channel shared by all {@linkplain #newChannel() channel views}, opened when first needed.  Only changed while
+   * holding {@link #lock}, but read without it.
+   */
+  private volatile FileChannel channel;
+
+  /**
+   * @param  tmpDir  The temporary directory the file was created in or {@code null} when unknown
+   * @param  trash  Move directories into the trash of {@code tmpDir} on close instead of deleting recursively
+   * @param  unregisteredCount  The number of open files of the context not individually registered for delete on
+   *                            exit, decremented on close, or {@code null} when this file is registered
+   * @param  bucketRoot  The root of the {@linkplain FanOut fan-out} buckets containing the file or {@code null} when
+   *                     not in a bucket
+   * @param  bufferPool  The pool of buffers for streams or {@code null} to use the streams of the JDK
+   * @param  usage  The disk usage of the context or {@code null} when not counted
+   * @param  dirStats  The statistics of the directory containing the file or {@code null} when not counted
+   */
+  TempFile(Long contextId, File tmpDir, File file, boolean isDirectory, boolean trash, AtomicInteger unregisteredCount, Path bucketRoot, DirectBufferPool bufferPool, DiskUsage usage, TempDirStats dirStats) {
+    this(contextId, tmpDir, file, isDirectory, trash, unregisteredCount, bucketRoot, null, null, bufferPool, usage, dirStats);
+  }
+
+  /**
+   * Creates an anonymous temporary file, which is accessed only through the given channel.
+   *
+   * @param  file  The former name of the file, already removed
+   * @param  anonymousFiles  The open anonymous files of the context, which this file removes itself from on close
+   * @param  channel  The only channel to the file, closed on close
+   * @param  bufferPool  The pool of buffers for streams or {@code null} to use the streams of the JDK
+   * @param  usage  The disk usage of the context
+   * @param  dirStats  The statistics of the directory the file was created in
+   */
+  TempFile(Long contextId, File file, Set<TempFile> anonymousFiles, FileChannel channel, DirectBufferPool bufferPool, DiskUsage usage, TempDirStats dirStats) {
+    this(contextId, null, file, false, false, null, null, anonymousFiles, channel, bufferPool, usage, dirStats);
+  }
+
+  private TempFile(Long contextId, File tmpDir, File file, boolean isDirectory, boolean trash, AtomicInteger unregisteredCount, Path bucketRoot, Set<TempFile> anonymousFiles, FileChannel channel, DirectBufferPool bufferPool, DiskUsage usage, TempDirStats dirStats) {
     this.contextId = contextId;
+    this.tmpDir = tmpDir;
     this.file = new AtomicReference<>(file);
     this.isDirectory = isDirectory;
+    this.trash = trash;
+    this.unregisteredCount = unregisteredCount;
+    this.bucketRoot = bucketRoot;
+    this.anonymousFiles = anonymousFiles;
+    this.channel = channel;
+    this.bufferPool = bufferPool;
+    this.usage = usage;
+    this.dirStats = dirStats;
+  }
+
+  /**
+   * Checks if this is an anonymous temporary file, which has no name.
+   *
+   * @see  TempFileContext#createAnonymousTempFile(java.lang.String, java.lang.String)
+   */
+  public boolean isAnonymous() {
+    return anonymousFiles != null;
   }
 
   /**
    * Gets the temporary file.
    *
+   * <p>When the context has a {@linkplain TempFileContext.Builder#softQuota(long) soft} or
+   * {@linkplain TempFileContext.Builder#hardQuota(long) hard} quota, content written to the file directly, instead of
+   * through the streams and channels of this temporary file, is counted in the
+   * {@linkplain TempFileContext#getDiskUsage() disk usage} of the context by periodically sampling the size of the
+   * file in the background.  The content of directories is not counted.</p>
+   *
    * @throws  IllegalStateException  when already closed
+   * @throws  UnsupportedOperationException  when {@linkplain #isAnonymous() anonymous}
+   * @throws  UncheckedIOException  when {@linkplain TempFileContext#createLazyTempFile(java.lang.String, java.lang.String) lazy}
+   *                                and unable to create the underlying file
    */
-  public File getFile() throws IllegalStateException {
+  public File getFile() throws IllegalStateException, UnsupportedOperationException, UncheckedIOException {
+    if (anonymousFiles != null) {
+      throw new UnsupportedOperationException("Anonymous temp file has no name");
+    }
+    File f = getOpenFile();
+    if (usage != null && !external && !isDirectory && usage.isSampled()) {
+      external = true;
+      usage.addExternal(this);
+    }
+    return f;
+  }
+
+  /**
+   * Gets the file, even when anonymous.
+   *
+   * @throws  IllegalStateException  when already closed
+   */
+  private File getOpenFile() throws IllegalStateException {
     File f = file.get();
     if (f == null) {
       throw new IllegalStateException("Temp file closed");
@@ -65,6 +205,637 @@ public class TempFile implements Closeable {
     return f;
   }
 
+  /**
+   * Checks that the file may grow to the given size within the hard quota of the context.  A
+   * {@linkplain TieredTempFile tiered} file may first move to the disk tier.
+   *
+   * @throws  TempFileQuotaExceededException  when the hard quota would be exceeded
+   */
+  void checkGrowth(long size) throws IOException {
+    if (usage != null) {
+      long growth;
+      synchronized (lock) {
+        growth = size - counted;
+      }
+      usage.checkGrowth(growth);
+    }
+  }
+
+  /**
+   * Counts the file as having grown to at least the given size.
+   */
+  void grown(long size) {
+    if (usage != null) {
+      long growth;
+      synchronized (lock) {
+        if (size <= counted || file.get() == null) {
+          return;
+        }
+        growth = size - counted;
+        counted = size;
+      }
+      addUsed(growth);
+    }
+  }
+
+  /**
+   * Counts the file as having been truncated to at most the given size.
+   */
+  void truncated(long size) {
+    if (usage != null) {
+      long shrink;
+      synchronized (lock) {
+        if (size >= counted) {
+          return;
+        }
+        shrink = counted - size;
+        counted = size;
+      }
+      addUsed(-shrink);
+    }
+  }
+
+  /**
+   * Gets the number of bytes of this file counted in the disk usage of the context.
+   */
+  long getCountedSize() {
+    synchronized (lock) {
+      return counted;
+    }
+  }
+
+  /**
+   * Gets the number of bytes that may be written at the given position within the hard quota of the context.
+   *
+   * @return  the number of bytes or {@link Long#MAX_VALUE} when there is no hard quota
+   */
+  private long getWritable(long position) {
+    long remaining = (usage == null) ? Long.MAX_VALUE : usage.getRemaining();
+    if (remaining == Long.MAX_VALUE) {
+      return remaining;
+    }
+    synchronized (lock) {
+      return Math.max(0, counted - position) + remaining;
+    }
+  }
+
+  /**
+   * Counts the size of the file as written externally.
+   */
+  void sampleSize() {
+    File f = file.get();
+    if (f == null) {
+      return;
+    }
+    // Not read while holding the lock, which is used by every write
+    long size = f.length();
+    long delta;
+    synchronized (lock) {
+      if (file.get() == null) {
+        return;
+      }
+      delta = size - counted;
+      counted = size;
+    }
+    addUsed(delta);
+  }
+
+  private void addUsed(long delta) {
+    usage.add(delta);
+    if (dirStats != null) {
+      dirStats.addDiskUsage(delta);
+    }
+  }
+
+  /**
+   * Counts bytes written in the statistics of the directory.
+   */
+  void recordWrite(long count) {
+    if (dirStats != null) {
+      dirStats.recordWrite(count);
+    }
+  }
+
+  /**
+   * Counts bytes read in the statistics of the directory.
+   */
+  void recordRead(long count) {
+    if (dirStats != null) {
+      dirStats.recordRead(count);
+    }
+  }
+
+  /**
+   * Opens a new output stream to the temporary file, truncating any existing content.
+   *
+   * @throws  IllegalStateException  when already closed
+   * @throws  TempFileQuotaExceededException  when a write would exceed the
+   *                                          {@linkplain TempFileContext.Builder#hardQuota(long) hard quota} of the
+   *                                          context
+   */
+  public OutputStream newOutputStream() throws IllegalStateException, IOException {
+    if (anonymousFiles != null) {
+      getSharedChannel().truncate(0);
+      truncated(0);
+      ChannelView view = new ChannelView();
+      return (bufferPool == null) ? Channels.newOutputStream(view) : bufferPool.newOutputStream(view);
+    }
+    FileChannel ch = FileChannel.open(getOpenFile().toPath(), StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    truncated(0);
+    CountingChannel counting = new CountingChannel(ch);
+    return (bufferPool == null) ? Channels.newOutputStream(counting) : bufferPool.newOutputStream(counting);
+  }
+
+  /**
+   * Counts the bytes written to a channel of its own, which is written sequentially from the beginning of the file.
+   */
+  private class CountingChannel implements WritableByteChannel {
+
+    private final FileChannel channel;
+    private long position;
+
+    private CountingChannel(FileChannel channel) {
+      this.channel = channel;
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+      checkGrowth(position + src.remaining());
+      int count = channel.write(src);
+      position += count;
+      grown(position);
+      recordWrite(count);
+      return count;
+    }
+
+    @Override
+    public boolean isOpen() {
+      return channel.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+      channel.close();
+    }
+  }
+
+  /**
+   * Opens a new input stream from the temporary file.
+   *
+   * @throws  IllegalStateException  when already closed
+   */
+  public InputStream newInputStream() throws IllegalStateException, IOException {
+    if (anonymousFiles != null) {
+      getSharedChannel();
+      ChannelView view = new ChannelView();
+      return (bufferPool == null) ? Channels.newInputStream(view) : bufferPool.newInputStream(view);
+    }
+    CountingReadChannel counting = new CountingReadChannel(FileChannel.open(getOpenFile().toPath(), StandardOpenOption.READ));
+    return (bufferPool == null) ? Channels.newInputStream(counting) : bufferPool.newInputStream(counting);
+  }
+
+  /**
+   * Counts the bytes read from a channel of its own.
+   */
+  private class CountingReadChannel implements ReadableByteChannel {
+
+    private final FileChannel channel;
+
+    private CountingReadChannel(FileChannel channel) {
+      this.channel = channel;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+      int count = channel.read(dst);
+      recordRead(count);
+      return count;
+    }
+
+    @Override
+    public boolean isOpen() {
+      return channel.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+      channel.close();
+    }
+  }
+
+  /**
+   * Gets the channel kept open for the life of this temporary file, opening it when first needed or when closed by an
+   * interrupt.  The channel must not be closed by the caller.
+   *
+   * @throws  IllegalStateException  when already closed
+   * @throws  ClosedChannelException  when anonymous and the channel has been closed by an interrupt, since the file
+   *                                  cannot be opened again
+   */
+  FileChannel getSharedChannel() throws IllegalStateException, IOException {
+    FileChannel open = channel;
+    if (open != null && open.isOpen() && file.get() != null) {
+      // Already open, without serializing all I/O on the lock
+      return open;
+    }
+    synchronized (lock) {
+      File f = getOpenFile();
+      FileChannel ch = channel;
+      if (anonymousFiles != null) {
+        if (!ch.isOpen()) {
+          throw new ClosedChannelException();
+        }
+      } else if (ch == null || !ch.isOpen()) {
+        ch = FileChannel.open(f.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        channel = ch;
+      }
+      return ch;
+    }
+  }
+
+  /**
+   * Reads from the given position of the shared channel, counting the bytes read.  A heap buffer is read through a
+   * buffer of the {@linkplain TempFileContext.Builder#directBufferPool(int) direct buffer pool}, when enabled, so
+   * reads at most one pooled buffer at a time.
+   *
+   * @return  the number of bytes read or {@code -1} when at or beyond the end
+   *
+   * @throws  IllegalStateException  when already closed
+   */
+  int read(ByteBuffer dst, long position) throws IllegalStateException, IOException {
+    FileChannel ch = getSharedChannel();
+    int count;
+    if (bufferPool == null || dst.isDirect()) {
+      count = ch.read(dst, position);
+    } else {
+      ByteBuffer buf = bufferPool.take();
+      try {
+        if (dst.remaining() < buf.remaining()) {
+          buf.limit(dst.remaining());
+        }
+        count = ch.read(buf, position);
+        buf.flip();
+        dst.put(buf);
+      } finally {
+        bufferPool.release(buf);
+      }
+    }
+    if (count > 0) {
+      recordRead(count);
+    }
+    return count;
+  }
+
+  /**
+   * Writes all bytes at the given position of the shared channel, within the hard quota of the context, counting the
+   * bytes written.  A heap buffer is written through a buffer of the
+   * {@linkplain TempFileContext.Builder#directBufferPool(int) direct buffer pool}, when enabled.
+   *
+   * @throws  IllegalStateException  when already closed
+   * @throws  TempFileQuotaExceededException  when the hard quota would be exceeded
+   */
+  void write(ByteBuffer src, long position) throws IllegalStateException, IOException {
+    FileChannel ch = getSharedChannel();
+    int count = src.remaining();
+    long end = position + count;
+    checkGrowth(end);
+    if (bufferPool == null || src.isDirect()) {
+      while (src.hasRemaining()) {
+        position += ch.write(src, position);
+      }
+    } else {
+      ByteBuffer buf = bufferPool.take();
+      try {
+        while (src.hasRemaining()) {
+          buf.clear();
+          int len = Math.min(src.remaining(), buf.remaining());
+          ByteBuffer part = src.duplicate();
+          part.limit(part.position() + len);
+          buf.put(part);
+          src.position(src.position() + len);
+          buf.flip();
+          while (buf.hasRemaining()) {
+            position += ch.write(buf, position);
+          }
+        }
+      } finally {
+        bufferPool.release(buf);
+      }
+    }
+    grown(end);
+    recordWrite(count);
+  }
+
+  /**
+   * Opens a new read-write view of the temporary file, with its own position starting at zero.  All views share a
+   * single {@link FileChannel} that is opened once and kept open until this temporary file is closed, avoiding the
+   * cost of opening the file on each access.  Closing a view does not close the shared channel.
+   *
+   * <p>Writes that would exceed the {@linkplain TempFileContext.Builder#hardQuota(long) hard quota} of the context
+   * throw {@link TempFileQuotaExceededException}.</p>
+   *
+   * @throws  IllegalStateException  when already closed
+   *
+   * @see  TempFileContext#createOpenTempFile(java.lang.String, java.lang.String)
+   */
+  public SeekableByteChannel newChannel() throws IllegalStateException, IOException {
+    getSharedChannel();
+    return new ChannelView();
+  }
+
+  /**
+   * A view of the shared channel with its own position.
+   */
+  private class ChannelView implements SeekableByteChannel {
+
+    private long position;
+    private volatile boolean open = true;
+
+    private FileChannel getChannel() throws IOException {
+      if (!open) {
+        throw new ClosedChannelException();
+      }
+      try {
+        return getSharedChannel();
+      } catch (IllegalStateException e) {
+        throw new ClosedChannelException();
+      }
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+      getChannel();
+      int count;
+      try {
+        count = TempFile.this.read(dst, position);
+      } catch (IllegalStateException e) {
+        throw new ClosedChannelException();
+      }
+      if (count > 0) {
+        position += count;
+      }
+      return count;
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+      getChannel();
+      int count = src.remaining();
+      try {
+        TempFile.this.write(src, position);
+      } catch (IllegalStateException e) {
+        throw new ClosedChannelException();
+      }
+      position += count;
+      return count;
+    }
+
+    @Override
+    public long position() throws IOException {
+      getChannel();
+      return position;
+    }
+
+    @Override
+    public SeekableByteChannel position(long newPosition) throws IOException {
+      if (newPosition < 0) {
+        throw new IllegalArgumentException("newPosition < 0: " + newPosition);
+      }
+      getChannel();
+      position = newPosition;
+      return this;
+    }
+
+    @Override
+    public long size() throws IOException {
+      return getChannel().size();
+    }
+
+    @Override
+    public SeekableByteChannel truncate(long size) throws IOException {
+      getChannel().truncate(size);
+      truncated(size);
+      if (position > size) {
+        position = size;
+      }
+      return this;
+    }
+
+    @Override
+    public boolean isOpen() {
+      return open;
+    }
+
+    @Override
+    public void close() {
+      open = false;
+    }
+  }
+
+  /**
+   * Transfers the entire temporary file to the given channel.
+   *
+   * @see  #transferTo(java.nio.channels.WritableByteChannel, long)
+   */
+  public long transferTo(WritableByteChannel target) throws IllegalStateException, IOException {
+    return transferTo(target, Long.MAX_VALUE);
+  }
+
+  /**
+   * Transfers the temporary file, from its beginning, to the given channel.  Uses
+   * {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)} on the
+   * {@linkplain #newChannel() shared channel}, which allows the operating system to copy without passing through the
+   * heap, such as with {@code sendfile} or {@code copy_file_range} on Linux.
+   *
+   * <p>Partial transfers are continued until done.  When the target is in non-blocking mode, stops once the target
+   * accepts no more bytes, and the returned count may be less than requested.</p>
+   *
+   * @param  limit  The maximum number of bytes to transfer
+   *
+   * @return  the number of bytes transferred
+   *
+   * @throws  IllegalArgumentException  when {@code limit} is negative
+   * @throws  IllegalStateException  when already closed
+   */
+  public long transferTo(WritableByteChannel target, long limit) throws IllegalArgumentException, IllegalStateException, IOException {
+    if (limit < 0) {
+      throw new IllegalArgumentException("limit < 0: " + limit);
+    }
+    FileChannel ch = getSharedChannel();
+    long end = Math.min(ch.size(), limit);
+    long position = 0;
+    while (position < end) {
+      long count = ch.transferTo(position, end - position, target);
+      if (count == 0) {
+        // Non-blocking target is full or the file was concurrently truncated
+        break;
+      }
+      position += count;
+    }
+    recordRead(position);
+    return position;
+  }
+
+  /**
+   * Replaces the content of the temporary file with all bytes from the given channel.
+   *
+   * @see  #transferFrom(java.nio.channels.ReadableByteChannel, long)
+   */
+  public long transferFrom(ReadableByteChannel src) throws IllegalStateException, IOException {
+    return transferFrom(src, Long.MAX_VALUE);
+  }
+
+  /**
+   * Replaces the content of the temporary file with bytes from the given channel, truncating any existing content.
+   * Uses {@link FileChannel#transferFrom(java.nio.channels.ReadableByteChannel, long, long)} on the
+   * {@linkplain #newChannel() shared channel}, which allows the operating system to copy without passing through the
+   * heap when the source is also a {@link FileChannel}.
+   *
+   * <p>Partial transfers are continued until the end of the source or the limit is reached.  When the source is in
+   * non-blocking mode, stops once no bytes are available.</p>
+   *
+   * @param  limit  The maximum number of bytes to transfer
+   *
+   * @return  the number of bytes transferred
+   *
+   * @throws  IllegalArgumentException  when {@code limit} is negative
+   * @throws  IllegalStateException  when already closed
+   * @throws  TempFileQuotaExceededException  when the {@linkplain TempFileContext.Builder#hardQuota(long) hard quota}
+   *                                          of the context is reached before the end of the source or the limit
+   */
+  public long transferFrom(ReadableByteChannel src, long limit) throws IllegalArgumentException, IllegalStateException, IOException {
+    if (limit < 0) {
+      throw new IllegalArgumentException("limit < 0: " + limit);
+    }
+    getSharedChannel().truncate(0);
+    truncated(0);
+    return transferFrom(src, 0, limit);
+  }
+
+  /**
+   * Writes bytes from the given channel, starting at the given position, without truncating any existing content.
+   *
+   * @param  limit  The position to stop at
+   *
+   * @return  the number of bytes transferred
+   *
+   * @see  #transferFrom(java.nio.channels.ReadableByteChannel, long)
+   */
+  long transferFrom(ReadableByteChannel src, long position, long limit) throws IOException {
+    FileChannel ch = getSharedChannel();
+    long start = position;
+    while (position < limit) {
+      long writable = getWritable(position);
+      if (writable == 0) {
+        checkGrowth(position + 1);
+      }
+      long count = ch.transferFrom(src, position, Math.min(limit - position, writable));
+      if (count == 0) {
+        // End of source or non-blocking source has nothing available
+        break;
+      }
+      position += count;
+      grown(position);
+      recordWrite(count);
+    }
+    return position - start;
+  }
+
+  /**
+   * Maps the entire temporary file into memory.
+   *
+   * @see  #map(java.nio.channels.FileChannel.MapMode, long)
+   */
+  public TempFileMapping map(FileChannel.MapMode mode) throws IllegalStateException, IOException {
+    return map(mode, (anonymousFiles != null) ? getSharedChannel().size() : Files.size(getOpenFile().toPath()));
+  }
+
+  /**
+   * Maps the temporary file into memory, from the beginning of the file to the given size.  Files larger than 2 GB
+   * are mapped in multiple chunks.
+   *
+   * <p>The mapping is tracked and released when this temporary file is closed, before the file is deleted.  Mappings
+   * of files still open when their context is closed are released by garbage collection.</p>
+   *
+   * @param  mode  The mode, where {@link FileChannel.MapMode#READ_WRITE} also allows growing the file
+   * @param  size  The number of bytes to map
+   *
+   * @throws  IllegalArgumentException  when {@code size} is negative or beyond the end of the file and {@code mode}
+   *                                    is not {@link FileChannel.MapMode#READ_WRITE}
+   * @throws  IllegalStateException  when already closed
+   * @throws  TempFileQuotaExceededException  when growing the file would exceed the
+   *                                          {@linkplain TempFileContext.Builder#hardQuota(long) hard quota} of the
+   *                                          context
+   *
+   * @see  TempFileMapping#grow(long)
+   */
+  public TempFileMapping map(FileChannel.MapMode mode, long size) throws IllegalArgumentException, IllegalStateException, IOException {
+    if (mode == FileChannel.MapMode.READ_WRITE) {
+      checkGrowth(size);
+    }
+    TempFileMapping mapping;
+    if (anonymousFiles != null) {
+      mapping = new TempFileMapping(this, getSharedChannel(), false, mode, size);
+    } else {
+      Path path = getOpenFile().toPath();
+      FileChannel ch = (mode == FileChannel.MapMode.READ_ONLY)
+          ? FileChannel.open(path, StandardOpenOption.READ)
+          : FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+      mapping = new TempFileMapping(this, ch, true, mode, size);
+    }
+    boolean registered;
+    synchronized (lock) {
+      registered = file.get() != null;
+      if (registered) {
+        if (mappings == null) {
+          mappings = new ArrayList<>();
+        }
+        mappings.add(mapping);
+      }
+    }
+    if (registered) {
+      if (mode == FileChannel.MapMode.READ_WRITE) {
+        grown(size);
+      }
+      return mapping;
+    }
+    // Closed concurrently
+    mapping.release();
+    throw new IllegalStateException("Temp file closed");
+  }
+
+  void removeMapping(TempFileMapping mapping) {
+    synchronized (lock) {
+      if (mappings != null) {
+        mappings.remove(mapping);
+      }
+    }
+  }
+
+  /**
+   * Releases all mappings and closes the shared channel, called once closed and before deleting.
+   */
+  private void releaseResources() throws IOException {
+    List<TempFileMapping> toRelease;
+    FileChannel ch;
+    synchronized (lock) {
+      toRelease = mappings;
+      mappings = null;
+      ch = channel;
+      channel = null;
+    }
+    try {
+      if (toRelease != null) {
+        for (TempFileMapping mapping : toRelease) {
+          mapping.release();
+        }
+      }
+    } finally {
+      if (ch != null) {
+        ch.close();
+      }
+    }
+  }
+
   // TODO: This could use FileUtils from either ao-lang or commons-io, at the cost of a new dependency
   //
   // Note: This is copied from FileUtils to avoid dependency
@@ -93,23 +864,117 @@ public class TempFile implements Closeable {
     assert !Files.exists(deleteMe, LinkOption.NOFOLLOW_LINKS);
   }
 
+  /**
+   * De-registers from the shutdown hook or, when within a
+   * {@linkplain TempFileContext.Builder#privateDirectory(boolean) private directory}, from the count of open files.
+   * Also removes the bytes of this file from the disk usage of the context.
+   */
+  private void deregister(File f) {
+    if (anonymousFiles != null) {
+      anonymousFiles.remove(this);
+    } else if (unregisteredCount == null) {
+      TempFileContext.removeDeleteOnExit(contextId, f.getName());
+    } else {
+      unregisteredCount.decrementAndGet();
+    }
+    if (usage != null) {
+      long released;
+      synchronized (lock) {
+        released = counted;
+        counted = 0;
+      }
+      addUsed(-released);
+      if (external) {
+        usage.removeExternal(this);
+      }
+    }
+  }
+
   /**
    * Closes the temporary file, de-registering from delete on exit and deleting
    * the underlying file.
+   *
+   * <p>When the context has the {@linkplain TempFileContext.Builder#trash(boolean) trash enabled}, a directory is
+   * moved into the trash with a single rename instead of being recursively deleted.</p>
    */
   @Override
   public void close() throws IOException {
-    File f = file.getAndSet(null);
+    File f;
+    synchronized (lock) {
+      f = file.getAndSet(null);
+    }
     if (f != null) {
-      // De-register from shutdown hook
-      TempFileContext.removeDeleteOnExit(contextId, f.getName());
-      if (f.exists()) {
-        if (isDirectory) {
-          deleteRecursive(f);
-        } else {
-          Files.delete(f.toPath());
+      try {
+        releaseResources();
+      } finally {
+        deregister(f);
+        if (anonymousFiles == null) {
+          TempFileContext.delete(tmpDir, f, isDirectory, trash, bucketRoot);
         }
       }
     }
   }
+
+  /**
+   * Closes the temporary file without waiting for the underlying file to be deleted.
+   * De-registers from delete on exit immediately, then deletes the underlying file in the background.
+   *
+   * <p>If not yet deleted when the JVM shuts down, the file is still deleted by the shutdown hook.</p>
+   *
+   * <p>If already closed, no action will be taken and an already-completed future is returned.</p>
+   *
+   * @param  executor  The executor that performs the delete.  When rejected, the delete is performed in the current
+   *                   thread.
+   *
+   * @return  a future completed once deleted, or completed exceptionally with an {@link IOException} when unable
+   *          to delete
+   */
+  public CompletableFuture<Void> closeAsync(Executor executor) {
+    File f;
+    synchronized (lock) {
+      f = file.getAndSet(null);
+    }
+    if (f == null) {
+      return CompletableFuture.completedFuture(null);
+    }
+    if (anonymousFiles != null) {
+      // Nothing to delete, the space is reclaimed as the channel is closed
+      CompletableFuture<Void> future = new CompletableFuture<>();
+      try {
+        releaseResources();
+        future.complete(null);
+      } catch (IOException e) {
+        future.completeExceptionally(e);
+      } finally {
+        deregister(f);
+      }
+      return future;
+    }
+    try {
+      releaseResources();
+    } catch (IOException e) {
+      deregister(f);
+      CompletableFuture<Void> future = TempFileContext.deleteAsync(tmpDir, f, isDirectory, trash, bucketRoot, executor);
+      CompletableFuture<Void> failed = new CompletableFuture<>();
+      future.whenComplete((v, t) -> {
+        if (t != null) {
+          e.addSuppressed(t);
+        }
+        failed.completeExceptionally(e);
+      });
+      return failed;
+    }
+    deregister(f);
+    return TempFileContext.deleteAsync(tmpDir, f, isDirectory, trash, bucketRoot, executor);
+  }
+
+  /**
+   * Closes the temporary file without waiting for the underlying file to be deleted, deleting on a default pool
+   * of daemon threads.
+   *
+   * @see  #closeAsync(java.util.concurrent.Executor)
+   */
+  public CompletableFuture<Void> closeAsync() {
+    return closeAsync(TempFileContext.getDefaultDeleteExecutor());
+  }
 }
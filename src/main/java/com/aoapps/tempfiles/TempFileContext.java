@@ -1,6 +1,6 @@
 /*
  * ao-tempfiles - Java temporary file API filling-in JDK gaps and deficiencies.
- * Copyright (C) 2017, 2018, 2019, 2020, 2021, 2022, 2024  AO Industries, Inc.
+ * Copyright (C) 2017, 2018, 2019, 2020, 2021, 2022, 2024, 2026  AO Industries, Inc.
  *     support@aoindustries.com
  *     7262 Bull Pen Cir
  *     Mobile, AL 36695
@@ -26,17 +26,35 @@ package com.aoapps.tempfiles;
 import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystems;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -62,18 +80,37 @@ public class TempFileContext implements Closeable {
    */
   private static final int MAX_PREFIX_LENGTH = 64;
 
+  /**
+   * The prefix of {@linkplain Builder#privateDirectory(boolean) private directories}.
+   */
+  private static final String PRIVATE_DIRECTORY_PREFIX = "ctx_";
+
+  /**
+   * The maximum number of times buckets are created for a single new temporary file, guarding against endless
+   * retries when buckets are repeatedly removed concurrently.
+   */
+  private static final int MAX_BUCKET_ATTEMPTS = 100;
+
   /**
    * The number of active instances is tracked, will remove shutdown hook when gets to zero.
+   * Each in-progress {@linkplain #closeAsync() asynchronous close} is also counted, so the shutdown hook remains in
+   * place until the background deletes complete.
    */
   private static final AtomicInteger activeCount = new AtomicInteger();
 
   private static class DeleteMe {
+    private final File tmpDir;
     private final File file;
     private final boolean isDirectory;
+    private final boolean trash;
+    private final Path bucketRoot;
 
-    private DeleteMe(File file, boolean isDirectory) {
+    private DeleteMe(File tmpDir, File file, boolean isDirectory, boolean trash, Path bucketRoot) {
+      this.tmpDir = tmpDir;
       this.file = file;
       this.isDirectory = isDirectory;
+      this.trash = trash;
+      this.bucketRoot = bucketRoot;
     }
   }
 
@@ -81,13 +118,250 @@ public class TempFileContext implements Closeable {
    * The files registered for delete on exit.
    *
    * <p>Note: The key is an incrementing Long to avoid a reference to the specific instance.</p>
+   *
+   * <p>Each per-instance map is a {@link ConcurrentHashMap}, which is internally striped.  This allows any number of
+   * threads to create and close temporary files on a shared, long-lived instance without contending on a single
+   * monitor.</p>
+   */
+  private static final ConcurrentMap<Long, ConcurrentMap<String, DeleteMe>> deleteOnExits = new ConcurrentHashMap<>();
+
+  /**
+   * Files that have been de-registered by an {@linkplain #closeAsync() asynchronous close} but are not yet deleted.
+   * These are still deleted by the shutdown hook.
+   */
+  private static final Set<DeleteMe> pendingDeletes = ConcurrentHashMap.newKeySet();
+
+  /**
+   * Lock held while adding or removing the shutdown hook.
    */
-  private static final ConcurrentMap<Long, Map<String, DeleteMe>> deleteOnExits = new ConcurrentHashMap<>();
+  private static final Object shutdownHookLock = new Object();
 
   /**
    * The shutdown hook shared by all active instances.
    */
-  private static volatile Thread shutdownHook;
+  private static Thread shutdownHook;
+
+  /**
+   * Increments the active count, adding the shutdown hook when first.
+   *
+   * @throws  IllegalStateException  on integer wraparound of the active count
+   */
+  private static void acquireShutdownHook() throws IllegalStateException {
+    // Increment activeCount while looking for wraparound
+    assert activeCount.get() >= 0;
+    int newActiveCount = activeCount.incrementAndGet();
+    if (newActiveCount < 0) {
+      activeCount.decrementAndGet();
+      throw new IllegalStateException("activeCount integer wraparound detected");
+    }
+    if (logger.isLoggable(Level.FINER)) {
+      logger.log(Level.FINER, "activeCount={0}", newActiveCount);
+    }
+    if (newActiveCount == 1) {
+      updateShutdownHook();
+    }
+  }
+
+  /**
+   * Decrements the active count, removing the shutdown hook when last.
+   */
+  private static void releaseShutdownHook() {
+    assert activeCount.get() > 0;
+    int newActiveCount = activeCount.decrementAndGet();
+    if (logger.isLoggable(Level.FINER)) {
+      logger.log(Level.FINER, "activeCount={0}", newActiveCount);
+    }
+    if (newActiveCount == 0) {
+      updateShutdownHook();
+    }
+  }
+
+  /**
+   * Adds or removes the shutdown hook to match the current active count.  Only called on transitions between zero and
+   * one, and re-checks under lock since the count may have changed again before the lock is acquired.
+   */
+  private static void updateShutdownHook() {
+    synchronized (shutdownHookLock) {
+      if (activeCount.get() > 0) {
+        if (shutdownHook == null) {
+          // Create shutdown hook on first only
+          logger.log(Level.FINE, "Registering shutdown hook");
+          Thread newShutdownHook = new Thread(TempFileContext::deleteOnShutdown);
+          try {
+            Runtime.getRuntime().addShutdownHook(newShutdownHook);
+            shutdownHook = newShutdownHook;
+          } catch (IllegalArgumentException | IllegalStateException e) {
+            logger.log(Level.WARNING, "Failed to add shutdown hook", e);
+          } catch (SecurityException e) {
+            logger.log(Level.FINE, "Shutdown hook not allowed", e);
+          }
+        }
+      } else {
+        Thread hook = shutdownHook;
+        if (hook != null) {
+          shutdownHook = null;
+          logger.log(Level.FINE, "Removing shutdown hook");
+          try {
+            Runtime.getRuntime().removeShutdownHook(hook);
+          } catch (IllegalStateException e) {
+            // System shutting down, can't remove hook
+          } catch (SecurityException e) {
+            logger.log(Level.WARNING, "Failed to remove shutdown hook", e);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * The default time allowed for deleting files on shutdown.
+   *
+   * @see  #setShutdownTimeout(long, java.util.concurrent.TimeUnit)
+   */
+  public static final long DEFAULT_SHUTDOWN_TIMEOUT_SECONDS = 10;
+
+  private static volatile long shutdownTimeoutNanos = TimeUnit.SECONDS.toNanos(DEFAULT_SHUTDOWN_TIMEOUT_SECONDS);
+
+  private static volatile int shutdownThreads = Runtime.getRuntime().availableProcessors();
+
+  /**
+   * Sets the maximum time the shared shutdown hook spends deleting files.  Any files not deleted within this time
+   * are recorded in the temporary directory, to be deleted by the next JVM that uses the same temporary directory.
+   *
+   * @param  timeout  The timeout, defaults to {@link #DEFAULT_SHUTDOWN_TIMEOUT_SECONDS} seconds
+   *
+   * @throws  IllegalArgumentException  when {@code timeout <= 0}
+   */
+  public static void setShutdownTimeout(long timeout, TimeUnit unit) throws IllegalArgumentException {
+    if (timeout <= 0) {
+      throw new IllegalArgumentException("timeout <= 0: " + timeout);
+    }
+    shutdownTimeoutNanos = unit.toNanos(timeout);
+  }
+
+  /**
+   * Sets the maximum number of threads used by the shared shutdown hook to delete files in parallel.
+   *
+   * @param  threads  The number of threads, defaults to the number of available processors
+   *
+   * @throws  IllegalArgumentException  when {@code threads < 1}
+   */
+  public static void setShutdownThreads(int threads) throws IllegalArgumentException {
+    if (threads < 1) {
+      throw new IllegalArgumentException("threads < 1: " + threads);
+    }
+    shutdownThreads = threads;
+  }
+
+  /**
+   * Deletes all registered files and directories, from every instance, on shutdown.
+   *
+   * <p>Deletes in parallel, with up to {@link #setShutdownThreads(int)} threads, until all are deleted or the
+   * {@linkplain #setShutdownTimeout(long, java.util.concurrent.TimeUnit) shutdown timeout} is reached.  Files not
+   * deleted in time, or that failed to delete, are recorded for deletion by the next JVM.</p>
+   */
+  @SuppressWarnings({"UseSpecificCatch", "TooBroadCatch"})
+  private static void deleteOnShutdown() {
+    final long startNanos = System.nanoTime();
+    final long deadlineNanos = startNanos + shutdownTimeoutNanos;
+    final Queue<DeleteMe> queue = new ConcurrentLinkedQueue<>(pendingDeletes);
+    for (ConcurrentMap<String, DeleteMe> deleteMap : deleteOnExits.values()) {
+      queue.addAll(deleteMap.values());
+    }
+    final int total = queue.size();
+    if (total == 0) {
+      return;
+    }
+    int threads = Math.min(shutdownThreads, (total + MIN_DELETE_BATCH_SIZE - 1) / MIN_DELETE_BATCH_SIZE);
+    if (logger.isLoggable(Level.FINE)) {
+      logger.log(Level.FINE, "Deleting {0} temporary files and directories on shutdown with {1} threads", new Object[]{total, threads});
+    }
+    final AtomicInteger deleted = new AtomicInteger();
+    final Queue<DeleteMe> failed = new ConcurrentLinkedQueue<>();
+    final Set<DeleteMe> inProgress = ConcurrentHashMap.newKeySet();
+    Runnable worker = () -> {
+      DeleteMe deleteMe;
+      while (System.nanoTime() - deadlineNanos < 0 && (deleteMe = queue.poll()) != null) {
+        inProgress.add(deleteMe);
+        try {
+          delete(deleteMe);
+          deleted.incrementAndGet();
+        } catch (Throwable t) {
+          failed.add(deleteMe);
+          if (logger.isLoggable(Level.WARNING)) {
+            logger.log(Level.WARNING, "Unable to delete " + (deleteMe.isDirectory ? "directory" : "file") + " on shutdown: " + deleteMe.file, t);
+          }
+        } finally {
+          inProgress.remove(deleteMe);
+        }
+      }
+    };
+    List<Thread> workers = new ArrayList<>(threads);
+    for (int i = 1; i <= threads; i++) {
+      Thread thread = new Thread(worker, TempFileContext.class.getName() + ".shutdown-" + i);
+      thread.setDaemon(true);
+      thread.start();
+      workers.add(thread);
+    }
+    // Wait for completion or timeout, logging progress once per second
+    try {
+      for (Thread thread : workers) {
+        while (thread.isAlive()) {
+          long remainingNanos = deadlineNanos - System.nanoTime();
+          if (remainingNanos <= 0) {
+            break;
+          }
+          thread.join(Math.max(1, Math.min(1000, TimeUnit.NANOSECONDS.toMillis(remainingNanos))));
+          if (thread.isAlive() && logger.isLoggable(Level.FINE)) {
+            logger.log(Level.FINE, "Deleted {0} of {1} temporary files and directories on shutdown", new Object[]{deleted.get(), total});
+          }
+        }
+      }
+    } catch (InterruptedException e) {
+      // Stop waiting, record what remains
+      Thread.currentThread().interrupt();
+    }
+    // Record anything not deleted
+    Map<File, Map<File, Boolean>> remainingByTmpDir = new LinkedHashMap<>();
+    int remaining = 0;
+    for (Collection<DeleteMe> deleteMes : Arrays.asList(inProgress, queue, failed)) {
+      for (DeleteMe deleteMe : deleteMes) {
+        remainingByTmpDir.computeIfAbsent(deleteMe.tmpDir, k -> new LinkedHashMap<>()).put(deleteMe.file, deleteMe.isDirectory);
+        remaining++;
+      }
+    }
+    long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    if (remaining == 0) {
+      if (logger.isLoggable(Level.FINE)) {
+        logger.log(Level.FINE, "Deleted {0} temporary files and directories on shutdown in {1} ms", new Object[]{total, elapsedMillis});
+      }
+    } else {
+      if (logger.isLoggable(Level.WARNING)) {
+        logger.log(
+            Level.WARNING,
+            "Deleted {0} of {1} temporary files and directories on shutdown in {2} ms, recording {3} remaining for deletion on next startup",
+            new Object[]{deleted.get(), total, elapsedMillis, remaining}
+        );
+      }
+      for (Map.Entry<File, Map<File, Boolean>> entry : remainingByTmpDir.entrySet()) {
+        File tmpDir = entry.getKey();
+        Housekeeping housekeeping = Housekeeping.getInstanceOrNull(tmpDir);
+        if (housekeeping == null) {
+          if (logger.isLoggable(Level.WARNING)) {
+            logger.log(Level.WARNING, "Unable to record {0} pending deletes in temporary directory: {1}", new Object[]{entry.getValue().size(), tmpDir});
+          }
+        } else {
+          try {
+            housekeeping.recordPendingDeletes(entry.getValue());
+          } catch (Throwable t) {
+            if (logger.isLoggable(Level.WARNING)) {
+              logger.log(Level.WARNING, "Unable to record pending deletes in temporary directory: " + tmpDir, t);
+            }
+          }
+        }
+      }
+    }
+  }
 
   private static final Object systemTmpDirLock = new Object();
   private static File systemTmpDir = null;
@@ -133,355 +407,2068 @@ public class TempFileContext implements Closeable {
   }
 
   /**
-   * Unique ID generator.
-   */
-  private static final AtomicLong idGenerator = new AtomicLong(1);
-
-  /**
-   * The unique ID for this instance.
+   * The default number of registered files at which {@link #close()} will delete in parallel, when a
+   * {@linkplain Builder#deleteExecutor(java.util.concurrent.Executor) delete executor} is configured.
    */
-  private final Long id = idGenerator.getAndIncrement();
+  public static final int DEFAULT_PARALLEL_DELETE_THRESHOLD = 256;
 
   /**
-   * The directory containing the temporary files for this instance.
+   * The minimum number of files deleted per task when deleting in parallel.
    */
-  private final File tmpDir;
+  private static final int MIN_DELETE_BATCH_SIZE = 64;
 
   /**
-   * Set to true when closed.
+   * The default number of bytes a {@link TempBuffer} holds in memory before spilling to a temporary file.
    */
-  private final AtomicBoolean closed = new AtomicBoolean();
+  public static final long DEFAULT_TEMP_BUFFER_THRESHOLD = 256L * 1024;
 
   /**
-   * Create a new instance of the temp file manager.  {@link #close()} must be called
-   * when done with the instance.  This should be done in a try-with-resources, try-finally, or strong
-   * equivalent, such as <code>Servlet.destroy()</code>.
-   *
-   * <p>Shutdown hooks are shared between instances.</p>
-   *
-   * @param  tmpDir  The temporary directory or {@code null} to use the system default
-   *
-   * @see  #close()
+   * The maximum number of chunks kept for reuse by the {@link TempBuffer} of each context.
    */
-  @SuppressWarnings({"UseSpecificCatch", "TooBroadCatch"})
-  public TempFileContext(File tmpDir) {
-    // Not worth the overhead to check here, since some contexts are very short-lived
-    // and any problems will manifest themselves clearly when creating a temporary file.
-    // if (!tmpDir.exists()) {
-    //    throw new IllegalArgumentException("tmpDir does not exist: " + tmpDir);
-    // }
-    // if (!tmpDir.isDirectory()) {
-    //    throw new IllegalArgumentException("tmpDir is not a directory: " + tmpDir);
-    // }
-    // if (!tmpDir.canWrite()) {
-    //    throw new IllegalArgumentException("tmpDir is not writable: " + tmpDir);
-    // }
-    // if (!tmpDir.canRead()) {
-    //    throw new IllegalArgumentException("tmpDir is not readable: " + tmpDir);
-    // }
-    this.tmpDir = (tmpDir == null) ? getSystemTmpDir() : tmpDir;
-    // Increment activeCount while looking for wraparound
-    assert activeCount.get() >= 0;
-    int newActiveCount = activeCount.incrementAndGet();
-    if (newActiveCount < 0) {
-      activeCount.decrementAndGet();
-      throw new IllegalStateException("activeCount integer wraparound detected");
-    }
-    if (logger.isLoggable(Level.FINER)) {
-      logger.log(Level.FINER, "activeCount={0}", newActiveCount);
-    }
-    if (newActiveCount == 1) {
-      // Create shutdown hook on first only
-      logger.log(Level.FINE, "Registering shutdown hook");
-      Thread newShutdownHook = new Thread(() -> {
-        for (Map<String, DeleteMe> deleteMap : deleteOnExits.values()) {
-          synchronized (deleteMap) {
-            for (DeleteMe deleteMe : deleteMap.values()) {
-              File f = deleteMe.file;
-              boolean isDirectory = deleteMe.isDirectory;
-              try {
-                if (f.exists()) {
-                  if (isDirectory) {
-                    TempFile.deleteRecursive(f);
-                  } else {
-                    Files.delete(f.toPath());
-                  }
-                }
-              } catch (Throwable t) {
-                if (logger.isLoggable(Level.WARNING)) {
-                  logger.log(Level.WARNING, "Unable to delete " + (isDirectory ? "directory" : "file") + " on shutdown: " + f, t);
-                }
-              }
-            }
-          }
-        }
-      });
-      try {
-        Runtime.getRuntime().addShutdownHook(newShutdownHook);
-      } catch (IllegalArgumentException | IllegalStateException e) {
-        logger.log(Level.WARNING, "Failed to add shutdown hook", e);
-        newShutdownHook = null;
-      } catch (SecurityException e) {
-        logger.log(Level.FINE, "Shutdown hook not allowed", e);
-        newShutdownHook = null;
-      }
-      shutdownHook = newShutdownHook;
-    }
-  }
+  private static final int CHUNK_POOL_CAPACITY = 64;
 
   /**
-   * Uses the provided temporary directory.
-   *
-   * @param  tmpDir  The temporary directory or {@code null} to use the system default
-   *
-   * @see  #TempFileContext(java.io.File)
+   * The expected number of bytes of a {@link TempBlob} when not specified.
    */
-  public TempFileContext(String tmpDir) {
-    this((tmpDir == null) ? null : new File(tmpDir));
-  }
+  private static final int DEFAULT_TEMP_BLOB_CAPACITY = 16 * 1024;
 
   /**
-   * Uses the system default temporary directory from {@link System#getProperty(java.lang.String) system property} {@code "java.io.tmpdir"}.
-   *
-   * @see  #getSystemTmpDir()
-   * @see  #TempFileContext(java.io.File)
+   * The default maximum number of bytes of a temporary file on the {@linkplain Builder#ramTier(java.io.File, long) RAM
+   * tier}.
    */
-  public TempFileContext() {
-    this((File) null);
-  }
+  public static final long DEFAULT_RAM_TIER_MAX_FILE_SIZE = 1024L * 1024;
 
   /**
-   * Gets the temporary directory this instance is using, which may be {@code null} when using the system directory.
+   * Creates a new builder for a {@link TempFileContext}.
    */
-  public File getTmpDir() {
-    return tmpDir;
+  public static Builder builder() {
+    return new Builder();
   }
 
   /**
-   * Generates a temp file prefix given a name template.
-   * <ol>
-   * <li>If {@code null} or {@link String#isEmpty()}, {@code "tmp_"} is used.</li>
-   * <li>Any character that is not in {@code [a-zA-Z0-9.-_]} is converted to {@code '_'}.</li>
-   * <li>If less than {@link #MIN_PREFIX_LENGTH}, padded with trailing {@code '_'} to a length of {@link #MIN_PREFIX_LENGTH}.</li>
-   * <li>If greater than {@link #MAX_PREFIX_LENGTH} characters, is truncated to a length of {@link #MAX_PREFIX_LENGTH}.</li>
-   * </ol>
+   * Configures and creates a {@link TempFileContext}.
    *
-   * @param  template  the name of the temporary file that will be filtered for only safe characters
+   * <p>Not thread-safe.</p>
+   *
+   * @see  TempFileContext#builder()
    */
-  public static String generatePrefix(String template) {
-    if (template == null || template.isEmpty()) {
-      return "tmp_";
-    } else {
-      int len = Math.min(template.length(), MAX_PREFIX_LENGTH);
-      // Replace characters that are not safe
-      StringBuilder prefix = new StringBuilder(Math.min(len, MIN_PREFIX_LENGTH));
-      for (int i = 0; i < len; i++) {
-        char ch = template.charAt(i);
-        prefix.append(
-            (ch >= 'a' && ch <= 'z')
-                || (ch >= 'A' && ch <= 'Z')
-                || (ch >= '0' && ch <= '9')
-                || ch == '.'
-                || ch == '-'
-                || ch == '_'
-                ? ch
-                : '_'
-        );
+  public static class Builder {
+
+    private File tmpDir;
+    private Executor deleteExecutor;
+    private int parallelDeleteThreshold = DEFAULT_PARALLEL_DELETE_THRESHOLD;
+    private boolean trash;
+    private boolean orphanTracking;
+    private boolean privateDirectory;
+    private int fanOutLevels;
+    private int fanOutWidth;
+    private int stripes;
+    private int warmPoolCapacity;
+    private long tempBufferThreshold = DEFAULT_TEMP_BUFFER_THRESHOLD;
+    private boolean memoryBudget;
+    private int directBufferPoolCapacity;
+    private long softQuota;
+    private long hardQuota;
+    private long minFreeSpace;
+    private File overflowDir;
+    private File[] moreTmpDirs = {};
+    private TempDirPolicy tmpDirPolicy = TempDirPolicy.ROUND_ROBIN;
+    private File ramTier;
+    private long ramTierCapacity;
+    private long ramTierMaxFileSize = DEFAULT_RAM_TIER_MAX_FILE_SIZE;
+
+    /**
+     * Use {@link TempFileContext#builder()}.
+     */
+    protected Builder() {
+      // Nothing to do
+    }
+
+    /**
+     * Sets the temporary directory.
+     *
+     * @param  tmpDir  The temporary directory or {@code null} to use the system default
+     */
+    public Builder tmpDir(File tmpDir) {
+      this.tmpDir = tmpDir;
+      return this;
+    }
+
+    /**
+     * Sets the temporary directory.
+     *
+     * @param  tmpDir  The temporary directory or {@code null} to use the system default
+     */
+    public Builder tmpDir(String tmpDir) {
+      return tmpDir((tmpDir == null) ? null : new File(tmpDir));
+    }
+
+    /**
+     * Sets multiple temporary directories, such as one per local device, spreading the I/O of temporary files across
+     * the devices.  Each new temporary file is placed in a single directory chosen by the
+     * {@linkplain #tmpDirPolicy(TempDirPolicy) policy}, and {@link TempFile#getFile()} returns the file within that
+     * directory.
+     *
+     * <p>The first directory is the {@linkplain #tmpDir(java.io.File) temporary directory}, where the
+     * {@linkplain #privateDirectory(boolean) private directory}, {@linkplain #fanOut(int, int) fan-out},
+     * {@linkplain #trash(boolean) trash}, and {@linkplain #orphanTracking(boolean) orphan tracking} apply.  Files in
+     * the other directories are registered for delete on close or exit individually.</p>
+     *
+     * @param  tmpDirs  The temporary directories, at least one
+     *
+     * @throws  IllegalArgumentException  when empty or any directory is {@code null}
+     *
+     * @see  TempFileContext#getTempDirStats()
+     */
+    public Builder tmpDirs(File... tmpDirs) throws IllegalArgumentException {
+      if (tmpDirs.length == 0) {
+        throw new IllegalArgumentException("tmpDirs is empty");
       }
-      while (prefix.length() < MIN_PREFIX_LENGTH) {
-        prefix.append('_');
+      for (File dir : tmpDirs) {
+        if (dir == null) {
+          throw new IllegalArgumentException("tmpDirs contains null");
+        }
       }
-      return prefix.toString();
+      this.tmpDir = tmpDirs[0];
+      this.moreTmpDirs = Arrays.copyOfRange(tmpDirs, 1, tmpDirs.length);
+      return this;
     }
-  }
 
-  private static String formatPrefix(String prefix) {
-    if (prefix == null || prefix.isEmpty()) {
-      prefix = "tmp_";
-    } else {
-      int plen = prefix.length();
-      if (plen > MAX_PREFIX_LENGTH) {
-        prefix = prefix.substring(0, MAX_PREFIX_LENGTH);
-      } else if (plen < MIN_PREFIX_LENGTH) {
-        StringBuilder sb = new StringBuilder(MIN_PREFIX_LENGTH);
-        sb.append(prefix);
-        do {
-          sb.append('_');
-        } while (sb.length() < MIN_PREFIX_LENGTH);
-        prefix = sb.toString();
-      }
+    /**
+     * Sets the policy choosing which of the {@linkplain #tmpDirs(java.io.File...) temporary directories} each new
+     * temporary file is placed in.
+     *
+     * @param  tmpDirPolicy  The policy or {@code null} for {@link TempDirPolicy#ROUND_ROBIN} (the default)
+     */
+    public Builder tmpDirPolicy(TempDirPolicy tmpDirPolicy) {
+      this.tmpDirPolicy = (tmpDirPolicy == null) ? TempDirPolicy.ROUND_ROBIN : tmpDirPolicy;
+      return this;
     }
-    assert prefix.length() >= MIN_PREFIX_LENGTH;
-    assert prefix.length() <= MAX_PREFIX_LENGTH;
-    return prefix;
-  }
 
-  /**
-   * Creates a new temporary directory with the given prefix, recursively deleting on close or exit.
-   *
-   * @param  prefix  If {@code null} or {@link String#isEmpty()}, {@code "tmp_"} is used.
-   *                 If less than {@link #MIN_PREFIX_LENGTH}, padded with trailing {@code '_'} to a length of {@link #MIN_PREFIX_LENGTH}.
-   *                 If greater than {@link #MAX_PREFIX_LENGTH} characters, is truncated to a length of {@link #MAX_PREFIX_LENGTH}.
-   *
-   * @throws  IllegalStateException  if already {@link #close() closed}
-   */
-  public TempFile createTempDirectory(String prefix) throws IllegalStateException, IOException {
-    if (closed.get()) {
-      throw new IllegalStateException("TempFiles is closed");
+    /**
+     * Sets the executor used to delete registered files in parallel on {@link TempFileContext#close()}.
+     * {@link ForkJoinPool#commonPool()} may be used, but a dedicated executor is preferred when closing contexts
+     * with very large numbers of files, since the deletes block on I/O.
+     *
+     * <p>The closing thread also participates in the deletes, and any task rejected by the executor is run
+     * by the closing thread.</p>
+     *
+     * @param  deleteExecutor  The executor or {@code null} (the default) to delete sequentially in the closing
+     *                         thread
+     *
+     * @see  #parallelDeleteThreshold(int)
+     */
+    public Builder deleteExecutor(Executor deleteExecutor) {
+      this.deleteExecutor = deleteExecutor;
+      return this;
     }
-    while (true) {
-      Path tmpPath = (tmpDir == null)
-          ? Files.createTempDirectory(formatPrefix(prefix))
-          : Files.createTempDirectory(tmpDir.toPath(), formatPrefix(prefix));
-      File tmpFile = tmpPath.toFile();
-      if (addDeleteOnExit(id, tmpFile, true)) {
-        return new TempFile(id, tmpFile, true);
+
+    /**
+     * Sets the minimum number of registered files before deleting in parallel.  Smaller contexts are deleted
+     * sequentially, since the overhead of parallel tasks would exceed the benefit.
+     *
+     * @param  parallelDeleteThreshold  The threshold, defaults to {@link #DEFAULT_PARALLEL_DELETE_THRESHOLD}
+     *
+     * @throws  IllegalArgumentException  when {@code parallelDeleteThreshold < 1}
+     *
+     * @see  #deleteExecutor(java.util.concurrent.Executor)
+     */
+    public Builder parallelDeleteThreshold(int parallelDeleteThreshold) throws IllegalArgumentException {
+      if (parallelDeleteThreshold < 1) {
+        throw new IllegalArgumentException("parallelDeleteThreshold < 1: " + parallelDeleteThreshold);
       }
-      Files.delete(tmpPath);
+      this.parallelDeleteThreshold = parallelDeleteThreshold;
+      return this;
     }
-  }
 
-  /**
-   * Creates a new temporary directory with default prefix, recursively deleting on close or exit.
-   *
+    /**
+     * Enables closing temporary directories by moving them to the trash.  When enabled, closing a temporary
+     * directory performs a single atomic rename into a trash directory, private to the current user, within the
+     * same temporary directory.  A low-priority background thread then empties the trash.  This makes closing
+     * constant-time, regardless of the size of the directory tree.
+     *
+     * <p>Any leftovers in the trash, such as from a JVM that crashed before emptying it, are reaped in the
+     * background when the first context using the trash in the same temporary directory is created.</p>
+     *
+     * <p>Temporary files are still deleted directly, since deleting a single file is already constant-time.  When the
+     * trash cannot be used, such as when the trash is not secure or the rename fails, directories are deleted
+     * recursively as usual.</p>
+     *
+     * @param  trash  {@code true} to enable, defaults to {@code false}
+     */
+    public Builder trash(boolean trash) {
+      this.trash = trash;
+      return this;
+    }
+
+    /**
+     * Enables tracking of temporary files so they may be found by the {@link OrphanSweeper} when this JVM exits
+     * without deleting them, such as when killed by {@code SIGKILL} or the out-of-memory killer.
+     *
+     * <p>When enabled, an ownership marker for this JVM is locked in a directory private to the current user, and
+     * the names of temporary files and directories include the owner token of this JVM.  The first context with
+     * orphan tracking in a temporary directory sweeps the orphans of dead JVMs in the background.  Every directory
+     * the context creates files in, including the {@linkplain #tmpDirs(java.io.File...) temporary directories},
+     * {@linkplain #overflowDir(java.io.File) overflow directory}, and {@linkplain #ramTier(java.io.File, long) RAM
+     * tier}, has its own ownership marker and is swept.</p>
+     *
+     * <p>When the ownership marker cannot be created, temporary files are created without the owner token, as
+     * usual.</p>
+     *
+     * @param  orphanTracking  {@code true} to enable, defaults to {@code false}
+     */
+    public Builder orphanTracking(boolean orphanTracking) {
+      this.orphanTracking = orphanTracking;
+      return this;
+    }
+
+    /**
+     * Enables creating all temporary files of the context within a directory private to the context.  The private
+     * directory is created within the temporary directory when the first temporary file is created.
+     *
+     * <p>When enabled, only the private directory is registered for delete on exit, instead of each temporary file.
+     * This reduces the memory used per temporary file, and {@link TempFileContext#close()} and the shutdown hook
+     * delete the private directory as a single tree.  Combined with the {@linkplain #trash(boolean) trash},
+     * closing the context is a single rename.</p>
+     *
+     * <p>{@link TempFile#close()} still deletes individual temporary files immediately.</p>
+     *
+     * @param  privateDirectory  {@code true} to enable, defaults to {@code false}
+     */
+    public Builder privateDirectory(boolean privateDirectory) {
+      this.privateDirectory = privateDirectory;
+      return this;
+    }
+
+    /**
+     * Enables spreading temporary files across levels of hashed bucket directories, so no single directory grows to
+     * a very large number of entries.  Each level has {@code width} buckets, for a total of
+     * <code>width<sup>levels</sup></code> leaf buckets.
+     *
+     * <p>Bucket directories are created when first needed and removed once empty.  They are within the
+     * {@linkplain #privateDirectory(boolean) private directory} when enabled, otherwise within a directory private to
+     * the current user in the temporary directory.  When the private directory for the current user cannot be used,
+     * temporary files are created directly in the temporary directory, as usual.</p>
+     *
+     * @param  levels  The number of levels of buckets, from {@code 1} to {@code 4}, or {@code 0} to disable (the default)
+     * @param  width  The number of buckets per level, from {@code 2} to {@code 4096}
+     *
+     * @throws  IllegalArgumentException  when {@code levels} or {@code width} are out of range
+     */
+    public Builder fanOut(int levels, int width) throws IllegalArgumentException {
+      FanOut.checkLevels(levels, width);
+      this.fanOutLevels = levels;
+      this.fanOutWidth = width;
+      return this;
+    }
+
+    /**
+     * Enables spreading temporary files across a number of sibling stripe directories, chosen by the current thread.
+     * The operating system serializes creates and deletes within a single directory, so threads in different stripes
+     * do not contend with each other.  This improves the scalability of creating and closing temporary files with
+     * many concurrent threads.
+     *
+     * <p>Stripes are created when first needed and are kept once created.  They are within the same directories as
+     * {@linkplain #fanOut(int, int) fan-out} buckets, and any fan-out buckets are within the stripes.</p>
+     *
+     * @param  stripes  The number of stripes, from {@code 2} to {@code 4096}, or {@code 0} to disable (the default).
+     *                  A value around the number of concurrently active threads is a reasonable start.
+     *
+     * @throws  IllegalArgumentException  when {@code stripes} is out of range
+     */
+    public Builder stripes(int stripes) throws IllegalArgumentException {
+      FanOut.checkStripes(stripes);
+      this.stripes = stripes;
+      return this;
+    }
+
+    /**
+     * Enables a warm pool of already-created, empty temporary files, so {@link TempFileContext#createTempFile()} and
+     * related methods may return immediately without touching the filesystem.  Files are pooled separately for each
+     * distinct prefix and suffix, up to {@code 64} distinct classes.  The first request for a class starts pooling it.
+     *
+     * <p>The pool is refilled in the background on the
+     * {@linkplain #deleteExecutor(java.util.concurrent.Executor) delete executor}, or a default pool of daemon
+     * threads when not configured.  Pooled files are deleted on close along with all other files of the context.</p>
+     *
+     * <p>Temporary directories are not pooled.</p>
+     *
+     * @param  capacity  The maximum number of files pooled per class of prefix and suffix, or {@code 0} to disable
+     *                   (the default)
+     *
+     * @throws  IllegalArgumentException  when {@code capacity} is negative
+     *
+     * @see  TempFileContext#getWarmPoolHits()
+     * @see  TempFileContext#getWarmPoolMisses()
+     */
+    public Builder warmPool(int capacity) throws IllegalArgumentException {
+      if (capacity < 0) {
+        throw new IllegalArgumentException("capacity < 0: " + capacity);
+      }
+      this.warmPoolCapacity = capacity;
+      return this;
+    }
+
+    /**
+     * Sets the default number of bytes a {@link TempBuffer} holds in memory before spilling to a temporary file.
+     *
+     * @param  threshold  The threshold in bytes, defaults to {@link #DEFAULT_TEMP_BUFFER_THRESHOLD}
+     *
+     * @throws  IllegalArgumentException  when {@code threshold} is negative
+     *
+     * @see  TempFileContext#createTempBuffer()
+     */
+    public Builder tempBufferThreshold(long threshold) throws IllegalArgumentException {
+      if (threshold < 0) {
+        throw new IllegalArgumentException("threshold < 0: " + threshold);
+      }
+      this.tempBufferThreshold = threshold;
+      return this;
+    }
+
+    /**
+     * Enables a global memory budget shared by the {@link TempBuffer} of all contexts that enable it.  The budget
+     * listens for heap usage threshold notifications from the {@link java.lang.management.MemoryPoolMXBean}.  Under
+     * pressure, the largest in-memory buffers are forced to spill to their temporary files and the in-memory threshold
+     * of all buffers is lowered.  While the heap is idle, the threshold gradually rises up to four times the
+     * configured threshold.
+     *
+     * <p>When the heap pools do not support usage thresholds, buffers use their fixed thresholds.</p>
+     *
+     * <p>When first enabled, a usage threshold of {@code 80%} is set on each heap pool that does not already have one.
+     * These thresholds are global to the JVM, so are also seen by any other listener of heap threshold notifications.
+     * Thresholds already set by the application or other libraries are left as-is and used instead.</p>
+     *
+     * @param  memoryBudget  {@code true} to enable, defaults to {@code false}
+     *
+     * @see  #tempBufferThreshold(long)
+     * @see  TempFileContext#getTempBufferForcedSpillCount()
+     */
+    public Builder memoryBudget(boolean memoryBudget) {
+      this.memoryBudget = memoryBudget;
+      return this;
+    }
+
+    /**
+     * Enables a pool of direct buffers used by {@link TempFile#newOutputStream()} and {@link TempFile#newInputStream()}.
+     * The streams are buffered by a pooled direct buffer of {@code 64 KiB} each, so sustained I/O allocates nothing on
+     * the heap and avoids the copy through a temporary direct buffer the JDK performs for heap buffers.  Heap buffers
+     * passed to the channels of {@link TempFile#newChannel()} are also copied through a pooled buffer, instead of a
+     * temporary direct buffer sized to each request.
+     *
+     * @param  capacity  The maximum number of idle buffers kept for reuse, or {@code 0} to disable (the default)
+     *
+     * @throws  IllegalArgumentException  when {@code capacity} is negative
+     *
+     * @see  TempFileContext#getDirectBufferPoolSize()
+     * @see  TempFileContext#getDirectBufferPoolMisses()
+     */
+    public Builder directBufferPool(int capacity) throws IllegalArgumentException {
+      if (capacity < 0) {
+        throw new IllegalArgumentException("capacity < 0: " + capacity);
+      }
+      this.directBufferPoolCapacity = capacity;
+      return this;
+    }
+
+    /**
+     * Sets the number of bytes of {@linkplain TempFileContext#getDiskUsage() disk usage} at which the creation of new
+     * temporary files fails with a {@link TempFileQuotaExceededException}.  Writes to existing temporary files are
+     * still allowed, up to the {@linkplain #hardQuota(long) hard quota}.
+     *
+     * @param  softQuota  The quota in bytes, or {@code 0} to disable (the default)
+     *
+     * @throws  IllegalArgumentException  when {@code softQuota} is negative
+     */
+    public Builder softQuota(long softQuota) throws IllegalArgumentException {
+      if (softQuota < 0) {
+        throw new IllegalArgumentException("softQuota < 0: " + softQuota);
+      }
+      this.softQuota = softQuota;
+      return this;
+    }
+
+    /**
+     * Sets the number of bytes of {@linkplain TempFileContext#getDiskUsage() disk usage} that may not be exceeded.
+     * Both the creation of new temporary files and any write that would grow beyond the quota fail with a
+     * {@link TempFileQuotaExceededException}, before any bytes are written.
+     *
+     * <p>Content written to a {@linkplain TempFile#getFile() file} directly is only seen once sampled, so may exceed
+     * the quota until then.</p>
+     *
+     * @param  hardQuota  The quota in bytes, or {@code 0} to disable (the default)
+     *
+     * @throws  IllegalArgumentException  when {@code hardQuota} is negative
+     */
+    public Builder hardQuota(long hardQuota) throws IllegalArgumentException {
+      if (hardQuota < 0) {
+        throw new IllegalArgumentException("hardQuota < 0: " + hardQuota);
+      }
+      this.hardQuota = hardQuota;
+      return this;
+    }
+
+    /**
+     * Sets the minimum usable space of the temporary directory, below which new temporary files are created in
+     * another of the {@linkplain #tmpDirs(java.io.File...) temporary directories} or in the
+     * {@linkplain #overflowDir(java.io.File) overflow directory}.  When all are low, the creation fails with a
+     * {@link TempFileLowSpaceException}.  This avoids creating files that cannot be fully written.
+     *
+     * <p>The usable space of each directory is cached and refreshed in the background at most once per second, so the
+     * check adds no system call when creating temporary files.  Files already taken from the
+     * {@linkplain #warmPool(int) warm pool} are not checked.</p>
+     *
+     * @param  minFreeSpace  The minimum usable space in bytes, or {@code 0} to disable (the default)
+     *
+     * @throws  IllegalArgumentException  when {@code minFreeSpace} is negative
+     *
+     * @see  TempFileContext#getUsableSpace()
+     */
+    public Builder minFreeSpace(long minFreeSpace) throws IllegalArgumentException {
+      if (minFreeSpace < 0) {
+        throw new IllegalArgumentException("minFreeSpace < 0: " + minFreeSpace);
+      }
+      this.minFreeSpace = minFreeSpace;
+      return this;
+    }
+
+    /**
+     * Sets the directory new temporary files are created in while all temporary directories are below the
+     * {@linkplain #minFreeSpace(long) minimum free space}.  Files in the overflow directory are registered for
+     * delete on close or exit individually, and are never within the {@linkplain #privateDirectory(boolean) private
+     * directory}, {@linkplain #fanOut(int, int) fan-out} buckets, or {@linkplain #trash(boolean) trash}.
+     *
+     * @param  overflowDir  The overflow directory or {@code null} for none (the default)
+     *
+     * @see  TempFileContext#getLowSpaceRedirectCount()
+     */
+    public Builder overflowDir(File overflowDir) {
+      this.overflowDir = overflowDir;
+      return this;
+    }
+
+    /**
+     * Sets a directory on a RAM-backed filesystem, such as {@code /dev/shm} or another {@code tmpfs} on Linux, used
+     * before the {@linkplain #tmpDirs(java.io.File...) temporary directories} for temporary files expected to be small.
+     * This avoids disk I/O for short-lived small files while keeping large files from consuming memory.
+     *
+     * <p>Files created by {@link TempFileContext#createTempFile(java.lang.String, java.lang.String, long)} with a
+     * positive size hint up to the {@linkplain #ramTierMaxFileSize(long) maximum file size} are created on the RAM tier
+     * while it has room and its usable space stays above the {@linkplain #minFreeSpace(long) minimum free space}.
+     * Files of unknown size, including all files created without a size hint, always use the temporary directories.
+     * A file on the RAM tier that grows beyond the maximum file size, or beyond the room left in the RAM tier, is moved
+     * to a temporary directory transparently.  Files exposed by {@link TempFile#getFile()} or mapped by
+     * {@link TempFile#map(java.nio.channels.FileChannel.MapMode, long)} are pinned to their tier and no longer moved,
+     * so content written through the name of a file on the RAM tier stays in memory.</p>
+     *
+     * <p>Directories and {@linkplain TempFileContext#createAnonymousTempFile(java.lang.String, java.lang.String)
+     * anonymous} files are never created on the RAM tier.  Files in the RAM tier are registered for delete on close or
+     * exit individually, and are never within the {@linkplain #privateDirectory(boolean) private directory},
+     * {@linkplain #fanOut(int, int) fan-out} buckets, or {@linkplain #trash(boolean) trash}.</p>
+     *
+     * @param  ramTier  The directory or {@code null} for none (the default)
+     * @param  capacity  The maximum number of bytes in all files on the RAM tier
+     *
+     * @throws  IllegalArgumentException  when {@code capacity} is negative
+     *
+     * @see  TempFileContext#getRamTierMoveCount()
+     */
+    public Builder ramTier(File ramTier, long capacity) throws IllegalArgumentException {
+      if (capacity < 0) {
+        throw new IllegalArgumentException("capacity < 0: " + capacity);
+      }
+      this.ramTier = ramTier;
+      this.ramTierCapacity = capacity;
+      return this;
+    }
+
+    /**
+     * Sets the maximum number of bytes of a single temporary file on the {@linkplain #ramTier(java.io.File, long) RAM
+     * tier}.
+     *
+     * @param  maxFileSize  The maximum size in bytes, defaults to {@link #DEFAULT_RAM_TIER_MAX_FILE_SIZE}
+     *
+     * @throws  IllegalArgumentException  when {@code maxFileSize} is negative
+     */
+    public Builder ramTierMaxFileSize(long maxFileSize) throws IllegalArgumentException {
+      if (maxFileSize < 0) {
+        throw new IllegalArgumentException("maxFileSize < 0: " + maxFileSize);
+      }
+      this.ramTierMaxFileSize = maxFileSize;
+      return this;
+    }
+
+    /**
+     * Creates a new {@link TempFileContext}.  {@link TempFileContext#close()} must be called when done with the
+     * instance.
+     */
+    public TempFileContext build() {
+      return new TempFileContext(this);
+    }
+  }
+
+  /**
+   * Unique ID generator.
+   */
+  private static final AtomicLong idGenerator = new AtomicLong(1);
+
+  /**
+   * The unique ID for this instance.
+   */
+  private final Long id = idGenerator.getAndIncrement();
+
+  /**
+   * The directory containing the temporary files for this instance.
+   */
+  private final File tmpDir;
+
+  /**
+   * The executor for parallel deletes or {@code null} to always delete sequentially.
+   */
+  private final Executor deleteExecutor;
+
+  /**
+   * The minimum number of registered files before deleting in parallel.
+   */
+  private final int parallelDeleteThreshold;
+
+  /**
+   * Moves directories to the trash on close when {@code true} and the trash is available.
+   */
+  private final boolean trash;
+
+  /**
+   * The owner tag added to temporary file names or {@code ""} when orphan tracking is disabled or unavailable.
+   */
+  private final String ownerTag;
+
+  /**
+   * Creates all temporary files within a directory private to this context when {@code true}.
+   */
+  private final boolean privateDirectory;
+
+  private final Object privateDirLock = new Object();
+
+  /**
+   * The private directory, created when first needed.
+   */
+  private volatile Path privateDir;
+
+  /**
+   * The number of open temporary files within the private directory, which are not individually registered for
+   * delete on exit.
+   */
+  private final AtomicInteger unregisteredCount = new AtomicInteger();
+
+  /**
+   * The layout of bucket directories or {@code null} when fan-out is disabled or unavailable.
+   */
+  private final FanOut fanOut;
+
+  /**
+   * The root of the buckets when not using a private directory or {@code null} when fan-out is disabled or within
+   * the private directory.
+   */
+  private final Path fanOutRoot;
+
+  /**
+   * Creates uniquely named temporary files.  The JDK is used instead when the temporary directory is unknown.
+   */
+  private final TempFileNames names;
+
+  /**
+   * The pool of already-created files or {@code null} when disabled.
+   */
+  private final WarmPool warmPool;
+
+  /**
+   * The default number of bytes a {@link TempBuffer} holds in memory.
+   */
+  private final long tempBufferThreshold;
+
+  /**
+   * {@link TempBuffer} participate in the global {@link MemoryBudget} when {@code true}.
+   */
+  private final boolean memoryBudget;
+
+  /**
+   * The chunks reused by all {@link TempBuffer} of this context.
+   */
+  private final ChunkPool chunkPool = new ChunkPool(CHUNK_POOL_CAPACITY);
+
+  /**
+   * The open {@linkplain #createAnonymousTempFile(java.lang.String, java.lang.String) anonymous files}, which are not
+   * registered for delete on exit.
+   */
+  private final Set<TempFile> anonymousFiles = ConcurrentHashMap.newKeySet();
+
+  private final LongAdder tempBufferInMemoryCount = new LongAdder();
+  private final LongAdder tempBufferSpillCount = new LongAdder();
+  private final LongAdder tempBufferForcedSpillCount = new LongAdder();
+
+  /**
+   * The pool of buffers for streams or {@code null} when disabled.
+   */
+  private final DirectBufferPool bufferPool;
+
+  /**
+   * The number of bytes in the temporary files of this context, with the quotas.
+   */
+  private final DiskUsage usage;
+
+  /**
+   * The minimum usable space of the temporary directory or {@code 0} when not checked.
+   */
+  private final long minFreeSpace;
+
+  /**
+   * The temporary directories, starting with {@link #tmpDir}.
+   */
+  private final TempDirStats[] tmpDirs;
+
+  private final TempDirPolicy tmpDirPolicy;
+
+  /**
+   * The next directory for {@link TempDirPolicy#ROUND_ROBIN} and the first directory considered by other policies.
+   */
+  private final AtomicInteger nextTmpDir = new AtomicInteger();
+
+  /**
+   * The directory used when all temporary directories are low on space or {@code null} for none.
+   */
+  private final TempDirStats overflowDir;
+
+  /**
+   * The statistics of all directories, including the overflow directory.
+   */
+  private final List<TempDirStats> tempDirStats;
+
+  private final LongAdder lowSpaceRedirectCount = new LongAdder();
+  private final LongAdder lowSpaceRefusalCount = new LongAdder();
+
+  /**
+   * The RAM tier or {@code null} when not used.
+   */
+  private final TempDirStats ramTier;
+
+  /**
+   * The maximum number of bytes in all files on the RAM tier.
+   */
+  private final long ramTierCapacity;
+
+  /**
+   * The maximum number of bytes of a single file on the RAM tier.
+   */
+  private final long ramTierMaxFileSize;
+
+  private final LongAdder ramTierMoveCount = new LongAdder();
+
+  private final Object arenaLock = new Object();
+
+  /**
+   * The arena of {@link TempBlob}, created when first needed.
+   */
+  private TempArena arena;
+
+  /**
+   * Set to true when closed.
+   */
+  private final AtomicBoolean closed = new AtomicBoolean();
+
+  /**
+   * Create a new instance of the temp file manager.  {@link #close()} must be called
+   * when done with the instance.  This should be done in a try-with-resources, try-finally, or strong
+   * equivalent, such as <code>Servlet.destroy()</code>.
+   *
+   * <p>Shutdown hooks are shared between instances.</p>
+   *
+   * @see  #builder()
+   * @see  #close()
+   */
+  protected TempFileContext(Builder builder) {
+    File tmpDir = builder.tmpDir;
+    // Not worth the overhead to check here, since some contexts are very short-lived
+    // and any problems will manifest themselves clearly when creating a temporary file.
+    // if (!tmpDir.exists()) {
+    //    throw new IllegalArgumentException("tmpDir does not exist: " + tmpDir);
+    // }
+    // if (!tmpDir.isDirectory()) {
+    //    throw new IllegalArgumentException("tmpDir is not a directory: " + tmpDir);
+    // }
+    // if (!tmpDir.canWrite()) {
+    //    throw new IllegalArgumentException("tmpDir is not writable: " + tmpDir);
+    // }
+    // if (!tmpDir.canRead()) {
+    //    throw new IllegalArgumentException("tmpDir is not readable: " + tmpDir);
+    // }
+    this.tmpDir = (tmpDir == null) ? getSystemTmpDir() : tmpDir;
+    this.deleteExecutor = builder.deleteExecutor;
+    this.parallelDeleteThreshold = builder.parallelDeleteThreshold;
+    this.trash = builder.trash && startTrash(this.tmpDir);
+    this.ownerTag = builder.orphanTracking && startOwnership(this.tmpDir) ? Housekeeping.getOwnerTag() : "";
+    this.privateDirectory = builder.privateDirectory;
+    this.warmPool = (builder.warmPoolCapacity == 0)
+        ? null
+        : new WarmPool(
+            builder.warmPoolCapacity,
+            (deleteExecutor == null) ? getDefaultDeleteExecutor() : deleteExecutor,
+            // Refilled from the executor, so spread across stripes instead of the stripe of the executor thread
+            (p, s) -> create(chooseTmpDir(), false, false, p, s, true)
+        );
+    this.tempBufferThreshold = builder.tempBufferThreshold;
+    this.memoryBudget = builder.memoryBudget;
+    this.bufferPool = (builder.directBufferPoolCapacity == 0) ? null : new DirectBufferPool(builder.directBufferPoolCapacity);
+    this.usage = new DiskUsage(builder.softQuota, builder.hardQuota);
+    this.minFreeSpace = builder.minFreeSpace;
+    this.tmpDirPolicy = builder.tmpDirPolicy;
+    boolean checkSpace = minFreeSpace != 0 || (tmpDirPolicy == TempDirPolicy.MOST_FREE && builder.moreTmpDirs.length != 0);
+    this.tmpDirs = new TempDirStats[1 + builder.moreTmpDirs.length];
+    this.tmpDirs[0] = newTempDirStats(this.tmpDir, checkSpace);
+    for (int i = 0; i < builder.moreTmpDirs.length; i++) {
+      this.tmpDirs[i + 1] = newTempDirStats(builder.moreTmpDirs[i], checkSpace);
+    }
+    this.overflowDir = (minFreeSpace == 0 || builder.overflowDir == null) ? null : newTempDirStats(builder.overflowDir, true);
+    List<TempDirStats> stats = new ArrayList<>(Arrays.asList(this.tmpDirs));
+    if (overflowDir != null) {
+      stats.add(overflowDir);
+    }
+    this.ramTier = (builder.ramTier == null || builder.ramTierCapacity == 0) ? null : newTempDirStats(builder.ramTier, true);
+    this.ramTierCapacity = builder.ramTierCapacity;
+    this.ramTierMaxFileSize = builder.ramTierMaxFileSize;
+    if (ramTier != null) {
+      stats.add(ramTier);
+    }
+    this.tempDirStats = Collections.unmodifiableList(stats);
+    this.names = new TempFileNames((this.tmpDir == null) ? FileSystems.getDefault() : this.tmpDir.toPath().getFileSystem());
+    FanOut fanOut = (builder.fanOutLevels == 0 && builder.stripes == 0)
+        ? null
+        : new FanOut(builder.fanOutLevels, builder.fanOutWidth, builder.stripes);
+    if (fanOut == null || privateDirectory) {
+      this.fanOut = fanOut;
+      this.fanOutRoot = null;
+    } else {
+      this.fanOutRoot = startFanOut(this.tmpDir);
+      this.fanOut = (fanOutRoot == null) ? null : fanOut;
+    }
+    for (TempDirStats dirStats : tempDirStats) {
+      File dir = dirStats.getDir();
+      // Files in other directories are recorded there when still pending at shutdown
+      Housekeeping.checkPendingDeletes(dir);
+      // Files in other directories are also tagged, so are swept there by the ownership marker in that directory
+      if (!ownerTag.isEmpty() && dirStats != tmpDirs[0]) {
+        startOwnership(dir);
+      }
+    }
+    acquireShutdownHook();
+  }
+
+  /**
+   * Create a new instance of the temp file manager.  {@link #close()} must be called
+   * when done with the instance.  This should be done in a try-with-resources, try-finally, or strong
+   * equivalent, such as <code>Servlet.destroy()</code>.
+   *
+   * <p>Shutdown hooks are shared between instances.</p>
+   *
+   * @param  tmpDir  The temporary directory or {@code null} to use the system default
+   *
+   * @see  #builder()
+   * @see  #close()
+   */
+  public TempFileContext(File tmpDir) {
+    this(builder().tmpDir(tmpDir));
+  }
+
+  /**
+   * Starts the trash in the given temporary directory.
+   *
+   * @return  {@code true} when the trash is available
+   */
+  private static boolean startTrash(File tmpDir) {
+    Housekeeping housekeeping = Housekeeping.getInstanceOrNull(tmpDir);
+    if (housekeeping != null) {
+      try {
+        housekeeping.startTrash();
+        return true;
+      } catch (IOException | SecurityException e) {
+        if (logger.isLoggable(Level.WARNING)) {
+          logger.log(Level.WARNING, "Trash unavailable in temporary directory: " + tmpDir, e);
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Gets the root of the fan-out buckets in the given temporary directory.
+   *
+   * @return  the root or {@code null} when unavailable
+   */
+  private static Path startFanOut(File tmpDir) {
+    Housekeeping housekeeping = Housekeeping.getInstanceOrNull(tmpDir);
+    if (housekeeping != null) {
+      try {
+        return housekeeping.getFanOutDir();
+      } catch (IOException | SecurityException e) {
+        if (logger.isLoggable(Level.WARNING)) {
+          logger.log(Level.WARNING, "Fan-out unavailable in temporary directory: " + tmpDir, e);
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Starts tracking ownership in the given temporary directory, sweeping orphans in the background when first
+   * started.
+   *
+   * @return  {@code true} when ownership is tracked
+   */
+  private static boolean startOwnership(File tmpDir) {
+    Housekeeping housekeeping = Housekeeping.getInstanceOrNull(tmpDir);
+    if (housekeeping != null) {
+      try {
+        housekeeping.startOwnership();
+        OrphanSweeper.sweepAtStartup(tmpDir);
+        return true;
+      } catch (IOException | SecurityException e) {
+        if (logger.isLoggable(Level.WARNING)) {
+          logger.log(Level.WARNING, "Orphan tracking unavailable in temporary directory: " + tmpDir, e);
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Uses the provided temporary directory.
+   *
+   * @param  tmpDir  The temporary directory or {@code null} to use the system default
+   *
+   * @see  #TempFileContext(java.io.File)
+   */
+  public TempFileContext(String tmpDir) {
+    this((tmpDir == null) ? null : new File(tmpDir));
+  }
+
+  /**
+   * Uses the system default temporary directory from {@link System#getProperty(java.lang.String) system property} {@code "java.io.tmpdir"}.
+   *
+   * @see  #getSystemTmpDir()
+   * @see  #TempFileContext(java.io.File)
+   */
+  public TempFileContext() {
+    this((File) null);
+  }
+
+  /**
+   * Gets the temporary directory this instance is using, which may be {@code null} when using the system directory.
+   */
+  public File getTmpDir() {
+    return tmpDir;
+  }
+
+  /**
+   * Generates a temp file prefix given a name template.
+   * <ol>
+   * <li>If {@code null} or {@link String#isEmpty()}, {@code "tmp_"} is used.</li>
+   * <li>Any character that is not in {@code [a-zA-Z0-9.-_]} is converted to {@code '_'}.</li>
+   * <li>If less than {@link #MIN_PREFIX_LENGTH}, padded with trailing {@code '_'} to a length of {@link #MIN_PREFIX_LENGTH}.</li>
+   * <li>If greater than {@link #MAX_PREFIX_LENGTH} characters, is truncated to a length of {@link #MAX_PREFIX_LENGTH}.</li>
+   * </ol>
+   *
+   * @param  template  the name of the temporary file that will be filtered for only safe characters
+   */
+  public static String generatePrefix(String template) {
+    if (template == null || template.isEmpty()) {
+      return "tmp_";
+    } else {
+      int len = Math.min(template.length(), MAX_PREFIX_LENGTH);
+      // Replace characters that are not safe
+      StringBuilder prefix = new StringBuilder(Math.min(len, MIN_PREFIX_LENGTH));
+      for (int i = 0; i < len; i++) {
+        char ch = template.charAt(i);
+        prefix.append(
+            (ch >= 'a' && ch <= 'z')
+                || (ch >= 'A' && ch <= 'Z')
+                || (ch >= '0' && ch <= '9')
+                || ch == '.'
+                || ch == '-'
+                || ch == '_'
+                ? ch
+                : '_'
+        );
+      }
+      while (prefix.length() < MIN_PREFIX_LENGTH) {
+        prefix.append('_');
+      }
+      return prefix.toString();
+    }
+  }
+
+  /**
+   * Gets the private directory, creating and registering it for delete on exit when first needed.
+   *
+   * @throws  IllegalStateException  if already {@link #close() closed}
+   */
+  private Path getPrivateDir() throws IllegalStateException, IOException {
+    Path dir = privateDir;
+    if (dir == null) {
+      synchronized (privateDirLock) {
+        dir = privateDir;
+        if (dir == null) {
+          // Checked while holding the lock so the private directory is never registered after close
+          if (closed.get()) {
+            throw new IllegalStateException("TempFiles is closed");
+          }
+          while (true) {
+            dir = (tmpDir == null)
+                ? Files.createTempDirectory(PRIVATE_DIRECTORY_PREFIX + ownerTag)
+                : names.createDirectory(tmpDir.toPath(), PRIVATE_DIRECTORY_PREFIX + ownerTag);
+            if (addDeleteOnExit(id, tmpDir, dir.toFile(), true, trash, null)) {
+              break;
+            }
+            Files.delete(dir);
+          }
+          privateDir = dir;
+        }
+      }
+    }
+    return dir;
+  }
+
+  private static String formatPrefix(String prefix) {
+    if (prefix == null || prefix.isEmpty()) {
+      prefix = "tmp_";
+    } else {
+      int plen = prefix.length();
+      if (plen > MAX_PREFIX_LENGTH) {
+        prefix = prefix.substring(0, MAX_PREFIX_LENGTH);
+      } else if (plen < MIN_PREFIX_LENGTH) {
+        StringBuilder sb = new StringBuilder(MIN_PREFIX_LENGTH);
+        sb.append(prefix);
+        do {
+          sb.append('_');
+        } while (sb.length() < MIN_PREFIX_LENGTH);
+        prefix = sb.toString();
+      }
+    }
+    assert prefix.length() >= MIN_PREFIX_LENGTH;
+    assert prefix.length() <= MAX_PREFIX_LENGTH;
+    return prefix;
+  }
+
+  /**
+   * Creates a new temporary directory with the given prefix, recursively deleting on close or exit.
+   *
+   * @param  prefix  If {@code null} or {@link String#isEmpty()}, {@code "tmp_"} is used.
+   *                 If less than {@link #MIN_PREFIX_LENGTH}, padded with trailing {@code '_'} to a length of {@link #MIN_PREFIX_LENGTH}.
+   *                 If greater than {@link #MAX_PREFIX_LENGTH} characters, is truncated to a length of {@link #MAX_PREFIX_LENGTH}.
+   *
+   * @throws  IllegalStateException  if already {@link #close() closed}
+   * @throws  TempFileQuotaExceededException  when the {@linkplain Builder#softQuota(long) soft} or
+   *                                          {@linkplain Builder#hardQuota(long) hard} quota is reached
+   * @throws  TempFileLowSpaceException  when the temporary directory is below the
+   *                                     {@linkplain Builder#minFreeSpace(long) minimum free space}
+   */
+  public TempFile createTempDirectory(String prefix) throws IllegalStateException, IOException {
+    if (closed.get()) {
+      throw new IllegalStateException("TempFiles is closed");
+    }
+    usage.checkCreate();
+    return create(true, formatPrefix(prefix), null);
+  }
+
+  /**
+   * Creates a new temporary directory with default prefix, recursively deleting on close or exit.
+   *
+   * @throws  IllegalStateException  if already {@link #close() closed}
+   */
+  public TempFile createTempDirectory() throws IllegalStateException, IOException {
+    return createTempDirectory(null);
+  }
+
+  /**
+   * Creates a new temporary file with the given prefix and suffix, deleting on close or exit.
+   *
+   * @param  prefix  If {@code null} or {@link String#isEmpty()}, {@code "tmp_"} is used.
+   *                 If less than {@link #MIN_PREFIX_LENGTH}, padded with trailing {@code '_'} to a length of {@link #MIN_PREFIX_LENGTH}.
+   *                 If greater than {@link #MAX_PREFIX_LENGTH} characters, is truncated to a length of {@link #MAX_PREFIX_LENGTH}.
+   *
+   * @param  suffix  when {@code null}, {@code ".tmp"} is used.
+   *
+   * @throws  IllegalStateException  if already {@link #close() closed}
+   * @throws  TempFileQuotaExceededException  when the {@linkplain Builder#softQuota(long) soft} or
+   *                                          {@linkplain Builder#hardQuota(long) hard} quota is reached
+   * @throws  TempFileLowSpaceException  when the temporary directory is below the
+   *                                     {@linkplain Builder#minFreeSpace(long) minimum free space}
+   *
+   * @see  #createTempFile(java.lang.String, java.lang.String, long)
+   */
+  public TempFile createTempFile(String prefix, String suffix) throws IllegalStateException, IOException {
+    return createTempFile(prefix, suffix, 0);
+  }
+
+  /**
+   * Creates a new temporary file with the given prefix and suffix, deleting on close or exit.  When the expected size
+   * is small enough, the file is created on the {@linkplain Builder#ramTier(java.io.File, long) RAM tier}, and is moved
+   * to the temporary directory should it grow beyond the RAM tier.
+   *
+   * @param  prefix  If {@code null} or {@link String#isEmpty()}, {@code "tmp_"} is used.
+   *                 If less than {@link #MIN_PREFIX_LENGTH}, padded with trailing {@code '_'} to a length of {@link #MIN_PREFIX_LENGTH}.
+   *                 If greater than {@link #MAX_PREFIX_LENGTH} characters, is truncated to a length of {@link #MAX_PREFIX_LENGTH}.
+   *
+   * @param  suffix  when {@code null}, {@code ".tmp"} is used.
+   *
+   * @param  sizeHint  The expected number of bytes or {@code 0} when unknown.  Only files with a positive size hint
+   *                   are created on the {@linkplain Builder#ramTier(java.io.File, long) RAM tier}.
+   *
+   * @throws  IllegalArgumentException  when {@code sizeHint} is negative
+   * @throws  IllegalStateException  if already {@link #close() closed}
+   * @throws  TempFileQuotaExceededException  when the {@linkplain Builder#softQuota(long) soft} or
+   *                                          {@linkplain Builder#hardQuota(long) hard} quota is reached
+   * @throws  TempFileLowSpaceException  when the temporary directory is below the
+   *                                     {@linkplain Builder#minFreeSpace(long) minimum free space}
+   */
+  public TempFile createTempFile(String prefix, String suffix, long sizeHint) throws IllegalArgumentException, IllegalStateException, IOException {
+    if (sizeHint < 0) {
+      throw new IllegalArgumentException("sizeHint < 0: " + sizeHint);
+    }
+    if (closed.get()) {
+      throw new IllegalStateException("TempFiles is closed");
+    }
+    usage.checkCreate();
+    String formattedPrefix = formatPrefix(prefix);
+    if (
+        // Files of unknown size never use the RAM tier, since they may be written to any size through getFile()
+        ramTier != null
+            && sizeHint > 0
+            && sizeHint <= ramTierMaxFileSize
+            && ramTier.getDiskUsage() + sizeHint <= ramTierCapacity
+            && ramTier.getUsableSpace() - sizeHint >= minFreeSpace
+    ) {
+      ramTier.recordFile();
+      TempFile ramFile = create(ramTier, false, false, formattedPrefix, suffix, false);
+      return new TieredTempFile(this, formattedPrefix, suffix, ramFile, ramTier, ramTierCapacity, ramTierMaxFileSize, bufferPool);
+    }
+    if (warmPool != null) {
+      TempFile pooled = warmPool.poll(formattedPrefix, suffix);
+      if (pooled != null) {
+        return pooled;
+      }
+    }
+    return create(false, formattedPrefix, suffix);
+  }
+
+  /**
+   * Creates a new temporary file in a temporary directory, never on the RAM tier, when a
+   * {@linkplain TieredTempFile tiered} file moves to disk.
+   *
+   * @param  prefix  The already formatted prefix
+   *
+   * @throws  IllegalStateException  if already {@link #close() closed}
+   */
+  TempFile createDiskTempFile(String prefix, String suffix) throws IllegalStateException, IOException {
+    if (closed.get()) {
+      throw new IllegalStateException("TempFiles is closed");
+    }
+    return create(false, prefix, suffix);
+  }
+
+  /**
+   * Creates a new temporary file or directory in the private directory or temporary directory, within a bucket when
+   * {@linkplain Builder#fanOut(int, int) fan-out} or {@linkplain Builder#stripes(int) striping} is enabled.
+   *
+   * @param  prefix  The already {@linkplain #formatPrefix(java.lang.String) formatted} prefix
+   */
+  private TempFile create(boolean isDirectory, String prefix, String suffix) throws IOException {
+    return create(isDirectory, false, prefix, suffix);
+  }
+
+  /**
+   * Creates a new temporary file or directory.
+   *
+   * @param  anonymous  Opens and removes the name of the file, instead of registering it, when {@code true}
+   * @param  prefix  The already formatted prefix
+   */
+  private TempFile create(boolean isDirectory, boolean anonymous, String prefix, String suffix) throws IOException {
+    return create(chooseTmpDir(), isDirectory, anonymous, prefix, suffix, false);
+  }
+
+  /**
+   * Creates a new temporary file or directory in the given directory.
+   *
+   * @param  dirStats  The directory, which is not the first temporary directory when the RAM tier or overflow directory
+   * @param  anonymous  Opens and removes the name of the file, instead of registering it, when {@code true}
+   * @param  prefix  The already formatted prefix
+   * @param  roundRobinStripe  Chooses {@linkplain Builder#stripes(int) stripes} in round-robin order instead of by the
+   *                           current thread
+   */
+  private TempFile create(TempDirStats dirStats, boolean isDirectory, boolean anonymous, String prefix, String suffix, boolean roundRobinStripe) throws IOException {
+    assert !(isDirectory && anonymous);
+    File fileTmpDir = dirStats.getDir();
+    // Only the first temporary directory has the private directory, fan-out, and trash
+    boolean primary = dirStats == tmpDirs[0];
+    boolean fileTrash = isDirectory && trash && primary;
+    // The private directory is already tagged with the owner
+    String taggedPrefix = (privateDirectory && primary) ? prefix : (prefix + ownerTag);
+    Path dir;
+    // Directory where stripes and buckets are created
+    Path createRoot;
+    // Directory where the removal of empty buckets stops
+    Path bucketRoot;
+    if (!primary) {
+      dir = fileTmpDir.toPath();
+      createRoot = null;
+    } else if (privateDirectory) {
+      dir = getPrivateDir();
+      createRoot = (fanOut != null) ? dir : null;
+    } else if (fanOutRoot != null) {
+      dir = fanOutRoot;
+      createRoot = fanOutRoot;
+    } else {
+      dir = (tmpDir == null) ? null : tmpDir.toPath();
+      createRoot = null;
+    }
+    if (createRoot != null) {
+      Path stripe = roundRobinStripe ? fanOut.getNextStripe(createRoot) : fanOut.getStripe(createRoot);
+      dir = fanOut.getBucket(stripe);
+      bucketRoot = fanOut.hasBuckets() ? stripe : null;
+    } else {
+      bucketRoot = null;
+    }
+    int bucketAttempts = 0;
+    while (true) {
+      Path tmpPath;
+      try {
+        if (isDirectory) {
+          tmpPath = (dir == null)
+              ? Files.createTempDirectory(taggedPrefix)
+              : names.createDirectory(dir, taggedPrefix);
+        } else {
+          tmpPath = (dir == null)
+              ? Files.createTempFile(taggedPrefix, suffix)
+              : names.createFile(dir, taggedPrefix, suffix);
+        }
+      } catch (NoSuchFileException e) {
+        // Bucket not yet created or concurrently removed once empty
+        if (createRoot == null || ++bucketAttempts > MAX_BUCKET_ATTEMPTS) {
+          throw e;
+        }
+        try {
+          FanOut.createBuckets(createRoot, dir);
+        } catch (NoSuchFileException e2) {
+          // Parent bucket concurrently removed once empty, the next create fails and counts as another attempt
+        }
+        continue;
+      }
+      if (anonymous) {
+        return openAnonymous(tmpPath, bucketRoot, dirStats);
+      }
+      File tmpFile = tmpPath.toFile();
+      if (privateDirectory && primary) {
+        unregisteredCount.incrementAndGet();
+        return new TempFile(id, tmpDir, tmpFile, isDirectory, fileTrash, unregisteredCount, bucketRoot, bufferPool, usage, dirStats);
+      }
+      if (addDeleteOnExit(id, fileTmpDir, tmpFile, isDirectory, fileTrash, bucketRoot)) {
+        return new TempFile(id, fileTmpDir, tmpFile, isDirectory, fileTrash, null, bucketRoot, bufferPool, usage, dirStats);
+      }
+      Files.delete(tmpPath);
+    }
+  }
+
+  private static TempDirStats newTempDirStats(File dir, boolean checkSpace) {
+    return new TempDirStats(dir, (checkSpace && dir != null) ? FreeSpace.getInstance(dir) : null);
+  }
+
+  /**
+   * Chooses the directory for a new temporary file by the {@linkplain Builder#tmpDirPolicy(TempDirPolicy) policy}.
+   * When the chosen directory is below the minimum free space, uses another temporary directory or the overflow
+   * directory instead.
+   *
+   * @throws  TempFileLowSpaceException  when all directories are below the minimum free space
+   */
+  private TempDirStats chooseTmpDir() throws TempFileLowSpaceException {
+    TempDirStats chosen;
+    int count = tmpDirs.length;
+    if (count == 1) {
+      chosen = tmpDirs[0];
+    } else {
+      // Rotates the first directory considered, so ties are spread
+      int start = (nextTmpDir.getAndIncrement() & Integer.MAX_VALUE) % count;
+      chosen = tmpDirs[start];
+      if (tmpDirPolicy == TempDirPolicy.LEAST_USED) {
+        long least = chosen.getDiskUsage();
+        for (int i = 1; i < count; i++) {
+          TempDirStats dir = tmpDirs[(start + i) % count];
+          long used = dir.getDiskUsage();
+          if (used < least) {
+            chosen = dir;
+            least = used;
+          }
+        }
+      } else if (tmpDirPolicy == TempDirPolicy.MOST_FREE) {
+        long most = chosen.getUsableSpace();
+        for (int i = 1; i < count; i++) {
+          TempDirStats dir = tmpDirs[(start + i) % count];
+          long usableSpace = dir.getUsableSpace();
+          if (usableSpace > most) {
+            chosen = dir;
+            most = usableSpace;
+          }
+        }
+      }
+    }
+    if (minFreeSpace != 0) {
+      long usableSpace = chosen.getUsableSpace();
+      if (usableSpace < minFreeSpace) {
+        TempDirStats alternate = null;
+        for (TempDirStats dir : tmpDirs) {
+          if (dir != chosen && dir.getUsableSpace() >= minFreeSpace) {
+            alternate = dir;
+            break;
+          }
+        }
+        if (alternate == null && overflowDir != null && overflowDir.getUsableSpace() >= minFreeSpace) {
+          alternate = overflowDir;
+        }
+        if (alternate == null) {
+          lowSpaceRefusalCount.increment();
+          throw new TempFileLowSpaceException("Temporary directory low on space, unable to create temporary file: " + chosen, usableSpace, minFreeSpace);
+        }
+        lowSpaceRedirectCount.increment();
+        chosen = alternate;
+      }
+    }
+    chosen.recordFile();
+    return chosen;
+  }
+
+  /**
+   * Opens a newly created file as anonymous, removing its name where supported.
+   *
+   * @param  bucketRoot  The root of the fan-out buckets containing the file or {@code null} when not in a bucket
+   * @param  dirStats  The statistics of the directory containing the file
+   */
+  private TempFile openAnonymous(Path tmpPath, Path bucketRoot, TempDirStats dirStats) throws IOException {
+    FileChannel channel;
+    try {
+      if (Housekeeping.isPosix(tmpPath)) {
+        channel = FileChannel.open(tmpPath, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+          Files.delete(tmpPath);
+        } catch (IOException | RuntimeException | Error e) {
+          try {
+            channel.close();
+          } catch (IOException e2) {
+            e.addSuppressed(e2);
+          }
+          throw e;
+        }
+        if (bucketRoot != null) {
+          FanOut.deleteEmptyBuckets(bucketRoot, tmpPath.getParent());
+        }
+      } else {
+        // Cannot remove the name of an open file, but is removed by the operating system once closed, even when the
+        // JVM is killed
+        channel = FileChannel.open(tmpPath, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+      }
+    } catch (IOException | RuntimeException | Error e) {
+      try {
+        Files.deleteIfExists(tmpPath);
+      } catch (IOException e2) {
+        e.addSuppressed(e2);
+      }
+      throw e;
+    }
+    TempFile tempFile = new TempFile(id, tmpPath.toFile(), anonymousFiles, channel, bufferPool, usage, dirStats);
+    anonymousFiles.add(tempFile);
+    if (closed.get()) {
+      // Closed concurrently, possibly after closing all anonymous files
+      tempFile.close();
+      throw new IllegalStateException("TempFiles is closed");
+    }
+    return tempFile;
+  }
+
+  /**
+   * Creates a new temporary file based on the given name, deleting on close or exit.
+   *
+   * <p>When the file contains a dot ('.') followed by only the characters in {@code [a-zA-Z0-9_]}, and the dot is not
+   * the first character, it is used as the temp file suffix (to maintain file type by extension).  Multiple
+   * extensions are supported, such as used by {@code "filename.tar.gz"}.</p>
+   *
+   * <p>When the suffix is removed from the name, the prefix is followed by an underscore ('_') separator.</p>
+   *
+   * <p>When no automatic suffix is determine, defaults to {@code ".tmp"}.</p>
+   *
    * @throws  IllegalStateException  if already {@link #close() closed}
    */
-  public TempFile createTempDirectory() throws IllegalStateException, IOException {
-    return createTempDirectory(null);
+  public TempFile createTempFile(String name) throws IllegalStateException, IOException {
+    String[] prefixSuffix = splitName(name);
+    return createTempFile(prefixSuffix[0], prefixSuffix[1]);
+  }
+
+  /**
+   * Splits a name into prefix and suffix.
+   *
+   * @return  the prefix and suffix, either of which may be {@code null}
+   *
+   * @see  #createTempFile(java.lang.String)
+   */
+  private static String[] splitName(String name) {
+    String prefix;
+    String suffix;
+    if (name == null || name.isEmpty()) {
+      prefix = null;
+      suffix = null;
+    } else {
+      int len = name.length();
+      int lastDot = len;
+      for (int i = len - 1; i > 0; i--) {
+        char ch = name.charAt(i);
+        if (ch == '.') {
+          if (i == (lastDot - 1)) {
+            // End on double-dot
+            break;
+          }
+          lastDot = i;
+        } else if (
+            (ch < 'a' || ch > 'z')
+                && (ch < 'A' || ch > 'Z')
+                && (ch < '0' || ch > '9')
+                && ch != '_'
+        ) {
+          // End on unsupported character
+          break;
+        }
+      }
+      if (lastDot == len) {
+        prefix = name;
+        suffix = null;
+      } else {
+        prefix = name.substring(lastDot) + '_';
+        suffix = name.substring(lastDot);
+      }
+    }
+    return new String[]{prefix, suffix};
+  }
+
+  /**
+   * Creates a new temporary file with the given prefix and suffix, deferring the creation of the underlying file
+   * until first needed.  A lazy temporary file that is never used never touches the filesystem.
+   *
+   * <p>The underlying file is created by the first call to {@link TempFile#getFile()} or
+   * {@link TempFile#newOutputStream()}.  Until then, {@link TempFile#newInputStream()} reads as an empty file, and
+   * {@link TempFile#close()} has nothing to delete.  Since {@link TempFile#getFile()} cannot throw
+   * {@link IOException}, a failure to create the underlying file from it is thrown as
+   * {@link java.io.UncheckedIOException}.</p>
+   *
+   * @param  prefix  If {@code null} or {@link String#isEmpty()}, {@code "tmp_"} is used.
+   *                 If less than {@link #MIN_PREFIX_LENGTH}, padded with trailing {@code '_'} to a length of {@link #MIN_PREFIX_LENGTH}.
+   *                 If greater than {@link #MAX_PREFIX_LENGTH} characters, is truncated to a length of {@link #MAX_PREFIX_LENGTH}.
+   *
+   * @param  suffix  when {@code null}, {@code ".tmp"} is used.
+   *
+   * @throws  IllegalStateException  if already {@link #close() closed}
+   *
+   * @see  #createTempFile(java.lang.String, java.lang.String)
+   */
+  public TempFile createLazyTempFile(String prefix, String suffix) throws IllegalStateException {
+    if (closed.get()) {
+      throw new IllegalStateException("TempFiles is closed");
+    }
+    return new LazyTempFile(this, prefix, suffix);
+  }
+
+  /**
+   * Creates a new temporary file based on the given name, deferring the creation of the underlying file until first
+   * needed.
+   *
+   * @throws  IllegalStateException  if already {@link #close() closed}
+   *
+   * @see  #createTempFile(java.lang.String)
+   * @see  #createLazyTempFile(java.lang.String, java.lang.String)
+   */
+  public TempFile createLazyTempFile(String name) throws IllegalStateException {
+    String[] prefixSuffix = splitName(name);
+    return createLazyTempFile(prefixSuffix[0], prefixSuffix[1]);
+  }
+
+  /**
+   * Creates a new buffer that holds up to the {@linkplain Builder#tempBufferThreshold(long) configured threshold} in
+   * memory before spilling to a temporary file of this context.
+   *
+   * @throws  IllegalStateException  if already {@link #close() closed}
+   *
+   * @see  #createTempBuffer(long)
+   */
+  public TempBuffer createTempBuffer() throws IllegalStateException {
+    return createTempBuffer(tempBufferThreshold);
+  }
+
+  /**
+   * Creates a new buffer that holds up to the given number of bytes in memory before spilling to a temporary file of
+   * this context.  {@link TempBuffer#close()} should be called when done with the buffer.  A buffer that has spilled
+   * is otherwise deleted along with all other files of this context.
+   *
+   * @param  threshold  The maximum number of bytes held in memory, {@code 0} to always spill on the first write
+   *
+   * @throws  IllegalArgumentException  when {@code threshold} is negative
+   * @throws  IllegalStateException  if already {@link #close() closed}
+   */
+  public TempBuffer createTempBuffer(long threshold) throws IllegalArgumentException, IllegalStateException {
+    if (threshold < 0) {
+      throw new IllegalArgumentException("threshold < 0: " + threshold);
+    }
+    if (closed.get()) {
+      throw new IllegalStateException("TempFiles is closed");
+    }
+    return new TempBuffer(this, chunkPool, threshold, memoryBudget);
+  }
+
+  /**
+   * Creates a new temporary file with the given prefix and suffix, opening a single {@link java.nio.channels.FileChannel}
+   * that is kept open until the temporary file is closed.  Access through {@link TempFile#newChannel()} uses the
+   * already-open channel instead of opening the file again, and the channel is closed just before the file is deleted.
+   *
+   * @param  prefix  If {@code null} or {@link String#isEmpty()}, {@code "tmp_"} is used.
+   *                 If less than {@link #MIN_PREFIX_LENGTH}, padded with trailing {@code '_'} to a length of {@link #MIN_PREFIX_LENGTH}.
+   *                 If greater than {@link #MAX_PREFIX_LENGTH} characters, is truncated to a length of {@link #MAX_PREFIX_LENGTH}.
+   *
+   * @param  suffix  when {@code null}, {@code ".tmp"} is used.
+   *
+   * @throws  IllegalStateException  if already {@link #close() closed}
+   *
+   * @see  TempFile#newChannel()
+   */
+  public TempFile createOpenTempFile(String prefix, String suffix) throws IllegalStateException, IOException {
+    TempFile tempFile = createTempFile(prefix, suffix);
+    try {
+      tempFile.getSharedChannel();
+    } catch (IOException | RuntimeException | Error e) {
+      try {
+        tempFile.close();
+      } catch (IOException e2) {
+        e.addSuppressed(e2);
+      }
+      throw e;
+    }
+    return tempFile;
+  }
+
+  /**
+   * Creates a new anonymous temporary file with the given prefix and suffix.  The file is opened and its name is
+   * immediately removed, so it is invisible to other processes and accessed only through
+   * {@link TempFile#newChannel()}, {@link TempFile#newOutputStream()}, {@link TempFile#newInputStream()}, and
+   * {@link TempFile#map(java.nio.channels.FileChannel.MapMode, long)}.  The operating system reclaims the space once
+   * the file is closed, even when the JVM is killed, so it is never registered for delete on exit.
+   *
+   * <p>Where the name of an open file cannot be removed, such as on Windows, the file is instead opened with
+   * {@link StandardOpenOption#DELETE_ON_CLOSE}.</p>
+   *
+   * <p>Anonymous files are included in {@link #getSize()}, and are closed when this context is closed.</p>
+   *
+   * @param  prefix  If {@code null} or {@link String#isEmpty()}, {@code "tmp_"} is used.
+   *                 If less than {@link #MIN_PREFIX_LENGTH}, padded with trailing {@code '_'} to a length of {@link #MIN_PREFIX_LENGTH}.
+   *                 If greater than {@link #MAX_PREFIX_LENGTH} characters, is truncated to a length of {@link #MAX_PREFIX_LENGTH}.
+   *
+   * @param  suffix  when {@code null}, {@code ".tmp"} is used.
+   *
+   * @throws  IllegalStateException  if already {@link #close() closed}
+   * @throws  TempFileQuotaExceededException  when the {@linkplain Builder#softQuota(long) soft} or
+   *                                          {@linkplain Builder#hardQuota(long) hard} quota is reached
+   * @throws  TempFileLowSpaceException  when the temporary directory is below the
+   *                                     {@linkplain Builder#minFreeSpace(long) minimum free space}
+   *
+   * @see  TempFile#isAnonymous()
+   */
+  public TempFile createAnonymousTempFile(String prefix, String suffix) throws IllegalStateException, IOException {
+    if (closed.get()) {
+      throw new IllegalStateException("TempFiles is closed");
+    }
+    usage.checkCreate();
+    return create(false, true, formatPrefix(prefix), suffix);
+  }
+
+  /**
+   * Creates a new anonymous temporary file with default prefix and suffix.
+   *
+   * @throws  IllegalStateException  if already {@link #close() closed}
+   *
+   * @see  #createAnonymousTempFile(java.lang.String, java.lang.String)
+   */
+  public TempFile createAnonymousTempFile() throws IllegalStateException, IOException {
+    return createAnonymousTempFile(null, null);
+  }
+
+  /**
+   * Creates a new, empty temporary blob, expected to hold up to {@code 16 KiB}.
+   *
+   * @throws  IllegalStateException  if already {@link #close() closed}
+   *
+   * @see  #createTempBlob(int)
+   */
+  public TempBlob createTempBlob() throws IllegalStateException, IOException {
+    return createTempBlob(DEFAULT_TEMP_BLOB_CAPACITY);
+  }
+
+  /**
+   * Creates a new, empty temporary blob.  Blobs are packed into a few large backing files, one per size class, with
+   * the regions of closed blobs reused.  This avoids creating, registering, and deleting a file for each
+   * small temporary blob.  All blobs are released together when this context is closed.
+   *
+   * @param  capacity  The expected number of bytes, used to choose the initial region.  A blob grows beyond this as
+   *                   needed, up to {@link TempBlob#MAX_SIZE}.
+   *
+   * @throws  IllegalArgumentException  when {@code capacity} is negative or greater than {@link TempBlob#MAX_SIZE}
+   * @throws  IllegalStateException  if already {@link #close() closed}
+   */
+  public TempBlob createTempBlob(int capacity) throws IllegalArgumentException, IllegalStateException, IOException {
+    if (capacity < 0 || capacity > TempBlob.MAX_SIZE) {
+      throw new IllegalArgumentException("capacity must be between 0 and " + TempBlob.MAX_SIZE + ": " + capacity);
+    }
+    if (closed.get()) {
+      throw new IllegalStateException("TempFiles is closed");
+    }
+    TempArena a;
+    synchronized (arenaLock) {
+      a = arena;
+      if (a == null) {
+        a = new TempArena(this);
+        arena = a;
+      }
+    }
+    return a.createBlob(capacity);
+  }
+
+  /**
+   * Creates a new temporary file with default prefix and suffix, deleting on close or exit.
+   *
+   * @throws  IllegalStateException  if already {@link #close() closed}
+   */
+  public TempFile createTempFile() throws IllegalStateException, IOException {
+    return createTempFile(null, null);
+  }
+
+  /**
+   * Registers delete-on-exit for the given ID and name.
+   *
+   * <p>Lock-free: the name uniqueness check is performed by {@link ConcurrentMap#putIfAbsent(java.lang.Object, java.lang.Object)}.</p>
+   *
+   * @return  {@code true} when added or {@code false} when name already tracked within the id
+   */
+  private static boolean addDeleteOnExit(Long id, File tmpDir, File tmpFile, boolean isDirectory, boolean trash, Path bucketRoot) {
+    ConcurrentMap<String, DeleteMe> deleteMap = deleteOnExits.get(id);
+    if (deleteMap == null) {
+      deleteMap = new ConcurrentHashMap<>();
+      ConcurrentMap<String, DeleteMe> existing = deleteOnExits.putIfAbsent(id, deleteMap);
+      if (existing != null) {
+        deleteMap = existing;
+      }
+    }
+    return deleteMap.putIfAbsent(tmpFile.getName(), new DeleteMe(tmpDir, tmpFile, isDirectory, trash, bucketRoot)) == null;
+  }
+
+  /**
+   * Deregisters delete-on-exit for the given ID and name.
+   *
+   * @see  TempFile#close()
+   */
+  static void removeDeleteOnExit(Long id, String name) {
+    ConcurrentMap<String, DeleteMe> deleteMap = deleteOnExits.get(id);
+    if (deleteMap != null) {
+      deleteMap.remove(name);
+    }
   }
 
   /**
-   * Creates a new temporary file with the given prefix and suffix, deleting on close or exit.
+   * Gets the number of files that are currently scheduled to be deleted on close/exit.
    *
-   * @param  prefix  If {@code null} or {@link String#isEmpty()}, {@code "tmp_"} is used.
-   *                 If less than {@link #MIN_PREFIX_LENGTH}, padded with trailing {@code '_'} to a length of {@link #MIN_PREFIX_LENGTH}.
-   *                 If greater than {@link #MAX_PREFIX_LENGTH} characters, is truncated to a length of {@link #MAX_PREFIX_LENGTH}.
+   * <p>This is a point-in-time estimate when temporary files are being concurrently created or closed.</p>
    *
-   * @param  suffix  when {@code null}, {@code ".tmp"} is used.
+   * <p>When using a {@linkplain Builder#privateDirectory(boolean) private directory}, this is the number of open
+   * temporary files within the private directory.</p>
    *
-   * @throws  IllegalStateException  if already {@link #close() closed}
+   * <p>Files in the {@linkplain Builder#warmPool(int) warm pool} are not included, while open
+   * {@linkplain #createAnonymousTempFile(java.lang.String, java.lang.String) anonymous files} are included.</p>
    */
-  public TempFile createTempFile(String prefix, String suffix) throws IllegalStateException, IOException {
-    if (closed.get()) {
-      throw new IllegalStateException("TempFiles is closed");
-    }
-    while (true) {
-      Path tmpPath = (tmpDir == null)
-          ? Files.createTempFile(formatPrefix(prefix), suffix)
-          : Files.createTempFile(tmpDir.toPath(), formatPrefix(prefix), suffix);
-      File tmpFile = tmpPath.toFile();
-      if (addDeleteOnExit(id, tmpFile, false)) {
-        return new TempFile(id, tmpFile, false);
+  public int getSize() {
+    int size;
+    if (privateDirectory) {
+      if (closed.get()) {
+        size = 0;
+      } else {
+        size = unregisteredCount.get();
+        // Files in other directories are registered individually, along with the private directory
+        ConcurrentMap<String, DeleteMe> deleteMap = deleteOnExits.get(id);
+        if (deleteMap != null) {
+          size += Math.max(0, deleteMap.size() - (privateDir == null ? 0 : 1));
+        }
       }
-      Files.delete(tmpPath);
+    } else {
+      ConcurrentMap<String, DeleteMe> deleteMap = deleteOnExits.get(id);
+      size = (deleteMap == null) ? 0 : deleteMap.size();
     }
+    if (warmPool != null) {
+      size = Math.max(0, size - warmPool.getPooledCount());
+    }
+    return size + anonymousFiles.size();
   }
 
   /**
-   * Creates a new temporary file based on the given name, deleting on close or exit.
+   * Gets the number of bytes in the temporary files of this context, including
+   * {@linkplain #createAnonymousTempFile(java.lang.String, java.lang.String) anonymous} files and the backing files of
+   * {@linkplain #createTempBlob(int) blobs}.  Bytes written through the streams, channels, and mappings of
+   * {@link TempFile} are counted as written.  When a {@linkplain Builder#softQuota(long) soft} or
+   * {@linkplain Builder#hardQuota(long) hard} quota is configured, the sizes of files
+   * {@linkplain TempFile#getFile() exposed} for direct access are sampled in the background at most once per second.
    *
-   * <p>When the file contains a dot ('.') followed by only the characters in {@code [a-zA-Z0-9_]}, and the dot is not
-   * the first character, it is used as the temp file suffix (to maintain file type by extension).  Multiple
-   * extensions are supported, such as used by {@code "filename.tar.gz"}.</p>
+   * <p>The content of temporary directories and of {@link TempBuffer} still in memory is not counted.</p>
    *
-   * <p>When the suffix is removed from the name, the prefix is followed by an underscore ('_') separator.</p>
+   * @see  Builder#softQuota(long)
+   * @see  Builder#hardQuota(long)
+   */
+  public long getDiskUsage() {
+    return usage.getUsed();
+  }
+
+  /**
+   * Gets the usable space of the temporary directory, as cached for the
+   * {@linkplain Builder#minFreeSpace(long) minimum free space} check.
    *
-   * <p>When no automatic suffix is determine, defaults to {@code ".tmp"}.</p>
+   * @return  the usable space in bytes or {@link Long#MAX_VALUE} when unknown or not checked
+   */
+  public long getUsableSpace() {
+    return tmpDirs[0].getUsableSpace();
+  }
+
+  /**
+   * Gets the statistics of each {@linkplain Builder#tmpDirs(java.io.File...) temporary directory}, in order, followed
+   * by the {@linkplain Builder#overflowDir(java.io.File) overflow directory} and the
+   * {@linkplain Builder#ramTier(java.io.File, long) RAM tier} when used.
    *
-   * @throws  IllegalStateException  if already {@link #close() closed}
+   * @return  the unmodifiable list of statistics, which are updated live
    */
-  public TempFile createTempFile(String name) throws IllegalStateException, IOException {
-    String prefix;
-    String suffix;
-    if (name == null || name.isEmpty()) {
-      prefix = null;
-      suffix = null;
-    } else {
-      int len = name.length();
-      int lastDot = len;
-      for (int i = len - 1; i > 0; i--) {
-        char ch = name.charAt(i);
-        if (ch == '.') {
-          if (i == (lastDot - 1)) {
-            // End on double-dot
-            break;
+  public List<TempDirStats> getTempDirStats() {
+    return tempDirStats;
+  }
+
+  /**
+   * Gets the number of temporary files created in another {@linkplain Builder#tmpDirs(java.io.File...) temporary
+   * directory} or the {@linkplain Builder#overflowDir(java.io.File) overflow directory} because the chosen directory
+   * was below the {@linkplain Builder#minFreeSpace(long) minimum free space}.
+   */
+  public long getLowSpaceRedirectCount() {
+    return lowSpaceRedirectCount.sum();
+  }
+
+  /**
+   * Gets the number of temporary files refused with a {@link TempFileLowSpaceException}.
+   */
+  public long getLowSpaceRefusalCount() {
+    return lowSpaceRefusalCount.sum();
+  }
+
+  /**
+   * Gets the number of temporary files moved from the {@linkplain Builder#ramTier(java.io.File, long) RAM tier} to a
+   * temporary directory because they grew beyond the RAM tier.
+   */
+  public long getRamTierMoveCount() {
+    return ramTierMoveCount.sum();
+  }
+
+  void recordRamTierMove() {
+    ramTierMoveCount.increment();
+  }
+
+  /**
+   * Gets the number of temporary files taken from the {@linkplain Builder#warmPool(int) warm pool}.
+   *
+   * @return  the number of hits or {@code 0} when the warm pool is disabled
+   */
+  public long getWarmPoolHits() {
+    return (warmPool == null) ? 0 : warmPool.getHits();
+  }
+
+  /**
+   * Gets the number of temporary files created on demand because the {@linkplain Builder#warmPool(int) warm pool}
+   * had none available.
+   *
+   * @return  the number of misses or {@code 0} when the warm pool is disabled
+   */
+  public long getWarmPoolMisses() {
+    return (warmPool == null) ? 0 : warmPool.getMisses();
+  }
+
+  /**
+   * Gets the number of idle buffers in the {@linkplain Builder#directBufferPool(int) direct buffer pool}.
+   *
+   * @return  the number of idle buffers or {@code 0} when the pool is disabled
+   */
+  public int getDirectBufferPoolSize() {
+    return (bufferPool == null) ? 0 : bufferPool.getPooledCount();
+  }
+
+  /**
+   * Gets the number of direct buffers allocated because the {@linkplain Builder#directBufferPool(int) pool} had none
+   * available.
+   *
+   * @return  the number of misses or {@code 0} when the pool is disabled
+   */
+  public long getDirectBufferPoolMisses() {
+    return (bufferPool == null) ? 0 : bufferPool.getMisses();
+  }
+
+  /**
+   * Gets the number of open {@linkplain #createTempBlob(int) temporary blobs}.
+   */
+  public int getTempBlobCount() {
+    TempArena a;
+    synchronized (arenaLock) {
+      a = arena;
+    }
+    return (a == null) ? 0 : a.getBlobCount();
+  }
+
+  /**
+   * Gets the number of {@link TempBuffer} closed without ever having spilled to a temporary file.
+   */
+  public long getTempBufferInMemoryCount() {
+    return tempBufferInMemoryCount.sum();
+  }
+
+  /**
+   * Gets the number of {@link TempBuffer} that have spilled to a temporary file.
+   */
+  public long getTempBufferSpillCount() {
+    return tempBufferSpillCount.sum();
+  }
+
+  void recordTempBufferInMemory() {
+    tempBufferInMemoryCount.increment();
+  }
+
+  /**
+   * Gets the number of {@link TempBuffer} forced to spill early under heap pressure by the
+   * {@linkplain Builder#memoryBudget(boolean) memory budget}.  These are also included in
+   * {@link #getTempBufferSpillCount()}.
+   */
+  public long getTempBufferForcedSpillCount() {
+    return tempBufferForcedSpillCount.sum();
+  }
+
+  void recordTempBufferSpill() {
+    tempBufferSpillCount.increment();
+  }
+
+  void recordTempBufferForcedSpill() {
+    tempBufferForcedSpillCount.increment();
+  }
+
+  /**
+   * Deletes a file or directory, if it still exists.
+   *
+   * @param  tmpDir  The temporary directory the file was created in or {@code null} when unknown
+   * @param  trash  Move directories into the trash of {@code tmpDir} instead of deleting recursively
+   * @param  bucketRoot  The root of the {@linkplain FanOut fan-out} buckets containing the file, from which
+   *                     emptied buckets are removed, or {@code null} when not in a bucket
+   */
+  static void delete(File tmpDir, File f, boolean isDirectory, boolean trash, Path bucketRoot) throws IOException {
+    if (f.exists()) {
+      if (isDirectory) {
+        Housekeeping housekeeping = trash ? Housekeeping.getInstanceOrNull(tmpDir) : null;
+        boolean trashed = false;
+        if (housekeeping != null) {
+          try {
+            housekeeping.moveToTrash(f);
+            trashed = true;
+          } catch (IOException e) {
+            if (logger.isLoggable(Level.FINE)) {
+              logger.log(Level.FINE, "Unable to move directory to trash, deleting directly: " + f, e);
+            }
           }
-          lastDot = i;
-        } else if (
-            (ch < 'a' || ch > 'z')
-                && (ch < 'A' || ch > 'Z')
-                && (ch < '0' || ch > '9')
-                && ch != '_'
-        ) {
-          // End on unsupported character
-          break;
         }
-      }
-      if (lastDot == len) {
-        prefix = name;
-        suffix = null;
+        if (!trashed) {
+          TempFile.deleteRecursive(f);
+        }
       } else {
-        prefix = name.substring(lastDot) + '_';
-        suffix = name.substring(lastDot);
+        Files.delete(f.toPath());
       }
     }
-    return createTempFile(prefix, suffix);
+    if (bucketRoot != null) {
+      FanOut.deleteEmptyBuckets(bucketRoot, f.toPath().getParent());
+    }
   }
 
   /**
-   * Creates a new temporary file with default prefix and suffix, deleting on close or exit.
+   * Deletes a registered file or directory, if it still exists.
+   */
+  private static void delete(DeleteMe deleteMe) throws IOException {
+    delete(deleteMe.tmpDir, deleteMe.file, deleteMe.isDirectory, deleteMe.trash, deleteMe.bucketRoot);
+  }
+
+  /**
+   * A registered file or directory that could not be deleted.
+   */
+  private static class Failure {
+    private final DeleteMe deleteMe;
+    private final Throwable cause;
+
+    private Failure(DeleteMe deleteMe, Throwable cause) {
+      this.deleteMe = deleteMe;
+      this.cause = cause;
+    }
+  }
+
+  /**
+   * Deletes all the given files sequentially in the current thread, adding any failures to the given queue.
+   */
+  @SuppressWarnings({"UseSpecificCatch", "TooBroadCatch"})
+  private static void deleteAll(Iterable<DeleteMe> deleteMes, Queue<Failure> failures) {
+    for (DeleteMe deleteMe : deleteMes) {
+      try {
+        delete(deleteMe);
+      } catch (Throwable t) {
+        failures.add(new Failure(deleteMe, t));
+      }
+    }
+  }
+
+  /**
+   * Gets the number of files deleted per task when deleting in parallel.
+   */
+  private static int getBatchSize(int size, Executor executor) {
+    int parallelism = (executor instanceof ForkJoinPool)
+        ? ((ForkJoinPool) executor).getParallelism()
+        : Runtime.getRuntime().availableProcessors();
+    // Several batches per thread to balance uneven work, such as large directories
+    int batchCount = Math.max(parallelism, 1) * 4;
+    return Math.max(MIN_DELETE_BATCH_SIZE, (size + batchCount - 1) / batchCount);
+  }
+
+  /**
+   * Deletes all the given files.  When there are at least {@code parallelThreshold} files and an executor is
+   * provided, the deletes are split into batches run on the executor, with the current thread running the first
+   * batch.  No locks are held while deleting.
    *
-   * @throws  IllegalStateException  if already {@link #close() closed}
+   * @param  executor  The executor for parallel deletes or {@code null} to delete sequentially
+   *
+   * @return  the files that could not be deleted, empty when all deleted
    */
-  public TempFile createTempFile() throws IllegalStateException, IOException {
-    return createTempFile(null, null);
+  private static Collection<Failure> deleteAll(Collection<DeleteMe> deleteMes, Executor executor, int parallelThreshold) {
+    Queue<Failure> failures = new ConcurrentLinkedQueue<>();
+    int size = deleteMes.size();
+    if (executor == null || size < parallelThreshold) {
+      deleteAll(deleteMes, failures);
+    } else {
+      List<DeleteMe> list = new ArrayList<>(deleteMes);
+      size = list.size();
+      int batchSize = getBatchSize(size, executor);
+      List<CompletableFuture<Void>> futures = new ArrayList<>();
+      for (int from = batchSize; from < size; from += batchSize) {
+        List<DeleteMe> batch = list.subList(from, Math.min(from + batchSize, size));
+        try {
+          futures.add(CompletableFuture.runAsync(() -> deleteAll(batch, failures), executor));
+        } catch (RejectedExecutionException e) {
+          deleteAll(batch, failures);
+        }
+      }
+      deleteAll(list.subList(0, Math.min(batchSize, size)), failures);
+      // Does not complete exceptionally since deleteAll catches all
+      for (CompletableFuture<Void> future : futures) {
+        future.join();
+      }
+    }
+    return failures;
   }
 
   /**
-   * Registers delete-on-exit for the given ID and name.
+   * Deletes all the given files in the background, without blocking the current thread.  The files remain in
+   * {@link #pendingDeletes} and the shutdown hook remains in place until the deletes complete.
    *
-   * @return  {@code true} when added or {@code false} when name already tracked within the id
+   * <p>The deletes are split into batches when at least {@code parallelThreshold} files.  Batches are submitted
+   * independently, with no task waiting on another, so any executor may be used without risk of deadlock.</p>
+   *
+   * @param  executor  The executor that performs the deletes.  Any batch rejected by the executor is run in the
+   *                   current thread.
+   *
+   * @return  a future completed once all deleted, or completed exceptionally with an {@link IOException} when any
+   *          file could not be deleted
+   *
+   * @throws  IllegalStateException  on integer wraparound of the active count
    */
-  private static boolean addDeleteOnExit(Long id, File tmpFile, boolean isDirectory) {
-    Map<String, DeleteMe> deleteMap = deleteOnExits.get(id);
-    if (deleteMap == null) {
-      deleteMap = new LinkedHashMap<>();
-      Map<String, DeleteMe> existing = deleteOnExits.putIfAbsent(id, deleteMap);
-      if (existing != null) {
-        deleteMap = existing;
+  private static CompletableFuture<Void> deleteAllAsync(Collection<DeleteMe> deleteMes, Executor executor, int parallelThreshold) throws IllegalStateException {
+    List<DeleteMe> list = new ArrayList<>(deleteMes);
+    int size = list.size();
+    if (size == 0) {
+      return CompletableFuture.completedFuture(null);
+    }
+    acquireShutdownHook();
+    pendingDeletes.addAll(list);
+    Queue<Failure> failures = new ConcurrentLinkedQueue<>();
+    int batchSize = (size < parallelThreshold) ? size : getBatchSize(size, executor);
+    List<CompletableFuture<Void>> futures = new ArrayList<>();
+    for (int from = 0; from < size; from += batchSize) {
+      List<DeleteMe> batch = list.subList(from, Math.min(from + batchSize, size));
+      Runnable task = () -> {
+        try {
+          deleteAll(batch, failures);
+        } finally {
+          // Not removeAll, which may scan the whole set and call the linear contains of the batch for each element
+          for (DeleteMe d : batch) {
+            pendingDeletes.remove(d);
+          }
+        }
+      };
+      try {
+        futures.add(CompletableFuture.runAsync(task, executor));
+      } catch (RejectedExecutionException e) {
+        task.run();
+      }
+    }
+    CompletableFuture<Void> result = new CompletableFuture<>();
+    CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()])).whenComplete((v, t) -> {
+      releaseShutdownHook();
+      IOException ioExc = toIOException(failures);
+      if (ioExc != null) {
+        result.completeExceptionally(ioExc);
+      } else {
+        result.complete(null);
       }
+    });
+    return result;
+  }
+
+  /**
+   * Gets the number of files de-registered by an {@linkplain #closeAsync() asynchronous close} but not yet deleted.
+   */
+  static int getPendingDeleteCount() {
+    return pendingDeletes.size();
+  }
+
+  /**
+   * Deletes a single file or directory in the background.
+   *
+   * @see  #delete(java.io.File, java.io.File, boolean, boolean, java.nio.file.Path)
+   * @see  TempFile#closeAsync(java.util.concurrent.Executor)
+   */
+  static CompletableFuture<Void> deleteAsync(File tmpDir, File file, boolean isDirectory, boolean trash, Path bucketRoot, Executor executor) {
+    return deleteAllAsync(Collections.singleton(new DeleteMe(tmpDir, file, isDirectory, trash, bucketRoot)), executor, Integer.MAX_VALUE);
+  }
+
+  /**
+   * The executor used for background deletes when no other is configured.
+   */
+  private static class DefaultDeleteExecutor {
+
+    private static final AtomicInteger threadNum = new AtomicInteger();
+
+    private static final Executor executor;
+
+    static {
+      int threads = Runtime.getRuntime().availableProcessors();
+      ThreadPoolExecutor threadPool = new ThreadPoolExecutor(
+          threads,
+          threads,
+          60,
+          TimeUnit.SECONDS,
+          new LinkedBlockingQueue<>(),
+          r -> {
+            Thread thread = new Thread(r, TempFileContext.class.getName() + ".deleter-" + threadNum.incrementAndGet());
+            // Files remaining at exit are deleted by the shutdown hook
+            thread.setDaemon(true);
+            return thread;
+          }
+      );
+      threadPool.allowCoreThreadTimeOut(true);
+      executor = threadPool;
     }
-    synchronized (deleteMap) {
-      return deleteMap.putIfAbsent(tmpFile.getName(), new DeleteMe(tmpFile, isDirectory)) == null;
+
+    /** Make no instances. */
+    private DefaultDeleteExecutor() {
+      throw new AssertionError();
     }
   }
 
   /**
-   * Deregisters delete-on-exit for the given ID and name.
+   * Gets the executor used for background deletes when none is provided.  This is a bounded pool of daemon threads,
+   * sized to the number of available processors, whose threads exit when idle.
+   */
+  static Executor getDefaultDeleteExecutor() {
+    return DefaultDeleteExecutor.executor;
+  }
+
+  /**
+   * Converts delete failures into a single exception.
    *
-   * @see  TempFile#close()
+   * @return  the exception or {@code null} when there are no failures
    */
-  static void removeDeleteOnExit(Long id, String name) {
-    Map<String, DeleteMe> deleteMap = deleteOnExits.get(id);
-    if (deleteMap != null) {
-      synchronized (deleteMap) {
-        deleteMap.remove(name);
+  private static IOException toIOException(Collection<Failure> failures) {
+    if (failures.isEmpty()) {
+      return null;
+    } else if (failures.size() == 1) {
+      Failure failure = failures.iterator().next();
+      DeleteMe failed = failure.deleteMe;
+      return new IOException("Unable to delete temporary " + (failed.isDirectory ? "directory" : "file") + ": " + failed.file, failure.cause);
+    } else {
+      StringBuilder sb = new StringBuilder("Unable to delete temporary directories/files:");
+      for (Failure failure : failures) {
+        sb.append("\n    ").append(failure.deleteMe.file);
+      }
+      IOException ioExc = new IOException(sb.toString());
+      for (Failure failure : failures) {
+        ioExc.addSuppressed(failure.cause);
       }
+      return ioExc;
     }
   }
 
   /**
-   * Gets the number of files that are currently scheduled to be deleted on close/exit.
+   * Closes all anonymous files, which releases their space.  Failures are logged, since anonymous files have no name
+   * left to delete.
    */
-  public int getSize() {
-    Map<String, DeleteMe> deleteMap = deleteOnExits.get(id);
-    if (deleteMap != null) {
-      synchronized (deleteMap) {
-        return deleteMap.size();
+  private void closeAnonymousFiles() {
+    for (TempFile anonymousFile : anonymousFiles) {
+      try {
+        anonymousFile.close();
+      } catch (IOException e) {
+        if (logger.isLoggable(Level.WARNING)) {
+          logger.log(Level.WARNING, "Unable to close anonymous temp file", e);
+        }
+      }
+    }
+  }
+
+  /**
+   * Marks this instance as closed.
+   *
+   * @return  {@code true} when was already closed
+   */
+  private boolean markClosed() {
+    boolean alreadyClosed;
+    if (privateDirectory) {
+      // Ordered with the creation of the private directory, so it is never registered after close
+      synchronized (privateDirLock) {
+        alreadyClosed = closed.getAndSet(true);
       }
     } else {
-      return 0;
+      alreadyClosed = closed.getAndSet(true);
+    }
+    if (!alreadyClosed) {
+      if (warmPool != null) {
+        // Pooled files are still registered, so are deleted along with all others
+        warmPool.close();
+      }
+      closeAnonymousFiles();
+      if (memoryBudget) {
+        // Buffers never closed are no longer spilled on behalf of the budget
+        MemoryBudget.unregisterAll(this);
+      }
+      if (bufferPool != null) {
+        bufferPool.close();
+      }
     }
+    return alreadyClosed;
   }
 
   /**
@@ -490,76 +2477,62 @@ public class TempFileContext implements Closeable {
    *
    * <p>If this is the last active instance, the underlying shutdown hook is also removed.</p>
    *
+   * <p>When a {@linkplain Builder#deleteExecutor(java.util.concurrent.Executor) delete executor} is configured and
+   * at least {@linkplain Builder#parallelDeleteThreshold(int) the threshold} number of files are registered, the files
+   * are deleted in parallel.  This method still waits for all the deletes to complete.</p>
+   *
    * <p>If already closed, no action will be taken and no exception thrown.</p>
    */
   @Override
-  @SuppressWarnings({"UseSpecificCatch", "TooBroadCatch"})
   public void close() throws IOException {
-    boolean alreadyClosed = closed.getAndSet(true);
+    boolean alreadyClosed = markClosed();
     if (!alreadyClosed) {
-      assert activeCount.get() > 0;
-      int newActiveCount = activeCount.decrementAndGet();
-      if (logger.isLoggable(Level.FINER)) {
-        logger.log(Level.FINER, "activeCount={0}", newActiveCount);
-      }
-      if (newActiveCount == 0) {
-        Thread hook = shutdownHook;
-        assert hook != null;
-        shutdownHook = null;
-        logger.log(Level.FINE, "Removing shutdown hook");
-        try {
-          Runtime.getRuntime().removeShutdownHook(hook);
-        } catch (IllegalStateException e) {
-          // System shutting down, can't remove hook
-        } catch (SecurityException e) {
-          logger.log(Level.WARNING, "Failed to remove shutdown hook", e);
-        }
-      }
+      releaseShutdownHook();
       // Delete own temp files
-      Map<String, DeleteMe> deleteMap = deleteOnExits.remove(id);
+      ConcurrentMap<String, DeleteMe> deleteMap = deleteOnExits.remove(id);
       if (deleteMap != null) {
-        List<DeleteMe> failedDelete = null;
-        List<Throwable> causes = null;
-        synchronized (deleteMap) {
-          for (DeleteMe deleteMe : deleteMap.values()) {
-            File f = deleteMe.file;
-            try {
-              if (f.exists()) {
-                if (deleteMe.isDirectory) {
-                  TempFile.deleteRecursive(f);
-                } else {
-                  Files.delete(f.toPath());
-                }
-              }
-            } catch (Throwable t) {
-              if (failedDelete == null) {
-                failedDelete = new ArrayList<>();
-                causes = new ArrayList<>();
-              }
-              assert causes != null;
-              failedDelete.add(deleteMe);
-              causes.add(t);
-            }
-          }
-        }
-        if (failedDelete != null) {
-          assert causes != null;
-          if (failedDelete.size() == 1) {
-            DeleteMe failed = failedDelete.get(0);
-            throw new IOException("Unable to delete temporary " + (failed.isDirectory ? "directory" : "file") + ": " + failed.file, causes.get(0));
-          } else {
-            StringBuilder sb = new StringBuilder("Unable to delete temporary directories/files:");
-            for (DeleteMe failed : failedDelete) {
-              sb.append("\n    ").append(failed.file);
-            }
-            IOException ioExc = new IOException(sb.toString());
-            for (Throwable cause : causes) {
-              ioExc.addSuppressed(cause);
-            }
-            throw ioExc;
-          }
+        IOException ioExc = toIOException(deleteAll(deleteMap.values(), deleteExecutor, parallelDeleteThreshold));
+        if (ioExc != null) {
+          throw ioExc;
         }
       }
     }
   }
+
+  /**
+   * Closes this instance without waiting for the files to be deleted.  Once closed, no additional temp files may be
+   * managed.
+   *
+   * <p>The files are de-registered immediately, so {@link #getSize()} is zero once this method returns.  The files are
+   * then deleted in the background on the {@linkplain Builder#deleteExecutor(java.util.concurrent.Executor) delete
+   * executor}, or a default pool of daemon threads when not configured.  Any files not yet deleted when the JVM shuts
+   * down are still deleted by the shutdown hook.</p>
+   *
+   * <p>If already closed, no action will be taken and an already-completed future is returned.</p>
+   *
+   * <p>Any overriding method must call super.closeAsync().</p>
+   *
+   * @return  a future completed once all the files are deleted, or completed exceptionally with an
+   *          {@link IOException} combining all failures, as would be thrown by {@link #close()}
+   */
+  public CompletableFuture<Void> closeAsync() {
+    boolean alreadyClosed = markClosed();
+    if (alreadyClosed) {
+      return CompletableFuture.completedFuture(null);
+    }
+    CompletableFuture<Void> future;
+    ConcurrentMap<String, DeleteMe> deleteMap = deleteOnExits.remove(id);
+    if (deleteMap != null) {
+      // Acquires its own count on the shutdown hook before this instance releases
+      future = deleteAllAsync(
+          deleteMap.values(),
+          (deleteExecutor == null) ? getDefaultDeleteExecutor() : deleteExecutor,
+          parallelDeleteThreshold
+      );
+    } else {
+      future = CompletableFuture.completedFuture(null);
+    }
+    releaseShutdownHook();
+    return future;
+  }
 }
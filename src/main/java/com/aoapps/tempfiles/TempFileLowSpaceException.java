@@ -0,0 +1,64 @@
+/*
+ * ao-tempfiles - Java temporary file API filling-in JDK gaps and deficiencies.
+ * Copyright (C) 2026  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of ao-tempfiles.
+ *
+ * ao-tempfiles is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ao-tempfiles is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ao-tempfiles.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package com.aoapps.tempfiles;
+
+import java.io.IOException;
+
+/**
+ * Thrown when creating a temporary file while the usable space of the temporary directory is below the
+ * {@linkplain TempFileContext.Builder#minFreeSpace(long) minimum free space} of its {@link TempFileContext}, and no
+ * {@linkplain TempFileContext.Builder#overflowDir(java.io.File) overflow directory} has enough space either.
+ */
+public class TempFileLowSpaceException extends IOException {
+
+  private static final long serialVersionUID = 1L;
+
+  private final long usableSpace;
+  private final long minFreeSpace;
+
+  /**
+   * @param  usableSpace  The usable space of the temporary directory, as last seen
+   * @param  minFreeSpace  The minimum free space
+   */
+  public TempFileLowSpaceException(String message, long usableSpace, long minFreeSpace) {
+    super(message + ": usable space " + usableSpace + ", minimum free space " + minFreeSpace);
+    this.usableSpace = usableSpace;
+    this.minFreeSpace = minFreeSpace;
+  }
+
+  /**
+   * Gets the usable space of the temporary directory, as last seen.
+   */
+  public long getUsableSpace() {
+    return usableSpace;
+  }
+
+  /**
+   * Gets the minimum free space.
+   */
+  public long getMinFreeSpace() {
+    return minFreeSpace;
+  }
+}
@@ -0,0 +1,374 @@
+/*
+ * ao-tempfiles - Java temporary file API filling-in JDK gaps and deficiencies.
+ * Copyright (C) 2026  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of ao-tempfiles.
+ *
+ * ao-tempfiles is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ao-tempfiles is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ao-tempfiles.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.aoapps.tempfiles;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A memory mapping of a {@link TempFile}, from the beginning of the file, split into chunks of {@link #CHUNK_SIZE}
+ * bytes so files beyond the 2 GB limit of a single {@link MappedByteBuffer} may be mapped.  Random access by
+ * {@code long} position spans chunks transparently, while {@link #getChunk(int)} provides zero-copy access to the
+ * underlying buffers.
+ *
+ * <p>A mapping is released when closed or when its temporary file is closed, before the file is deleted.  Where
+ * supported, the memory is unmapped immediately instead of waiting for garbage collection.  Access through the methods
+ * of this mapping is coordinated with release, so a mapping released concurrently throws {@link IllegalStateException}
+ * instead of accessing unmapped memory.</p>
+ *
+ * <p>Once any buffer is handed out by {@link #getChunk(int)}, the memory of this mapping is no longer unmapped
+ * immediately, but left to garbage collection, since the caller may still hold the buffer or a duplicate of it after
+ * release.  Such buffers remain readable after release, but no longer reflect the file once deleted.</p>
+ *
+ * <p>Thread-safe with fine-grained locking.  Concurrent writes to the same bytes are not coordinated.</p>
+ *
+ * @see  TempFile#map(java.nio.channels.FileChannel.MapMode, long)
+ */
+public final class TempFileMapping implements Closeable {
+
+  /**
+   * The number of bytes mapped by each chunk, other than the last, which may be smaller.
+   */
+  public static final int CHUNK_SIZE = 1 << 30;
+
+  private static final MappedByteBuffer[] EMPTY = new MappedByteBuffer[0];
+
+  private final TempFile tempFile;
+  private final FileChannel.MapMode mode;
+
+  private final Object lock = new Object();
+
+  /**
+   * Held for read while accessing the mapped memory, and for write while releasing it.
+   */
+  private final ReentrantReadWriteLock releaseLock = new ReentrantReadWriteLock();
+
+  /**
+   * The channel used for mapping, kept open to grow the mapping.
+   */
+  private FileChannel channel;
+
+  /**
+   * Closes the channel on release when {@code true}, otherwise the channel is shared and owned by the temporary file.
+   */
+  private final boolean ownsChannel;
+
+  /**
+   * The current chunks, replaced on grow, {@code null} once released.
+   */
+  private volatile MappedByteBuffer[] chunks;
+
+  private volatile long size;
+
+  /**
+   * Set once any buffer is handed out by {@link #getChunk(int)}, after which the memory is left to garbage collection.
+   */
+  private volatile boolean chunkExposed;
+
+  /**
+   * The chunks replaced by grow, kept to be released along with the current chunks.
+   */
+  private final List<MappedByteBuffer> retired = new ArrayList<>();
+
+  /**
+   * @param  channel  The channel to map, closed on failure when owned
+   * @param  ownsChannel  Closes the channel on release when {@code true}
+   * @param  size  The number of bytes to map, growing the file when larger and {@code mode} is
+   *               {@link FileChannel.MapMode#READ_WRITE}
+   */
+  TempFileMapping(TempFile tempFile, FileChannel channel, boolean ownsChannel, FileChannel.MapMode mode, long size) throws IOException {
+    this.tempFile = tempFile;
+    this.mode = mode;
+    this.channel = channel;
+    this.ownsChannel = ownsChannel;
+    try {
+      if (size < 0) {
+        throw new IllegalArgumentException("size < 0: " + size);
+      }
+      if (size > channel.size() && mode != FileChannel.MapMode.READ_WRITE) {
+        throw new IllegalArgumentException("Only READ_WRITE may map beyond the end of file: " + size + " > " + channel.size());
+      }
+      chunks = mapChunks(EMPTY, size);
+      this.size = size;
+    } catch (IOException | RuntimeException | Error e) {
+      if (ownsChannel) {
+        channel.close();
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Maps the chunks to cover the given size, reusing the given chunks that are already full-sized.
+   */
+  private MappedByteBuffer[] mapChunks(MappedByteBuffer[] current, long newSize) throws IOException {
+    int count = (int) ((newSize + CHUNK_SIZE - 1) / CHUNK_SIZE);
+    MappedByteBuffer[] newChunks = Arrays.copyOf(current, count);
+    int start = current.length;
+    if (start > 0 && current[start - 1].capacity() < CHUNK_SIZE) {
+      // Remap the last partial chunk
+      start--;
+    }
+    for (int i = start; i < count; i++) {
+      long position = (long) i * CHUNK_SIZE;
+      newChunks[i] = channel.map(mode, position, Math.min(CHUNK_SIZE, newSize - position));
+    }
+    return newChunks;
+  }
+
+  /**
+   * Gets the number of bytes mapped.
+   */
+  public long size() {
+    return size;
+  }
+
+  /**
+   * Gets the number of chunks.
+   */
+  public int getChunkCount() {
+    return getChunks().length;
+  }
+
+  /**
+   * Gets the buffer of the given chunk, which maps the file from {@code index * CHUNK_SIZE}.  The buffer is shared by
+   * all callers, so {@linkplain ByteBuffer#duplicate() duplicate} it before changing its position or limit.
+   *
+   * <p>Once called, this mapping is released by garbage collection instead of being unmapped immediately.</p>
+   *
+   * @throws  IllegalStateException  when already released
+   */
+  public MappedByteBuffer getChunk(int index) throws IllegalStateException {
+    // Set before reading the chunks, while release clears the chunks before reading this, so a chunk is never both
+    // handed out and unmapped
+    chunkExposed = true;
+    return getChunks()[index];
+  }
+
+  private MappedByteBuffer[] getChunks() throws IllegalStateException {
+    MappedByteBuffer[] c = chunks;
+    if (c == null) {
+      throw new IllegalStateException("Mapping closed");
+    }
+    return c;
+  }
+
+  private void checkIndex(long position, int len) {
+    if (position < 0 || len < 0 || position + len > size) {
+      throw new IndexOutOfBoundsException("position=" + position + ", len=" + len + ", size=" + size);
+    }
+  }
+
+  /**
+   * Gets the byte at the given position.
+   *
+   * @throws  IllegalStateException  when already released
+   */
+  public byte get(long position) throws IllegalStateException {
+    checkIndex(position, 1);
+    Lock readLock = releaseLock.readLock();
+    readLock.lock();
+    try {
+      return getChunks()[(int) (position / CHUNK_SIZE)].get((int) (position % CHUNK_SIZE));
+    } finally {
+      readLock.unlock();
+    }
+  }
+
+  /**
+   * Puts the byte at the given position.
+   *
+   * @throws  IllegalStateException  when already released
+   */
+  public void put(long position, byte b) throws IllegalStateException {
+    checkIndex(position, 1);
+    Lock readLock = releaseLock.readLock();
+    readLock.lock();
+    try {
+      getChunks()[(int) (position / CHUNK_SIZE)].put((int) (position % CHUNK_SIZE), b);
+    } finally {
+      readLock.unlock();
+    }
+  }
+
+  /**
+   * Copies bytes from the given position, spanning chunks as needed.
+   *
+   * @throws  IllegalStateException  when already released
+   */
+  public void get(long position, byte[] dst, int off, int len) throws IllegalStateException {
+    if (off < 0 || off + len > dst.length || off + len < 0) {
+      throw new IndexOutOfBoundsException();
+    }
+    checkIndex(position, len);
+    Lock readLock = releaseLock.readLock();
+    readLock.lock();
+    try {
+      MappedByteBuffer[] c = getChunks();
+      while (len > 0) {
+        int chunkOffset = (int) (position % CHUNK_SIZE);
+        int count = Math.min(len, CHUNK_SIZE - chunkOffset);
+        ByteBuffer chunk = c[(int) (position / CHUNK_SIZE)].duplicate();
+        chunk.position(chunkOffset);
+        chunk.get(dst, off, count);
+        position += count;
+        off += count;
+        len -= count;
+      }
+    } finally {
+      readLock.unlock();
+    }
+  }
+
+  /**
+   * Copies bytes to the given position, spanning chunks as needed.
+   *
+   * @throws  IllegalStateException  when already released
+   */
+  public void put(long position, byte[] src, int off, int len) throws IllegalStateException {
+    if (off < 0 || off + len > src.length || off + len < 0) {
+      throw new IndexOutOfBoundsException();
+    }
+    checkIndex(position, len);
+    Lock readLock = releaseLock.readLock();
+    readLock.lock();
+    try {
+      MappedByteBuffer[] c = getChunks();
+      while (len > 0) {
+        int chunkOffset = (int) (position % CHUNK_SIZE);
+        int count = Math.min(len, CHUNK_SIZE - chunkOffset);
+        ByteBuffer chunk = c[(int) (position / CHUNK_SIZE)].duplicate();
+        chunk.position(chunkOffset);
+        chunk.put(src, off, count);
+        position += count;
+        off += count;
+        len -= count;
+      }
+    } finally {
+      readLock.unlock();
+    }
+  }
+
+  /**
+   * Grows the mapping, and the file when smaller, to the given size.  Chunks that are already full-sized are kept, so
+   * buffers from {@link #getChunk(int)} remain valid.  A replaced partial chunk remains valid until this mapping is
+   * released.
+   *
+   * @param  newSize  The new size, no action taken when not larger than the current size
+   *
+   * @throws  IllegalStateException  when already released or not mapped {@link FileChannel.MapMode#READ_WRITE}
+   * @throws  TempFileQuotaExceededException  when growing the file would exceed the
+   *                                          {@linkplain TempFileContext.Builder#hardQuota(long) hard quota} of the
+   *                                          context
+   */
+  public void grow(long newSize) throws IllegalStateException, IOException {
+    if (mode != FileChannel.MapMode.READ_WRITE) {
+      throw new IllegalStateException("Only READ_WRITE mappings may grow: " + mode);
+    }
+    synchronized (lock) {
+      MappedByteBuffer[] c = getChunks();
+      if (newSize > size) {
+        tempFile.checkGrowth(newSize);
+        MappedByteBuffer last = (c.length == 0) ? null : c[c.length - 1];
+        MappedByteBuffer[] newChunks = mapChunks(c, newSize);
+        if (last != null && newChunks[c.length - 1] != last) {
+          retired.add(last);
+        }
+        chunks = newChunks;
+        size = newSize;
+        tempFile.grown(newSize);
+      }
+    }
+  }
+
+  /**
+   * Forces any changes to be written to the file.
+   *
+   * @throws  IllegalStateException  when already released
+   */
+  public void force() throws IllegalStateException {
+    Lock readLock = releaseLock.readLock();
+    readLock.lock();
+    try {
+      for (MappedByteBuffer chunk : getChunks()) {
+        chunk.force();
+      }
+    } finally {
+      readLock.unlock();
+    }
+  }
+
+  /**
+   * Releases this mapping, if not already released.
+   */
+  @Override
+  public void close() throws IOException {
+    release();
+    tempFile.removeMapping(this);
+  }
+
+  /**
+   * Releases the mapping and closes the channel, without de-registering from the temporary file.  Waits for any
+   * access in progress through the methods of this mapping.  The memory is unmapped immediately only when no buffer
+   * was handed out by {@link #getChunk(int)}.
+   */
+  void release() throws IOException {
+    FileChannel ch;
+    Lock writeLock = releaseLock.writeLock();
+    writeLock.lock();
+    try {
+      synchronized (lock) {
+        MappedByteBuffer[] c = chunks;
+        if (c == null) {
+          return;
+        }
+        chunks = null;
+        if (!chunkExposed) {
+          for (MappedByteBuffer chunk : c) {
+            Unmapper.unmap(chunk);
+          }
+          for (MappedByteBuffer chunk : retired) {
+            Unmapper.unmap(chunk);
+          }
+        }
+        retired.clear();
+        ch = channel;
+        channel = null;
+      }
+    } finally {
+      writeLock.unlock();
+    }
+    if (ownsChannel) {
+      ch.close();
+    }
+  }
+}
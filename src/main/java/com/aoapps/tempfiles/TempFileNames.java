@@ -0,0 +1,207 @@
+/*
+ * ao-tempfiles - Java temporary file API filling-in JDK gaps and deficiencies.
+ * Copyright (C) 2026  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of ao-tempfiles.
+ *
+ * ao-tempfiles is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ao-tempfiles is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ao-tempfiles.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.aoapps.tempfiles;
+
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.SecureRandom;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Creates temporary files and directories with unique names, without the contention of
+ * {@link Files#createTempFile(java.nio.file.Path, java.lang.String, java.lang.String, java.nio.file.attribute.FileAttribute...)},
+ * which generates every name from a single shared {@link java.security.SecureRandom}.
+ *
+ * <p>Each name consists of the prefix, a fixed-length salt, a counter, and the suffix.  The salt is drawn from
+ * {@link ThreadLocalRandom} mixed with a secret chosen once per instance from {@link SecureRandom}, so names are not
+ * predictable from the state of {@link ThreadLocalRandom} alone, without sharing a lock per name.  The counter makes
+ * names unique within a context, while the salt makes collisions between contexts and JVMs unlikely.  The same
+ * security guarantees as the JDK are kept: files are created atomically with
+ * {@link java.nio.file.StandardOpenOption#CREATE_NEW}, so an existing file or symbolic link is never opened, and with
+ * permissions accessible only by the owner where supported.  On any collision, a new salt is chosen and the create is
+ * retried, up to {@link #MAX_ATTEMPTS} times, so names pre-created by another user cannot make creation retry
+ * forever.</p>
+ *
+ * <p>Thread-safe.</p>
+ */
+final class TempFileNames {
+
+  /**
+   * The suffix used when none provided, matching the JDK.
+   */
+  private static final String DEFAULT_SUFFIX = ".tmp";
+
+  /**
+   * The maximum number of names tried for a single new temporary file or directory.
+   */
+  static final int MAX_ATTEMPTS = 100;
+
+  private static final int RADIX = Character.MAX_RADIX;
+
+  /**
+   * The number of characters in the salt.
+   */
+  private static final int SALT_LENGTH = 6;
+
+  /**
+   * The exclusive upper bound of salt values, <code>RADIX<sup>SALT_LENGTH</sup></code>.
+   */
+  private static final long SALT_BOUND;
+
+  static {
+    long bound = 1;
+    for (int i = 0; i < SALT_LENGTH; i++) {
+      bound *= RADIX;
+    }
+    SALT_BOUND = bound;
+  }
+
+  private static final Set<PosixFilePermission> OWNER_ONLY_FILE = EnumSet.of(
+      PosixFilePermission.OWNER_READ,
+      PosixFilePermission.OWNER_WRITE
+  );
+
+  private static final Set<PosixFilePermission> OWNER_ONLY_DIRECTORY = EnumSet.of(
+      PosixFilePermission.OWNER_READ,
+      PosixFilePermission.OWNER_WRITE,
+      PosixFilePermission.OWNER_EXECUTE
+  );
+
+  private final AtomicLong counter = new AtomicLong();
+
+  /**
+   * The secret mixed into every salt.
+   */
+  private final long saltKey;
+
+  private final FileAttribute<?>[] fileAttributes;
+  private final FileAttribute<?>[] directoryAttributes;
+
+  /**
+   * @param  fileSystem  The file system the temporary files are created in, used to determine the supported
+   *                     permissions
+   */
+  TempFileNames(FileSystem fileSystem) {
+    saltKey = new SecureRandom().nextLong();
+    if (fileSystem.supportedFileAttributeViews().contains("posix")) {
+      fileAttributes = new FileAttribute<?>[]{PosixFilePermissions.asFileAttribute(OWNER_ONLY_FILE)};
+      directoryAttributes = new FileAttribute<?>[]{PosixFilePermissions.asFileAttribute(OWNER_ONLY_DIRECTORY)};
+    } else {
+      fileAttributes = new FileAttribute<?>[0];
+      directoryAttributes = fileAttributes;
+    }
+  }
+
+  /**
+   * Creates a new, empty file with a unique name, accessible only by its owner where supported.
+   *
+   * @param  prefix  The already formatted prefix
+   * @param  suffix  The suffix or {@code null} for {@code ".tmp"}
+   *
+   * @throws  IllegalArgumentException  when the prefix or suffix would create the file outside of {@code dir}
+   * @throws  FileAlreadyExistsException  when every one of {@link #MAX_ATTEMPTS} names already exists
+   */
+  Path createFile(Path dir, String prefix, String suffix) throws IllegalArgumentException, IOException {
+    if (suffix == null) {
+      suffix = DEFAULT_SUFFIX;
+    }
+    int attempts = 0;
+    while (true) {
+      Path path = newPath(dir, prefix, suffix);
+      try {
+        return Files.createFile(path, fileAttributes);
+      } catch (FileAlreadyExistsException e) {
+        if (++attempts >= MAX_ATTEMPTS) {
+          throw e;
+        }
+        // Try again with a new salt
+      }
+    }
+  }
+
+  /**
+   * Creates a new, empty directory with a unique name, accessible only by its owner where supported.
+   *
+   * @param  prefix  The already formatted prefix
+   *
+   * @throws  IllegalArgumentException  when the prefix would create the directory outside of {@code dir}
+   * @throws  FileAlreadyExistsException  when every one of {@link #MAX_ATTEMPTS} names already exists
+   */
+  Path createDirectory(Path dir, String prefix) throws IllegalArgumentException, IOException {
+    int attempts = 0;
+    while (true) {
+      Path path = newPath(dir, prefix, "");
+      try {
+        return Files.createDirectory(path, directoryAttributes);
+      } catch (FileAlreadyExistsException e) {
+        if (++attempts >= MAX_ATTEMPTS) {
+          throw e;
+        }
+        // Try again with a new salt
+      }
+    }
+  }
+
+  /**
+   * Generates a new path within the given directory.
+   *
+   * @throws  IllegalArgumentException  when the prefix or suffix contain a name separator
+   */
+  private Path newPath(Path dir, String prefix, String suffix) throws IllegalArgumentException {
+    String salt = Long.toString(Math.floorMod(mix(ThreadLocalRandom.current().nextLong() ^ saltKey), SALT_BOUND), RADIX);
+    String count = Long.toString(counter.getAndIncrement(), RADIX);
+    StringBuilder sb = new StringBuilder(prefix.length() + SALT_LENGTH + count.length() + suffix.length());
+    sb.append(prefix);
+    // Fixed length, so the salt and counter are unambiguous
+    for (int i = salt.length(); i < SALT_LENGTH; i++) {
+      sb.append('0');
+    }
+    sb.append(salt).append(count).append(suffix);
+    Path name = dir.getFileSystem().getPath(sb.toString());
+    // Same check as the JDK
+    if (name.getParent() != null) {
+      throw new IllegalArgumentException("Invalid prefix or suffix");
+    }
+    return dir.resolve(name);
+  }
+
+  /**
+   * Mixes the bits of the given value, using the finalizer of SplitMix64, so each bit of the salt depends on every
+   * bit of the secret.
+   */
+  private static long mix(long z) {
+    z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+    z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+    return z ^ (z >>> 31);
+  }
+}
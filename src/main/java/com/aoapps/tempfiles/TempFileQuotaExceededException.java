@@ -0,0 +1,63 @@
+/*
+ * ao-tempfiles - Java temporary file API filling-in JDK gaps and deficiencies.
+ * Copyright (C) 2026  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of ao-tempfiles.
+ *
+ * ao-tempfiles is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ao-tempfiles is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ao-tempfiles.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.aoapps.tempfiles;
+
+import java.io.IOException;
+
+/**
+ * Thrown when creating or writing a temporary file would exceed a
+ * {@linkplain TempFileContext.Builder#softQuota(long) soft} or {@linkplain TempFileContext.Builder#hardQuota(long) hard}
+ * quota of its {@link TempFileContext}.
+ */
+public class TempFileQuotaExceededException extends IOException {
+
+  private static final long serialVersionUID = 1L;
+
+  private final long usage;
+  private final long quota;
+
+  /**
+   * @param  usage  The number of bytes used, including any requested growth
+   * @param  quota  The quota that would be exceeded
+   */
+  public TempFileQuotaExceededException(String message, long usage, long quota) {
+    super(message + ": usage " + usage + ", quota " + quota);
+    this.usage = usage;
+    this.quota = quota;
+  }
+
+  /**
+   * Gets the number of bytes used, including any requested growth.
+   */
+  public long getUsage() {
+    return usage;
+  }
+
+  /**
+   * Gets the quota that would be exceeded.
+   */
+  public long getQuota() {
+    return quota;
+  }
+}
@@ -0,0 +1,623 @@
+/*
+ * ao-tempfiles - Java temporary file API filling-in JDK gaps and deficiencies.
+ * Copyright (C) 2026  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of ao-tempfiles.
+ *
+ * ao-tempfiles is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ao-tempfiles is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ao-tempfiles.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package com.aoapps.tempfiles;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A temporary file that starts on the {@linkplain TempFileContext.Builder#ramTier(java.io.File, long) RAM tier} and
+ * moves to the disk tier once it grows beyond the maximum file size of the RAM tier or the RAM tier is full.  The move
+ * copies the content to a new temporary file on disk and deletes the file on the RAM tier.  This delegates to the
+ * current file, so the move is transparent to holders of this temporary file and of its streams and channels.
+ *
+ * <p>A file is no longer moved once its name is exposed by {@link #getFile()} or once it is
+ * {@linkplain #map(java.nio.channels.FileChannel.MapMode, long) mapped}, since either may still refer to the file on
+ * the RAM tier.  Only files created with a positive size hint are on the RAM tier, so only callers that gave a size
+ * hint may pin a file there.</p>
+ *
+ * <p>Thread-safe with fine-grained locking.</p>
+ *
+ * @see  TempFileContext#createTempFile(java.lang.String, java.lang.String, long)
+ */
+final class TieredTempFile extends TempFile {
+
+  private final TempFileContext context;
+  private final String prefix;
+  private final String suffix;
+  private final TempDirStats ramTier;
+  private final long ramTierCapacity;
+  private final long ramTierMaxFileSize;
+  private final DirectBufferPool bufferPool;
+
+  /**
+   * Held for read while accessing the current file, and for write while moving or closing it.
+   */
+  private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+  /**
+   * The current file, {@code null} once closed.
+   */
+  private TempFile delegate;
+
+  private volatile boolean onRamTier = true;
+
+  /**
+   * Set once the file may no longer be moved.
+   */
+  private volatile boolean pinned;
+
+  /**
+   * @param  prefix  The already formatted prefix
+   * @param  ramFile  The file, already created on the RAM tier
+   * @param  bufferPool  The pool of buffers for streams or {@code null} to use the streams of the JDK
+   */
+  TieredTempFile(
+      TempFileContext context,
+      String prefix,
+      String suffix,
+      TempFile ramFile,
+      TempDirStats ramTier,
+      long ramTierCapacity,
+      long ramTierMaxFileSize,
+      DirectBufferPool bufferPool
+  ) {
+    // Not used directly, all access is through the delegate
+    super(null, null, null, false, false, null, null, null, null, null);
+    this.context = context;
+    this.prefix = prefix;
+    this.suffix = suffix;
+    this.delegate = ramFile;
+    this.ramTier = ramTier;
+    this.ramTierCapacity = ramTierCapacity;
+    this.ramTierMaxFileSize = ramTierMaxFileSize;
+    this.bufferPool = bufferPool;
+  }
+
+  /**
+   * Gets the current file while holding either lock.
+   *
+   * @throws  IllegalStateException  when already closed
+   */
+  private TempFile current() throws IllegalStateException {
+    assert lock.getReadHoldCount() > 0 || lock.isWriteLockedByCurrentThread();
+    TempFile d = delegate;
+    if (d == null) {
+      throw new IllegalStateException("Temp file closed");
+    }
+    return d;
+  }
+
+  /**
+   * Checks if the current file is on the RAM tier.
+   */
+  boolean isOnRamTier() {
+    return onRamTier;
+  }
+
+  /**
+   * Checks if growing the given file to the given size requires moving to the disk tier.
+   */
+  private boolean needsMove(TempFile d, long size) {
+    if (!onRamTier || pinned) {
+      return false;
+    }
+    if (size > ramTierMaxFileSize) {
+      return true;
+    }
+    long growth = size - d.getCountedSize();
+    return growth > 0 && ramTier.getDiskUsage() + growth > ramTierCapacity;
+  }
+
+  /**
+   * Gets the size the current file may grow to before moving to the disk tier.
+   *
+   * @return  the size or {@link Long#MAX_VALUE} when not on the RAM tier or not movable
+   */
+  private long getRamTierLimit(TempFile d) {
+    if (!onRamTier || pinned) {
+      return Long.MAX_VALUE;
+    }
+    return Math.max(0, Math.min(ramTierMaxFileSize, d.getCountedSize() + ramTierCapacity - ramTier.getDiskUsage()));
+  }
+
+  /**
+   * Moves to the disk tier when growing to the given size would exceed the RAM tier.
+   */
+  private void ensureRoom(long size) throws IOException {
+    if (onRamTier && !pinned) {
+      Lock readLock = lock.readLock();
+      boolean needed;
+      readLock.lock();
+      try {
+        needed = needsMove(current(), size);
+      } finally {
+        readLock.unlock();
+      }
+      if (needed) {
+        Lock writeLock = lock.writeLock();
+        writeLock.lock();
+        try {
+          TempFile d = current();
+          if (needsMove(d, size)) {
+            moveToDisk(d);
+          }
+        } finally {
+          writeLock.unlock();
+        }
+      }
+    }
+  }
+
+  /**
+   * Copies the content to a new temporary file on the disk tier, then closes the file on the RAM tier.
+   */
+  private void moveToDisk(TempFile ramFile) throws IOException {
+    assert lock.isWriteLockedByCurrentThread();
+    TempFile diskFile = context.createDiskTempFile(prefix, suffix);
+    long size;
+    try {
+      FileChannel from = ramFile.getSharedChannel();
+      FileChannel to = diskFile.getSharedChannel();
+      size = from.size();
+      long position = 0;
+      while (position < size) {
+        long count = from.transferTo(position, size - position, to);
+        if (count == 0) {
+          throw new IOException("Unable to move temporary file to disk tier: " + position + " of " + size + " bytes copied");
+        }
+        position += count;
+      }
+      // Moving may briefly exceed the hard quota, since the content is counted on both tiers until done
+      diskFile.grown(size);
+    } catch (IOException | RuntimeException | Error e) {
+      try {
+        diskFile.close();
+      } catch (IOException e2) {
+        e.addSuppressed(e2);
+      }
+      throw e;
+    }
+    ramFile.recordRead(size);
+    diskFile.recordWrite(size);
+    delegate = diskFile;
+    onRamTier = false;
+    context.recordRamTierMove();
+    ramFile.close();
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>The file is pinned to its current tier once its name is exposed, and is no longer moved to the disk tier.</p>
+   */
+  @Override
+  public File getFile() throws IllegalStateException {
+    Lock readLock = lock.readLock();
+    readLock.lock();
+    try {
+      TempFile d = current();
+      pinned = true;
+      return d.getFile();
+    } finally {
+      readLock.unlock();
+    }
+  }
+
+  @Override
+  public OutputStream newOutputStream() throws IllegalStateException, IOException {
+    TieredChannel channel = new TieredChannel();
+    channel.truncate(0);
+    return (bufferPool == null) ? Channels.newOutputStream(channel) : bufferPool.newOutputStream(channel);
+  }
+
+  @Override
+  public InputStream newInputStream() throws IllegalStateException, IOException {
+    TieredChannel channel = new TieredChannel();
+    return (bufferPool == null) ? Channels.newInputStream(channel) : bufferPool.newInputStream(channel);
+  }
+
+  @Override
+  FileChannel getSharedChannel() throws IllegalStateException, IOException {
+    Lock readLock = lock.readLock();
+    readLock.lock();
+    try {
+      return current().getSharedChannel();
+    } finally {
+      readLock.unlock();
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>The view follows the file when it moves to the disk tier.</p>
+   */
+  @Override
+  public SeekableByteChannel newChannel() throws IllegalStateException, IOException {
+    getSharedChannel();
+    return new TieredChannel();
+  }
+
+  /**
+   * A view of the shared channel of the current file, with its own position.
+   */
+  private class TieredChannel implements SeekableByteChannel {
+
+    private long position;
+    private volatile boolean open = true;
+
+    private TieredChannel() throws IllegalStateException {
+      Lock readLock = lock.readLock();
+      readLock.lock();
+      try {
+        current();
+      } finally {
+        readLock.unlock();
+      }
+    }
+
+    /**
+     * Gets the current file while holding the read lock.
+     */
+    private TempFile getFile() throws ClosedChannelException {
+      if (!open) {
+        throw new ClosedChannelException();
+      }
+      try {
+        return current();
+      } catch (IllegalStateException e) {
+        throw new ClosedChannelException();
+      }
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+      Lock readLock = lock.readLock();
+      readLock.lock();
+      try {
+        int count = getFile().read(dst, position);
+        if (count > 0) {
+          position += count;
+        }
+        return count;
+      } finally {
+        readLock.unlock();
+      }
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+      long end = position + src.remaining();
+      ensureRoom(end);
+      Lock readLock = lock.readLock();
+      readLock.lock();
+      try {
+        int count = src.remaining();
+        getFile().write(src, position);
+        position += count;
+        return count;
+      } finally {
+        readLock.unlock();
+      }
+    }
+
+    @Override
+    public long position() throws IOException {
+      Lock readLock = lock.readLock();
+      readLock.lock();
+      try {
+        getFile();
+        return position;
+      } finally {
+        readLock.unlock();
+      }
+    }
+
+    @Override
+    public SeekableByteChannel position(long newPosition) throws IOException {
+      if (newPosition < 0) {
+        throw new IllegalArgumentException("newPosition < 0: " + newPosition);
+      }
+      position();
+      position = newPosition;
+      return this;
+    }
+
+    @Override
+    public long size() throws IOException {
+      Lock readLock = lock.readLock();
+      readLock.lock();
+      try {
+        return getFile().getSharedChannel().size();
+      } finally {
+        readLock.unlock();
+      }
+    }
+
+    @Override
+    public SeekableByteChannel truncate(long size) throws IOException {
+      Lock readLock = lock.readLock();
+      readLock.lock();
+      try {
+        TempFile d = getFile();
+        d.getSharedChannel().truncate(size);
+        d.truncated(size);
+      } finally {
+        readLock.unlock();
+      }
+      if (position > size) {
+        position = size;
+      }
+      return this;
+    }
+
+    @Override
+    public boolean isOpen() {
+      return open;
+    }
+
+    @Override
+    public void close() {
+      open = false;
+    }
+  }
+
+  @Override
+  int read(ByteBuffer dst, long position) throws IllegalStateException, IOException {
+    Lock readLock = lock.readLock();
+    readLock.lock();
+    try {
+      return current().read(dst, position);
+    } finally {
+      readLock.unlock();
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>Moves to the disk tier first when the end of the write exceeds the RAM tier.</p>
+   */
+  @Override
+  void write(ByteBuffer src, long position) throws IllegalStateException, IOException {
+    ensureRoom(position + src.remaining());
+    Lock readLock = lock.readLock();
+    readLock.lock();
+    try {
+      current().write(src, position);
+    } finally {
+      readLock.unlock();
+    }
+  }
+
+  @Override
+  public long transferTo(WritableByteChannel target, long limit) throws IllegalArgumentException, IllegalStateException, IOException {
+    Lock readLock = lock.readLock();
+    readLock.lock();
+    try {
+      return current().transferTo(target, limit);
+    } finally {
+      readLock.unlock();
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>Transfers to the RAM tier up to its limit, then moves to the disk tier for the remainder.</p>
+   */
+  @Override
+  public long transferFrom(ReadableByteChannel src, long limit) throws IllegalArgumentException, IllegalStateException, IOException {
+    if (limit < 0) {
+      throw new IllegalArgumentException("limit < 0: " + limit);
+    }
+    Lock readLock = lock.readLock();
+    readLock.lock();
+    try {
+      TempFile d = current();
+      d.getSharedChannel().truncate(0);
+      d.truncated(0);
+    } finally {
+      readLock.unlock();
+    }
+    long position = 0;
+    while (position < limit) {
+      long end;
+      long count;
+      readLock.lock();
+      try {
+        TempFile d = current();
+        end = Math.min(limit, getRamTierLimit(d));
+        count = (position < end) ? d.transferFrom(src, position, end) : 0;
+      } finally {
+        readLock.unlock();
+      }
+      position += count;
+      if (position < end) {
+        // End of source or non-blocking source has nothing available
+        break;
+      }
+      if (position < limit) {
+        // Probes for more before moving, so a source ending exactly at the limit of the RAM tier is not moved
+        ByteBuffer probe = ByteBuffer.allocate(1);
+        if (src.read(probe) <= 0) {
+          break;
+        }
+        probe.flip();
+        // Moves to the disk tier as needed
+        write(probe, position);
+        position++;
+      }
+    }
+    return position;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>The file is no longer moved to the disk tier once mapped.</p>
+   */
+  @Override
+  public TempFileMapping map(FileChannel.MapMode mode) throws IllegalStateException, IOException {
+    Lock readLock = lock.readLock();
+    readLock.lock();
+    try {
+      TempFile d = current();
+      pinned = true;
+      return d.map(mode);
+    } finally {
+      readLock.unlock();
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>Moves to the disk tier first when the size exceeds the RAM tier.  The file is no longer moved once mapped.</p>
+   */
+  @Override
+  public TempFileMapping map(FileChannel.MapMode mode, long size) throws IllegalArgumentException, IllegalStateException, IOException {
+    if (mode == FileChannel.MapMode.READ_WRITE) {
+      ensureRoom(size);
+    }
+    Lock readLock = lock.readLock();
+    readLock.lock();
+    try {
+      TempFile d = current();
+      pinned = true;
+      return d.map(mode, size);
+    } finally {
+      readLock.unlock();
+    }
+  }
+
+  @Override
+  void checkGrowth(long size) throws IOException {
+    ensureRoom(size);
+    Lock readLock = lock.readLock();
+    readLock.lock();
+    try {
+      current().checkGrowth(size);
+    } finally {
+      readLock.unlock();
+    }
+  }
+
+  /**
+   * Gets the current file while holding the read lock, without checking closed.
+   */
+  private TempFile currentOrNull() {
+    Lock readLock = lock.readLock();
+    readLock.lock();
+    try {
+      return delegate;
+    } finally {
+      readLock.unlock();
+    }
+  }
+
+  @Override
+  void grown(long size) {
+    TempFile d = currentOrNull();
+    if (d != null) {
+      d.grown(size);
+    }
+  }
+
+  @Override
+  void truncated(long size) {
+    TempFile d = currentOrNull();
+    if (d != null) {
+      d.truncated(size);
+    }
+  }
+
+  @Override
+  long getCountedSize() {
+    TempFile d = currentOrNull();
+    return (d == null) ? 0 : d.getCountedSize();
+  }
+
+  @Override
+  void recordWrite(long count) {
+    TempFile d = currentOrNull();
+    if (d != null) {
+      d.recordWrite(count);
+    }
+  }
+
+  @Override
+  void recordRead(long count) {
+    TempFile d = currentOrNull();
+    if (d != null) {
+      d.recordRead(count);
+    }
+  }
+
+  /**
+   * Takes the current file for close.
+   *
+   * @return  the current file or {@code null} when already closed
+   */
+  private TempFile takeForClose() {
+    Lock writeLock = lock.writeLock();
+    writeLock.lock();
+    try {
+      TempFile d = delegate;
+      delegate = null;
+      return d;
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    TempFile d = takeForClose();
+    if (d != null) {
+      d.close();
+    }
+  }
+
+  @Override
+  public CompletableFuture<Void> closeAsync(Executor executor) {
+    TempFile d = takeForClose();
+    return (d == null) ? CompletableFuture.completedFuture(null) : d.closeAsync(executor);
+  }
+}
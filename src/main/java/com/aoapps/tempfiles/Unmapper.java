@@ -0,0 +1,89 @@
+/*
+ * ao-tempfiles - Java temporary file API filling-in JDK gaps and deficiencies.
+ * Copyright (C) 2026  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of ao-tempfiles.
+ *
+ * ao-tempfiles is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ao-tempfiles is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ao-tempfiles.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.aoapps.tempfiles;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Releases memory mappings without waiting for garbage collection, using {@code sun.misc.Unsafe.invokeCleaner} where
+ * available (Java 9 and newer).  Elsewhere, mappings are released by garbage collection as usual.
+ *
+ * <p>Accessing a buffer after it has been unmapped may crash the JVM.</p>
+ */
+final class Unmapper {
+
+  private static final Logger logger = Logger.getLogger(Unmapper.class.getName());
+
+  private static final Object unsafe;
+  private static final Method invokeCleaner;
+
+  static {
+    Object u;
+    Method m;
+    try {
+      Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+      Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+      theUnsafe.setAccessible(true);
+      u = theUnsafe.get(null);
+      m = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      if (logger.isLoggable(Level.FINE)) {
+        logger.log(Level.FINE, "Unmapping unavailable, mappings will be released by garbage collection", e);
+      }
+      u = null;
+      m = null;
+    }
+    unsafe = u;
+    invokeCleaner = m;
+  }
+
+  /** Make no instances. */
+  private Unmapper() {
+    throw new AssertionError();
+  }
+
+  /**
+   * Releases the given mapping, if supported.
+   *
+   * @param  buffer  A buffer returned by {@link java.nio.channels.FileChannel#map(java.nio.channels.FileChannel.MapMode, long, long)},
+   *                 not a slice or duplicate
+   */
+  static void unmap(MappedByteBuffer buffer) {
+    if (invokeCleaner != null) {
+      try {
+        invokeCleaner.invoke(unsafe, buffer);
+      } catch (IllegalAccessException | InvocationTargetException | RuntimeException e) {
+        if (logger.isLoggable(Level.FINE)) {
+          logger.log(Level.FINE, "Unable to unmap", e);
+        }
+      }
+    }
+  }
+}
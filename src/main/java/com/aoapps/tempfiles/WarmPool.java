@@ -0,0 +1,210 @@
+/*
+ * ao-tempfiles - Java temporary file API filling-in JDK gaps and deficiencies.
+ * Copyright (C) 2026  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of ao-tempfiles.
+ *
+ * ao-tempfiles is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ao-tempfiles is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ao-tempfiles.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.aoapps.tempfiles;
+
+import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A bounded pool of already-created, already-registered empty temporary files, kept per class of prefix and suffix,
+ * and refilled in the background.
+ *
+ * <p>Thread-safe with fine-grained locking.</p>
+ */
+final class WarmPool {
+
+  private static final Logger logger = Logger.getLogger(WarmPool.class.getName());
+
+  /**
+   * The maximum number of distinct classes of prefix and suffix that are pooled.  Additional classes are always
+   * created on demand.
+   */
+  static final int MAX_CLASSES = 64;
+
+  /**
+   * Creates temporary files for the pool, without going through the pool.
+   */
+  @FunctionalInterface
+  interface Creator {
+    /**
+     * @param  prefix  The already formatted prefix
+     */
+    TempFile create(String prefix, String suffix) throws IOException;
+  }
+
+  /**
+   * The pooled files of a single prefix and suffix.
+   */
+  private final class PoolClass {
+
+    private final String prefix;
+    private final String suffix;
+    private final Queue<TempFile> files = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+
+    /**
+     * Set while a refill is scheduled or running.
+     */
+    private final AtomicBoolean refilling = new AtomicBoolean();
+
+    private PoolClass(String prefix, String suffix) {
+      this.prefix = prefix;
+      this.suffix = suffix;
+    }
+
+    private TempFile poll() {
+      TempFile file = files.poll();
+      if (file != null) {
+        size.decrementAndGet();
+        pooledCount.decrementAndGet();
+      }
+      return file;
+    }
+
+    private void scheduleRefill() {
+      if (size.get() < capacity && !closed.get() && refilling.compareAndSet(false, true)) {
+        try {
+          executor.execute(this::refill);
+        } catch (RejectedExecutionException e) {
+          refilling.set(false);
+          if (logger.isLoggable(Level.FINE)) {
+            logger.log(Level.FINE, "Unable to schedule refill of warm pool", e);
+          }
+        }
+      }
+    }
+
+    @SuppressWarnings({"UseSpecificCatch", "TooBroadCatch"})
+    private void refill() {
+      try {
+        while (size.get() < capacity && !closed.get()) {
+          TempFile file = creator.create(prefix, suffix);
+          if (closed.get()) {
+            // Closed concurrently
+            file.close();
+            break;
+          }
+          size.incrementAndGet();
+          pooledCount.incrementAndGet();
+          files.add(file);
+        }
+      } catch (Throwable t) {
+        if (logger.isLoggable(Level.WARNING)) {
+          logger.log(Level.WARNING, "Unable to refill warm pool", t);
+        }
+      } finally {
+        refilling.set(false);
+      }
+    }
+  }
+
+  private final int capacity;
+  private final Executor executor;
+  private final Creator creator;
+  private final ConcurrentMap<String, PoolClass> classes = new ConcurrentHashMap<>();
+  private final AtomicInteger pooledCount = new AtomicInteger();
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final AtomicBoolean closed = new AtomicBoolean();
+
+  /**
+   * @param  capacity  The maximum number of files pooled per class of prefix and suffix
+   * @param  executor  The executor that refills the pool
+   * @param  creator  Creates new temporary files, bypassing the pool
+   */
+  WarmPool(int capacity, Executor executor, Creator creator) {
+    this.capacity = capacity;
+    this.executor = executor;
+    this.creator = creator;
+  }
+
+  /**
+   * Takes a file from the pool, scheduling a refill in the background.  The first request for a class of prefix and
+   * suffix is always a miss and starts pooling that class.
+   *
+   * @param  prefix  The already formatted prefix
+   *
+   * @return  the pooled file or {@code null} on a miss
+   */
+  TempFile poll(String prefix, String suffix) {
+    // Neither '/' nor '\0' are allowed in names, so keys are unambiguous
+    String key = (suffix == null) ? (prefix + '\0') : (prefix + '/' + suffix);
+    PoolClass poolClass = classes.get(key);
+    if (poolClass == null && classes.size() < MAX_CLASSES) {
+      poolClass = classes.computeIfAbsent(key, k -> new PoolClass(prefix, suffix));
+    }
+    TempFile file;
+    if (poolClass == null) {
+      file = null;
+    } else {
+      file = poolClass.poll();
+      poolClass.scheduleRefill();
+    }
+    if (file == null) {
+      misses.increment();
+    } else {
+      hits.increment();
+    }
+    return file;
+  }
+
+  /**
+   * Gets the number of files currently in the pool.
+   */
+  int getPooledCount() {
+    return pooledCount.get();
+  }
+
+  long getHits() {
+    return hits.sum();
+  }
+
+  long getMisses() {
+    return misses.sum();
+  }
+
+  /**
+   * Stops refilling and discards the pooled files.  The files remain registered with the context, so are deleted
+   * along with all other files of the context.
+   */
+  void close() {
+    if (!closed.getAndSet(true)) {
+      for (PoolClass poolClass : classes.values()) {
+        while (poolClass.poll() != null) {
+          // Discard
+        }
+      }
+    }
+  }
+}
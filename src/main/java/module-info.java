@@ -1,6 +1,6 @@
 /*
  * ao-tempfiles - Java temporary file API filling-in JDK gaps and deficiencies.
- * Copyright (C) 2021, 2022  AO Industries, Inc.
+ * Copyright (C) 2021, 2022, 2026  AO Industries, Inc.
  *     support@aoindustries.com
  *     7262 Bull Pen Cir
  *     Mobile, AL 36695
@@ -24,4 +24,7 @@ module com.aoapps.tempfiles {
   exports com.aoapps.tempfiles;
   // Java SE
   requires java.logging;
+  requires java.management;
+  // JDK
+  requires static jdk.unsupported; // sun.misc.Unsafe.invokeCleaner in Unmapper
 }
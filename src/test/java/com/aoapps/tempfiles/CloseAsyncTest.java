@@ -0,0 +1,153 @@
+/*
+ * ao-tempfiles - Java temporary file API filling-in JDK gaps and deficiencies.
+ * Copyright (C) 2026  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of ao-tempfiles.
+ *
+ * ao-tempfiles is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ao-tempfiles is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ao-tempfiles.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package com.aoapps.tempfiles;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests the parallel deletes of {@link TempFileContext#closeAsync()}, including the aggregation of failures and the
+ * bookkeeping of pending deletes.
+ */
+public class CloseAsyncTest {
+
+  private static final int FILE_COUNT = 1000;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private ExecutorService executor;
+
+  @Before
+  public void setUp() {
+    executor = Executors.newFixedThreadPool(4);
+  }
+
+  @After
+  public void tearDown() throws InterruptedException {
+    executor.shutdown();
+    assertTrue(executor.awaitTermination(1, TimeUnit.MINUTES));
+  }
+
+  private TempFileContext newContext() {
+    return TempFileContext.builder()
+        .tmpDirs(folder.getRoot())
+        .deleteExecutor(executor)
+        .parallelDeleteThreshold(2)
+        .build();
+  }
+
+  private static List<File> createFiles(TempFileContext context) throws IOException {
+    List<File> files = new ArrayList<>(FILE_COUNT);
+    for (int i = 0; i < FILE_COUNT; i++) {
+      files.add(context.createTempFile().getFile());
+    }
+    return files;
+  }
+
+  /**
+   * Replaces the given file with a non-empty directory, which fails to delete as a file.
+   */
+  private static void makeUndeletable(File file) throws IOException {
+    Files.delete(file.toPath());
+    Files.createDirectory(file.toPath());
+    Files.createFile(file.toPath().resolve("child"));
+  }
+
+  @Test
+  public void testAllDeleted() throws Exception {
+    TempFileContext context = newContext();
+    List<File> files = createFiles(context);
+    assertNull(context.closeAsync().get(1, TimeUnit.MINUTES));
+    for (File file : files) {
+      assertFalse(file.toString(), file.exists());
+    }
+    assertEquals(0, TempFileContext.getPendingDeleteCount());
+  }
+
+  @Test
+  public void testFailuresAggregated() throws Exception {
+    TempFileContext context = newContext();
+    List<File> files = createFiles(context);
+    List<File> undeletable = new ArrayList<>();
+    // Spread across batches
+    for (int i : new int[] {0, FILE_COUNT / 2, FILE_COUNT - 1}) {
+      File file = files.get(i);
+      makeUndeletable(file);
+      undeletable.add(file);
+    }
+    try {
+      context.closeAsync().get(1, TimeUnit.MINUTES);
+      fail("Undeletable files not reported");
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      assertTrue(cause instanceof IOException);
+      assertEquals(undeletable.size(), cause.getSuppressed().length);
+      for (File file : undeletable) {
+        assertTrue(cause.getMessage(), cause.getMessage().contains(file.toString()));
+      }
+    }
+    for (File file : files) {
+      assertEquals(file.toString(), undeletable.contains(file), file.exists());
+    }
+    assertEquals(0, TempFileContext.getPendingDeleteCount());
+  }
+
+  @Test
+  public void testSingleFailure() throws Exception {
+    TempFileContext context = newContext();
+    createFiles(context);
+    File file = context.createTempFile().getFile();
+    makeUndeletable(file);
+    try {
+      context.closeAsync().get(1, TimeUnit.MINUTES);
+      fail("Undeletable file not reported");
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      assertTrue(cause instanceof IOException);
+      assertEquals("Unable to delete temporary file: " + file, cause.getMessage());
+      assertTrue(cause.getCause() instanceof IOException);
+    }
+    assertEquals(0, TempFileContext.getPendingDeleteCount());
+  }
+}
@@ -0,0 +1,142 @@
+/*
+ * ao-tempfiles - Java temporary file API filling-in JDK gaps and deficiencies.
+ * Copyright (C) 2026  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of ao-tempfiles.
+ *
+ * ao-tempfiles is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ao-tempfiles is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ao-tempfiles.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package com.aoapps.tempfiles;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests the {@linkplain TempFileContext#getDiskUsage() disk usage} and quotas of a context across truncates and
+ * rewrites.
+ */
+public class DiskUsageTest {
+
+  private static final int HARD_QUOTA = 10000;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private TempFileContext context;
+
+  @Before
+  public void setUp() throws IOException {
+    context = TempFileContext.builder()
+        .tmpDirs(folder.getRoot())
+        .hardQuota(HARD_QUOTA)
+        .build();
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    context.close();
+  }
+
+  private static void write(TempFile tempFile, int size) throws IOException {
+    try (OutputStream out = tempFile.newOutputStream()) {
+      out.write(new byte[size]);
+    }
+  }
+
+  private void checkRewriteAndTruncate(TempFile tempFile) throws IOException {
+    write(tempFile, 5000);
+    assertEquals(5000, context.getDiskUsage());
+    // Rewriting replaces the count instead of adding to it
+    write(tempFile, 3000);
+    assertEquals(3000, context.getDiskUsage());
+    write(tempFile, 5000);
+    assertEquals(5000, context.getDiskUsage());
+    try (SeekableByteChannel channel = tempFile.newChannel()) {
+      channel.truncate(1000);
+      assertEquals(1000, context.getDiskUsage());
+      // Writing within the counted size does not grow
+      channel.position(0);
+      channel.write(ByteBuffer.allocate(500));
+      assertEquals(1000, context.getDiskUsage());
+      channel.position(1000);
+      channel.write(ByteBuffer.allocate(500));
+      assertEquals(1500, context.getDiskUsage());
+    }
+    tempFile.close();
+    assertEquals(0, context.getDiskUsage());
+  }
+
+  @Test
+  public void testRewriteAndTruncate() throws IOException {
+    checkRewriteAndTruncate(context.createTempFile());
+  }
+
+  @Test
+  public void testRewriteAndTruncateAnonymous() throws IOException {
+    checkRewriteAndTruncate(context.createAnonymousTempFile());
+  }
+
+  @Test
+  public void testRewriteAndTruncateLazy() throws IOException {
+    checkRewriteAndTruncate(context.createLazyTempFile("lazy_", null));
+  }
+
+  @Test
+  public void testHardQuotaAfterRewrite() throws IOException {
+    try (TempFile tempFile = context.createTempFile()) {
+      write(tempFile, HARD_QUOTA);
+      assertEquals(HARD_QUOTA, context.getDiskUsage());
+      // The space released by a rewrite may be written again
+      write(tempFile, HARD_QUOTA);
+      assertEquals(HARD_QUOTA, context.getDiskUsage());
+      try (SeekableByteChannel channel = tempFile.newChannel()) {
+        channel.position(HARD_QUOTA);
+        try {
+          channel.write(ByteBuffer.allocate(1));
+          fail("Hard quota exceeded");
+        } catch (TempFileQuotaExceededException e) {
+          // Expected
+        }
+        assertEquals(HARD_QUOTA, context.getDiskUsage());
+        channel.truncate(HARD_QUOTA - 1);
+        channel.position(HARD_QUOTA - 1);
+        channel.write(ByteBuffer.allocate(1));
+      }
+      assertEquals(HARD_QUOTA, context.getDiskUsage());
+      try {
+        context.createTempFile();
+        fail("Hard quota reached");
+      } catch (TempFileQuotaExceededException e) {
+        // Expected
+      }
+    }
+    assertEquals(0, context.getDiskUsage());
+    context.createTempFile().close();
+  }
+}
@@ -0,0 +1,155 @@
+/*
+ * ao-tempfiles - Java temporary file API filling-in JDK gaps and deficiencies.
+ * Copyright (C) 2026  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of ao-tempfiles.
+ *
+ * ao-tempfiles is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ao-tempfiles is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ao-tempfiles.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package com.aoapps.tempfiles;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests the reuse of regions by {@link TempBlob}, which must never expose the stale bytes of a previous blob.
+ */
+public class TempBlobTest {
+
+  private static final byte STALE = (byte) 0xff;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private TempFileContext context;
+
+  @Before
+  public void setUp() throws IOException {
+    context = TempFileContext.builder().tmpDirs(folder.getRoot()).build();
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    context.close();
+  }
+
+  private static void write(TempBlob blob, long position, byte[] bytes) throws IOException {
+    try (SeekableByteChannel channel = blob.newChannel()) {
+      channel.position(position);
+      ByteBuffer buffer = ByteBuffer.wrap(bytes);
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+    }
+  }
+
+  private static byte[] readAll(TempBlob blob) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate((int) blob.size());
+    try (SeekableByteChannel channel = blob.newChannel()) {
+      while (buffer.hasRemaining() && channel.read(buffer) != -1) {
+        // Keep reading
+      }
+    }
+    return buffer.array();
+  }
+
+  private static byte[] filled(int size, byte value) {
+    byte[] bytes = new byte[size];
+    Arrays.fill(bytes, value);
+    return bytes;
+  }
+
+  /**
+   * Fills every slot of the first extent with stale bytes, then checks that the blobs reusing those slots read zeros
+   * in any gap before their first write.
+   */
+  @Test
+  public void testReusedSlotsZeroFillGaps() throws IOException {
+    final int slotSize = TempArena.MIN_SLOT_SIZE;
+    final int slots = 1024 * 1024 / slotSize;
+    List<TempBlob> blobs = new ArrayList<>();
+    for (int i = 0; i < slots; i++) {
+      TempBlob blob = context.createTempBlob(slotSize);
+      write(blob, 0, filled(slotSize, STALE));
+      blobs.add(blob);
+    }
+    long usage = context.getDiskUsage();
+    for (TempBlob blob : blobs) {
+      blob.close();
+    }
+    assertEquals(0, context.getTempBlobCount());
+    blobs.clear();
+    final int gap = slotSize / 2;
+    for (int i = 0; i < slots; i++) {
+      TempBlob blob = context.createTempBlob(slotSize);
+      write(blob, gap, new byte[] {1});
+      assertEquals(gap + 1, blob.size());
+      byte[] expected = new byte[gap + 1];
+      expected[gap] = 1;
+      assertArrayEquals("blob " + i, expected, readAll(blob));
+      blobs.add(blob);
+    }
+    // Every slot was reused, without growing the backing file
+    assertEquals(usage, context.getDiskUsage());
+    for (TempBlob blob : blobs) {
+      blob.close();
+    }
+  }
+
+  @Test
+  public void testTruncateThenWriteBeyondZeroFillsGap() throws IOException {
+    try (TempBlob blob = context.createTempBlob(100)) {
+      write(blob, 0, filled(100, STALE));
+      try (SeekableByteChannel channel = blob.newChannel()) {
+        channel.truncate(10);
+      }
+      write(blob, 50, new byte[] {1});
+      byte[] expected = new byte[51];
+      Arrays.fill(expected, 0, 10, STALE);
+      expected[50] = 1;
+      assertArrayEquals(expected, readAll(blob));
+    }
+  }
+
+  @Test
+  public void testGrowToLargerSizeClassKeepsContent() throws IOException {
+    try (TempBlob blob = context.createTempBlob(10)) {
+      byte[] first = filled(TempArena.MIN_SLOT_SIZE, (byte) 7);
+      write(blob, 0, first);
+      byte[] second = filled(TempArena.MIN_SLOT_SIZE * 3, (byte) 9);
+      write(blob, first.length, second);
+      byte[] expected = new byte[first.length + second.length];
+      System.arraycopy(first, 0, expected, 0, first.length);
+      System.arraycopy(second, 0, expected, first.length, second.length);
+      assertArrayEquals(expected, readAll(blob));
+    }
+  }
+}
@@ -0,0 +1,246 @@
+/*
+ * ao-tempfiles - Java temporary file API filling-in JDK gaps and deficiencies.
+ * Copyright (C) 2026  AO Industries, Inc.
+ *     support@aoindustries.com
+ *     7262 Bull Pen Cir
+ *     Mobile, AL 36695
+ *
+ * This file is part of ao-tempfiles.
+ *
+ * ao-tempfiles is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * ao-tempfiles is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with ao-tempfiles.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+
+package com.aoapps.tempfiles;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SeekableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests the move of {@link TieredTempFile} from the RAM tier to the disk tier.
+ */
+public class TieredTempFileTest {
+
+  private static final int MAX_FILE_SIZE = 64 * 1024;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private File ramTier;
+  private TempFileContext context;
+
+  @Before
+  public void setUp() throws IOException {
+    ramTier = folder.newFolder("ram");
+    context = TempFileContext.builder()
+        .tmpDirs(folder.newFolder("disk"))
+        .ramTier(ramTier, 1024 * 1024)
+        .ramTierMaxFileSize(MAX_FILE_SIZE)
+        .build();
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    context.close();
+  }
+
+  private static byte[] pattern(int size) {
+    byte[] bytes = new byte[size];
+    for (int i = 0; i < size; i++) {
+      bytes[i] = (byte) (i * 31);
+    }
+    return bytes;
+  }
+
+  private static byte[] readAll(TempFile tempFile) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    tempFile.transferTo(Channels.newChannel(out));
+    return out.toByteArray();
+  }
+
+  private TieredTempFile createTiered(long sizeHint) throws IOException {
+    TempFile tempFile = context.createTempFile("tiered_", null, sizeHint);
+    assertTrue(tempFile instanceof TieredTempFile);
+    TieredTempFile tiered = (TieredTempFile) tempFile;
+    assertTrue(tiered.isOnRamTier());
+    return tiered;
+  }
+
+  private long getRamTierDiskUsage() {
+    for (TempDirStats stats : context.getTempDirStats()) {
+      if (ramTier.equals(stats.getDir())) {
+        return stats.getDiskUsage();
+      }
+    }
+    throw new AssertionError("RAM tier not in stats");
+  }
+
+  @Test
+  public void testUnknownSizeNeverOnRamTier() throws IOException {
+    try (
+        TempFile noHint = context.createTempFile();
+        TempFile prefixSuffix = context.createTempFile("unknown_", null);
+        TempFile zeroHint = context.createTempFile("unknown_", null, 0)
+    ) {
+      assertFalse(noHint instanceof TieredTempFile);
+      assertFalse(prefixSuffix instanceof TieredTempFile);
+      assertFalse(zeroHint instanceof TieredTempFile);
+      assertEquals(0, ramTier.list().length);
+    }
+  }
+
+  @Test
+  public void testStaysOnRamTierWithinMaxFileSize() throws IOException {
+    try (TieredTempFile tiered = createTiered(100)) {
+      byte[] data = pattern(MAX_FILE_SIZE);
+      try (OutputStream out = tiered.newOutputStream()) {
+        out.write(data);
+      }
+      assertTrue(tiered.isOnRamTier());
+      assertEquals(0, context.getRamTierMoveCount());
+      assertEquals(MAX_FILE_SIZE, getRamTierDiskUsage());
+      assertArrayEquals(data, readAll(tiered));
+    }
+    assertEquals(0, getRamTierDiskUsage());
+  }
+
+  @Test
+  public void testMovesToDiskWhenGrowingBeyondMaxFileSize() throws IOException {
+    try (TieredTempFile tiered = createTiered(100)) {
+      byte[] data = pattern(MAX_FILE_SIZE * 3 + 17);
+      try (OutputStream out = tiered.newOutputStream()) {
+        out.write(data);
+      }
+      assertFalse(tiered.isOnRamTier());
+      assertEquals(1, context.getRamTierMoveCount());
+      assertEquals(0, getRamTierDiskUsage());
+      assertEquals(0, ramTier.list().length);
+      assertEquals(data.length, context.getDiskUsage());
+      assertArrayEquals(data, readAll(tiered));
+    }
+    assertEquals(0, context.getDiskUsage());
+  }
+
+  @Test
+  public void testTransferFromEndingAtMaxFileSizeDoesNotMove() throws IOException {
+    try (TieredTempFile tiered = createTiered(100)) {
+      byte[] data = pattern(MAX_FILE_SIZE);
+      assertEquals(data.length, tiered.transferFrom(Channels.newChannel(new ByteArrayInputStream(data))));
+      assertTrue(tiered.isOnRamTier());
+      assertEquals(0, context.getRamTierMoveCount());
+      assertArrayEquals(data, readAll(tiered));
+    }
+  }
+
+  @Test
+  public void testTransferFromBeyondMaxFileSizeMoves() throws IOException {
+    try (TieredTempFile tiered = createTiered(100)) {
+      byte[] data = pattern(MAX_FILE_SIZE + 1);
+      assertEquals(data.length, tiered.transferFrom(Channels.newChannel(new ByteArrayInputStream(data))));
+      assertFalse(tiered.isOnRamTier());
+      assertEquals(1, context.getRamTierMoveCount());
+      assertArrayEquals(data, readAll(tiered));
+    }
+  }
+
+  @Test
+  public void testGetFilePinsToRamTier() throws IOException {
+    try (TieredTempFile tiered = createTiered(100)) {
+      File file = tiered.getFile();
+      assertEquals(ramTier, file.getParentFile());
+      byte[] data = pattern(MAX_FILE_SIZE * 2);
+      try (OutputStream out = tiered.newOutputStream()) {
+        out.write(data);
+      }
+      assertTrue(tiered.isOnRamTier());
+      assertEquals(0, context.getRamTierMoveCount());
+      assertEquals(data.length, file.length());
+    }
+  }
+
+  /**
+   * Each thread writes its own region through its own channel, with the file moving to the disk tier while the
+   * writes are in progress.
+   */
+  @Test
+  public void testMoveDuringConcurrentChannelWrites() throws Exception {
+    final int threads = 8;
+    final int chunk = 1024;
+    final int chunksPerThread = (MAX_FILE_SIZE * 4) / (threads * chunk);
+    final int regionSize = chunk * chunksPerThread;
+    try (TieredTempFile tiered = createTiered(100)) {
+      ExecutorService executor = Executors.newFixedThreadPool(threads);
+      try {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+          final int thread = t;
+          futures.add(executor.submit(() -> {
+            start.await();
+            try (SeekableByteChannel channel = tiered.newChannel()) {
+              for (int c = 0; c < chunksPerThread; c++) {
+                byte[] bytes = new byte[chunk];
+                Arrays.fill(bytes, (byte) (thread + 1));
+                ByteBuffer buffer = ByteBuffer.wrap(bytes);
+                channel.position((long) thread * regionSize + (long) c * chunk);
+                while (buffer.hasRemaining()) {
+                  channel.write(buffer);
+                }
+              }
+            }
+            return null;
+          }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+          future.get(1, TimeUnit.MINUTES);
+        }
+      } finally {
+        executor.shutdown();
+      }
+      assertFalse(tiered.isOnRamTier());
+      assertEquals(1, context.getRamTierMoveCount());
+      byte[] content = readAll(tiered);
+      assertEquals(threads * regionSize, content.length);
+      for (int i = 0; i < content.length; i++) {
+        assertEquals("byte " + i, (byte) (i / regionSize + 1), content[i]);
+      }
+      assertEquals(content.length, context.getDiskUsage());
+    }
+  }
+}